@@ -0,0 +1,43 @@
+#!/bin/sh
+# Usage: benchmark_startup.sh <input worksheet name> [<runs>]
+#
+# Times create_schedule.sh on the given chart without and with the class data sharing
+# archive (see create_schedule.sh --build-cds) and prints the average wall time of each.
+# The jar is built from ./src and the archive dumped from it first, so that both timings
+# are of the current sources.
+
+CHART=$1
+RUNS=${2:-5}
+CDS_ARCHIVE=./lib/schedule_converter.jsa
+
+if [ -z "$CHART" ]; then
+    echo "Usage: benchmark_startup.sh <input worksheet name> [<runs>]"
+    exit 1
+fi
+
+sh ./create_schedule.sh --build-cds $CHART > /dev/null || exit 1
+
+now_millis() {
+    echo $(($(date +%s%N) / 1000000))
+}
+
+time_runs() {
+    total=0
+    i=0
+    while [ $i -lt $RUNS ]; do
+        start=$(now_millis)
+        sh ./create_schedule.sh $CHART > /dev/null || exit 1
+        total=$((total + $(now_millis) - start))
+        i=$((i + 1))
+    done
+    echo $((total / RUNS))
+}
+
+mv $CDS_ARCHIVE $CDS_ARCHIVE.off
+WITHOUT_CDS=$(time_runs)
+mv $CDS_ARCHIVE.off $CDS_ARCHIVE
+WITH_CDS=$(time_runs)
+
+echo "Average of $RUNS runs on $CHART"
+echo "Without class data sharing: $WITHOUT_CDS ms"
+echo "With class data sharing:    $WITH_CDS ms"
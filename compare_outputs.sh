@@ -0,0 +1,49 @@
+#!/bin/sh
+# Usage: compare_outputs.sh <reference jar> <input worksheet name> [<schedule-start-date> [<schedule-end-date>]]
+#
+# Compiles ./src, then converts the chart with the schedule_converter.jar of an earlier build
+# and with the classes just compiled, each into an output directory of its own, and compares
+# the reports cell by cell with ScheduleOutputComparer from ./tools. Prints the differences
+# and exits with 1 if there are any. Both runs use ./schedule.properties with
+# output_directory pointed at their own directory. Set MAIN_CLASS to compare the jxl
+# converter, org.isha.tco.schedule.ScheduleConverter.
+
+REFERENCE_JAR=$1
+CHART=$2
+OTHER_JARS=./lib/jxl.jar:./lib/dom4j-1.6.1.jar:./lib/geronimo-stax-api_1.0_spec-1.0.jar:./lib/xmlbeans-2.3.0.jar:./lib/poi-ooxml-3.5-beta6-20090622.jar:./lib/poi-3.5-beta6-20090622.jar
+MAIN_CLASS=${MAIN_CLASS:-org.isha.tco.schedule.ScheduleConverter2007}
+COMPARE_DIR=./compare_outputs
+CURRENT_CLASSES=$COMPARE_DIR/classes
+COMPARER_CLASSES=$COMPARE_DIR/tools
+
+if [ -z "$REFERENCE_JAR" ] || [ -z "$CHART" ]; then
+    echo "Usage: compare_outputs.sh <reference jar> <input worksheet name> [<schedule-start-date> [<schedule-end-date>]]"
+    exit 1
+fi
+shift
+
+# Each run gets a copy of schedule.properties of its own; the last output_directory is the one used.
+convert() {
+    RUN=$1
+    CONVERTER=$2
+    shift 2
+    mkdir -p $COMPARE_DIR/$RUN
+    cp ./schedule.properties $COMPARE_DIR/$RUN/schedule.properties
+    printf '\r\noutput_directory=%s\r\n' "$COMPARE_DIR/$RUN/output" >> $COMPARE_DIR/$RUN/schedule.properties
+    java -cp $CONVERTER:$OTHER_JARS:$COMPARE_DIR/$RUN $MAIN_CLASS $* > $COMPARE_DIR/$RUN.log 2>&1 || {
+        echo "The $RUN run failed. See $COMPARE_DIR/$RUN.log"
+        exit 1
+    }
+}
+
+rm -rf $COMPARE_DIR
+mkdir -p $CURRENT_CLASSES $COMPARER_CLASSES
+javac -nowarn -d $CURRENT_CLASSES -cp $OTHER_JARS ./src/org/isha/tco/schedule/*.java || exit 1
+javac -nowarn -d $COMPARER_CLASSES -cp $CURRENT_CLASSES:$OTHER_JARS \
+    ./tools/org/isha/tco/schedule/ScheduleOutputComparer.java || exit 1
+
+(convert reference $REFERENCE_JAR $*) || exit 1
+(convert current $CURRENT_CLASSES $*) || exit 1
+
+java -cp $COMPARER_CLASSES:$CURRENT_CLASSES:$OTHER_JARS org.isha.tco.schedule.ScheduleOutputComparer \
+    $COMPARE_DIR/reference/output $COMPARE_DIR/current/output
@@ -1,2 +1,48 @@
-java -cp ./lib/schedule_converter.jar:./lib/jxl.jar:./lib/dom4j-1.6.1.jar:./lib/geronimo-stax-api_1.0_spec-1.0.jar:./lib/ooxml-schemas-1.0.jar:./lib/xmlbeans-2.3.0.jar:./lib/poi-ooxml-3.5-beta6-20090622.jar:./lib/poi-3.5-beta6-20090622.jar:./ org.isha.tco.schedule.ScheduleConverter2007 $*
+#!/bin/sh
+# Usage: create_schedule.sh <input worksheet name> [<schedule-start-date> [<schedule-end-date>]]
+#        create_schedule.sh --build-jar
+#        create_schedule.sh --build-cds <input worksheet name>
+#
+# --build-jar compiles ./src into ./lib/schedule_converter.jar, so that the runs use the
+# current sources instead of an older build of the jar.
+#
+# --build-cds builds the jar first, then converts the given chart once to find the classes
+# that a run loads and stores them in a class data sharing archive (needs JDK 11 or later).
+# Later runs map the archive instead of loading those classes from the jars, which cuts
+# down the startup time.
+# Build the archive again whenever the jars or the JDK change.
 
+CLASSPATH_JARS=./lib/schedule_converter.jar:./lib/jxl.jar:./lib/dom4j-1.6.1.jar:./lib/geronimo-stax-api_1.0_spec-1.0.jar:./lib/ooxml-schemas-1.0.jar:./lib/xmlbeans-2.3.0.jar:./lib/poi-ooxml-3.5-beta6-20090622.jar:./lib/poi-3.5-beta6-20090622.jar
+MAIN_CLASS=org.isha.tco.schedule.ScheduleConverter2007
+CDS_CLASS_LIST=./lib/schedule_converter.classlist
+CDS_ARCHIVE=./lib/schedule_converter.jsa
+BUILD_CLASSES=./build/classes
+
+build_jar() {
+    rm -rf $BUILD_CLASSES
+    mkdir -p $BUILD_CLASSES
+    javac -nowarn -d $BUILD_CLASSES -cp $CLASSPATH_JARS ./src/org/isha/tco/schedule/*.java || return 1
+    jar cf ./lib/schedule_converter.jar -C $BUILD_CLASSES . || return 1
+}
+
+if [ "$1" = "--build-jar" ]; then
+    build_jar || exit 1
+    exit 0
+fi
+
+if [ "$1" = "--build-cds" ]; then
+    shift
+    build_jar || exit 1
+    # ./ holds schedule.properties. A directory cannot be archived, so it is only on the classpath
+    # of the runs and the archive covers the jars alone.
+    java -Xshare:off -XX:DumpLoadedClassList=$CDS_CLASS_LIST -cp $CLASSPATH_JARS:./ $MAIN_CLASS $* || exit 1
+    java -Xshare:dump -XX:SharedClassListFile=$CDS_CLASS_LIST -XX:SharedArchiveFile=$CDS_ARCHIVE -cp $CLASSPATH_JARS || exit 1
+    rm -f $CDS_CLASS_LIST
+    exit 0
+fi
+
+JAVA_OPTS=
+if [ -f $CDS_ARCHIVE ]; then
+    JAVA_OPTS="-Xshare:auto -XX:SharedArchiveFile=$CDS_ARCHIVE"
+fi
+java $JAVA_OPTS -cp $CLASSPATH_JARS:./ $MAIN_CLASS $*
@@ -0,0 +1,753 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+/**
+ * Writes .xls reports record by record instead of through a workbook object model.
+ * <p>
+ * The records that are the same in every report (the workbook globals and the sheet settings
+ * of an empty "Output" sheet) are taken once from a workbook written by POI. A report then only
+ * adds its shared strings, its rows and cells, and the records that point into them: the sheet
+ * offset in BOUNDSHEET, the DIMENSIONS, the INDEX and a DBCELL after every block of 32 rows.
+ * Sizes are worked out before anything is written, so the compound document that wraps the
+ * Workbook stream is streamed out in order without holding the file in memory.
+ *
+ * @author psriniv
+ *
+ */
+class BiffReportWriter implements ReportWriter {
+
+    public Report createReport() {
+        return new BiffReport(Template.INSTANCE);
+    }
+
+    private static interface RecordType {
+        static final int EOF = 0x000A;
+        static final int COLINFO = 0x007D;
+        static final int BOUNDSHEET = 0x0085;
+        static final int DBCELL = 0x00D7;
+        static final int SST = 0x00FC;
+        static final int LABELSST = 0x00FD;
+        static final int EXTSST = 0x00FF;
+        static final int DIMENSIONS = 0x0200;
+        static final int BLANK = 0x0201;
+        static final int ROW = 0x0208;
+        static final int INDEX = 0x020B;
+        static final int CONTINUE = 0x003C;
+        static final int BOF = 0x0809;
+    }
+
+    private static final int RECORD_HEADER_SIZE = 4;
+    /** Largest data of a record in BIFF8 */
+    private static final int MAX_RECORD_DATA_SIZE = 8224;
+    private static final int ROW_RECORD_SIZE = RECORD_HEADER_SIZE + 16;
+    private static final int LABELSST_RECORD_SIZE = RECORD_HEADER_SIZE + 10;
+    private static final int BLANK_RECORD_SIZE = RECORD_HEADER_SIZE + 6;
+    private static final int COLINFO_RECORD_SIZE = RECORD_HEADER_SIZE + 12;
+    private static final int DIMENSIONS_RECORD_SIZE = RECORD_HEADER_SIZE + 14;
+    private static final int ROWS_PER_BLOCK = 32;
+    /** The default cell format of POI workbooks */
+    private static final int DEFAULT_CELL_XF = 0x0F;
+    private static final int ROW_HEIGHT = 0xFF;
+    private static final int ROW_OPTIONS = 0x0100 | (DEFAULT_CELL_XF << 16);
+    private static final int MAX_COLUMN_WIDTH = 255 * 256;
+    private static final int CELL_NOT_STRING = -1;
+
+    /**
+     * The fixed records of a report, cut out of an empty workbook written by POI.
+     */
+    private static class Template {
+        static final Template INSTANCE = new Template();
+
+        /** Workbook globals up to the SST, with the BOUNDSHEET whose offset is patched */
+        private final byte[] globalsHead;
+        private final int boundSheetOffsetPosition;
+        /** Workbook globals after the EXTSST, up to and including EOF */
+        private final byte[] globalsTail;
+        /** Sheet BOF */
+        private final byte[] sheetBof;
+        /** Sheet settings between INDEX and the column widths */
+        private final byte[] sheetSettings;
+        /** WINDOW2 and the rest of the sheet, up to and including EOF */
+        private final byte[] sheetTail;
+
+        private Template() {
+            byte[] stream;
+            try {
+                HSSFWorkbook workbook = new HSSFWorkbook();
+                workbook.createSheet("Output");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                workbook.write(bytes);
+                POIFSFileSystem fs = new POIFSFileSystem(new ByteArrayInputStream(bytes.toByteArray()));
+                DocumentInputStream in = fs.createDocumentInputStream("Workbook");
+                stream = new byte[in.available()];
+                in.readFully(stream);
+                in.close();
+            }
+            catch(IOException e) {
+                throw new IllegalStateException("Unable to build the report template.", e);
+            }
+
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            ByteArrayOutputStream tail = new ByteArrayOutputStream();
+            ByteArrayOutputStream bof = new ByteArrayOutputStream();
+            ByteArrayOutputStream settings = new ByteArrayOutputStream();
+            ByteArrayOutputStream sheetEnd = new ByteArrayOutputStream();
+            int boundSheetPosition = -1;
+            boolean inGlobals = true;
+            boolean sstSeen = false;
+            boolean dimensionsSeen = false;
+            int pos = 0;
+            while(pos + RECORD_HEADER_SIZE <= stream.length) {
+                int sid = readShort(stream, pos);
+                int length = readShort(stream, pos + 2);
+                int recordEnd = pos + RECORD_HEADER_SIZE + length;
+                if(inGlobals) {
+                    if(sid == RecordType.SST || sid == RecordType.EXTSST ||
+                            (sid == RecordType.CONTINUE && sstSeen && tail.size() == 0)) {
+                        sstSeen = true;
+                    }
+                    else if(!sstSeen) {
+                        if(sid == RecordType.BOUNDSHEET) {
+                            if(boundSheetPosition != -1) {
+                                throw new IllegalStateException("Expected a single sheet in the report template.");
+                            }
+                            boundSheetPosition = head.size() + RECORD_HEADER_SIZE;
+                        }
+                        head.write(stream, pos, recordEnd - pos);
+                    }
+                    else {
+                        tail.write(stream, pos, recordEnd - pos);
+                    }
+                    inGlobals = sid != RecordType.EOF;
+                }
+                else if(sid == RecordType.BOF) {
+                    bof.write(stream, pos, recordEnd - pos);
+                }
+                else if(sid == RecordType.INDEX || sid == RecordType.COLINFO) {
+                    //Written for each report.
+                }
+                else if(sid == RecordType.DIMENSIONS) {
+                    dimensionsSeen = true;
+                }
+                else if(!dimensionsSeen) {
+                    settings.write(stream, pos, recordEnd - pos);
+                }
+                else {
+                    sheetEnd.write(stream, pos, recordEnd - pos);
+                    if(sid == RecordType.EOF) {
+                        break;
+                    }
+                }
+                pos = recordEnd;
+            }
+            if(!sstSeen || boundSheetPosition == -1 || !dimensionsSeen || bof.size() == 0) {
+                throw new IllegalStateException("Unexpected layout of the report template.");
+            }
+            this.globalsHead = head.toByteArray();
+            this.boundSheetOffsetPosition = boundSheetPosition;
+            this.globalsTail = tail.toByteArray();
+            this.sheetBof = bof.toByteArray();
+            this.sheetSettings = settings.toByteArray();
+            this.sheetTail = sheetEnd.toByteArray();
+        }
+    }
+
+    /**
+     * The cells of one row, in column order.
+     */
+    private static class CellRow {
+        private int[] cols = new int[8];
+        /** index in the shared strings or CELL_NOT_STRING for a blank cell */
+        private int[] strings = new int[8];
+        private int size;
+        private int stringCells;
+
+        void put(int col, int string) {
+            int i = size;
+            while(i > 0 && cols[i - 1] > col) {
+                i--;
+            }
+            if(i > 0 && cols[i - 1] == col) {
+                if(strings[i - 1] != CELL_NOT_STRING) stringCells--;
+                strings[i - 1] = string;
+                if(string != CELL_NOT_STRING) stringCells++;
+                return;
+            }
+            if(size == cols.length) {
+                cols = Arrays.copyOf(cols, size * 2);
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+            System.arraycopy(cols, i, cols, i + 1, size - i);
+            System.arraycopy(strings, i, strings, i + 1, size - i);
+            cols[i] = col;
+            strings[i] = string;
+            size++;
+            if(string != CELL_NOT_STRING) stringCells++;
+        }
+
+        int getCellsSize() {
+            return stringCells * LABELSST_RECORD_SIZE + (size - stringCells) * BLANK_RECORD_SIZE;
+        }
+    }
+
+    private static class BiffReport implements Report {
+        private final Template template;
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        /** number of cells that refer to the shared strings, counting repeats */
+        private int stringCells;
+        private final List<CellRow> rows = new ArrayList<CellRow>();
+        /** longest text so far and width set, per column */
+        private int[] columnChars = new int[16];
+        private int[] columnWidths = new int[16];
+        private int lastCol = -1;
+
+        public BiffReport(Template template) {
+            this.template = template;
+        }
+
+        public void writeCell(int row, int col, String value) {
+            while(rows.size() <= row) {
+                rows.add(null);
+            }
+            CellRow cellRow = rows.get(row);
+            if(cellRow == null) {
+                cellRow = new CellRow();
+                rows.set(row, cellRow);
+            }
+            int string = CELL_NOT_STRING;
+            if(value != null) {
+                Integer id = stringIds.get(value);
+                if(id == null) {
+                    id = strings.size();
+                    strings.add(value);
+                    stringIds.put(value, id);
+                }
+                string = id.intValue();
+                stringCells++;
+            }
+            cellRow.put(col, string);
+
+            ensureColumn(col);
+            if(value != null && value.length() > columnChars[col]) {
+                columnChars[col] = value.length();
+            }
+            lastCol = Math.max(lastCol, col);
+        }
+
+        public void writeDateCell(int row, int col, Date value) {
+            writeCell(row, col, ScheduleEngine.getOutputDateFormat().format(value));
+        }
+
+        public void autoSizeColumn(int col) {
+            ensureColumn(col);
+            if(columnChars[col] > 0) {
+                columnWidths[col] = Math.min(MAX_COLUMN_WIDTH, (columnChars[col] + 2) * 256);
+            }
+        }
+
+        private void ensureColumn(int col) {
+            if(col >= columnChars.length) {
+                int length = Math.max(col + 1, columnChars.length * 2);
+                columnChars = Arrays.copyOf(columnChars, length);
+                columnWidths = Arrays.copyOf(columnWidths, length);
+            }
+        }
+
+        public void write(OutputStream out) throws IOException {
+            byte[] sst = encodeSharedStrings(template.globalsHead.length);
+            final int sheetOffset = template.globalsHead.length + sst.length + template.globalsTail.length;
+
+            int firstRow = -1;
+            int columnInfos = 0;
+            for(int col = 0; col < columnWidths.length; col++) {
+                if(columnWidths[col] > 0) {
+                    columnInfos++;
+                }
+            }
+            List<int[]> blocks = new ArrayList<int[]>();
+            int blockStart = -1;
+            int blockRows = 0;
+            for(int row = 0; row < rows.size(); row++) {
+                if(rows.get(row) == null) {
+                    continue;
+                }
+                if(firstRow == -1) {
+                    firstRow = row;
+                }
+                if(blockRows == ROWS_PER_BLOCK) {
+                    blocks.add(new int[] { blockStart, row });
+                    blockRows = 0;
+                }
+                if(blockRows == 0) {
+                    blockStart = row;
+                }
+                blockRows++;
+            }
+            if(blockRows > 0) {
+                blocks.add(new int[] { blockStart, rows.size() });
+            }
+
+            final int indexSize = RECORD_HEADER_SIZE + 16 + 4 * blocks.size();
+            int pos = sheetOffset + template.sheetBof.length + indexSize + template.sheetSettings.length +
+                columnInfos * COLINFO_RECORD_SIZE + DIMENSIONS_RECORD_SIZE;
+            //Where each block's DBCELL goes
+            int[] dbCellPositions = new int[blocks.size()];
+            for(int i = 0; i < blocks.size(); i++) {
+                int[] block = blocks.get(i);
+                int blockRowCount = 0;
+                for(int row = block[0]; row < block[1]; row++) {
+                    CellRow cellRow = rows.get(row);
+                    if(cellRow != null) {
+                        blockRowCount++;
+                        pos += ROW_RECORD_SIZE + cellRow.getCellsSize();
+                    }
+                }
+                dbCellPositions[i] = pos;
+                pos += RECORD_HEADER_SIZE + 4 + 2 * blockRowCount;
+            }
+            final int streamSize = pos + template.sheetTail.length;
+
+            CompoundDocument document = new CompoundDocument(out, streamSize);
+            document.writeHeader();
+
+            //Globals
+            byte[] globalsHead = template.globalsHead.clone();
+            writeInt(globalsHead, template.boundSheetOffsetPosition, sheetOffset);
+            document.write(globalsHead);
+            document.write(sst);
+            document.write(template.globalsTail);
+
+            //Sheet
+            document.write(template.sheetBof);
+            RecordBuffer record = new RecordBuffer();
+            record.start(RecordType.INDEX);
+            record.putInt(0);
+            record.putInt(firstRow == -1 ? 0 : firstRow);
+            record.putInt(firstRow == -1 ? 0 : rows.size());
+            record.putInt(0);
+            for(int dbCellPosition : dbCellPositions) {
+                record.putInt(dbCellPosition);
+            }
+            document.write(record);
+            document.write(template.sheetSettings);
+            for(int col = 0; col < columnWidths.length; col++) {
+                if(columnWidths[col] > 0) {
+                    record.start(RecordType.COLINFO);
+                    record.putShort(col);
+                    record.putShort(col);
+                    record.putShort(columnWidths[col]);
+                    record.putShort(DEFAULT_CELL_XF);
+                    //Width set by the user, as POI writes it.
+                    record.putShort(2);
+                    record.putShort(2);
+                    document.write(record);
+                }
+            }
+            record.start(RecordType.DIMENSIONS);
+            record.putInt(firstRow == -1 ? 0 : firstRow);
+            record.putInt(firstRow == -1 ? 0 : rows.size());
+            record.putShort(0);
+            record.putShort(lastCol + 1);
+            record.putShort(0);
+            document.write(record);
+
+            for(int[] block : blocks) {
+                writeBlock(document, record, block[0], block[1]);
+            }
+            document.write(template.sheetTail);
+            document.finish();
+        }
+
+        /**
+         * Writes the ROW records of a block, their cells and the DBCELL that points back at them.
+         */
+        private void writeBlock(CompoundDocument document, RecordBuffer record, int fromRow, int toRow)
+        throws IOException {
+            int rowRecordsSize = 0;
+            List<Integer> cellOffsets = new ArrayList<Integer>();
+            for(int row = fromRow; row < toRow; row++) {
+                CellRow cellRow = rows.get(row);
+                if(cellRow == null) {
+                    continue;
+                }
+                record.start(RecordType.ROW);
+                record.putShort(row);
+                record.putShort(cellRow.cols[0]);
+                record.putShort(cellRow.cols[cellRow.size - 1] + 1);
+                record.putShort(ROW_HEIGHT);
+                record.putShort(0);
+                record.putShort(0);
+                record.putInt(ROW_OPTIONS);
+                document.write(record);
+                cellOffsets.add(0);
+                rowRecordsSize += ROW_RECORD_SIZE;
+            }
+            //The first cells are found from the second ROW record, the cells of each next row from the previous cells.
+            int cellsSize = 0;
+            int previousRowCellsSize = rowRecordsSize - ROW_RECORD_SIZE;
+            int rowIndex = 0;
+            for(int row = fromRow; row < toRow; row++) {
+                CellRow cellRow = rows.get(row);
+                if(cellRow == null) {
+                    continue;
+                }
+                cellOffsets.set(rowIndex++, previousRowCellsSize);
+                for(int i = 0; i < cellRow.size; i++) {
+                    if(cellRow.strings[i] == CELL_NOT_STRING) {
+                        record.start(RecordType.BLANK);
+                        record.putShort(row);
+                        record.putShort(cellRow.cols[i]);
+                        record.putShort(DEFAULT_CELL_XF);
+                    }
+                    else {
+                        record.start(RecordType.LABELSST);
+                        record.putShort(row);
+                        record.putShort(cellRow.cols[i]);
+                        record.putShort(DEFAULT_CELL_XF);
+                        record.putInt(cellRow.strings[i]);
+                    }
+                    document.write(record);
+                }
+                previousRowCellsSize = cellRow.getCellsSize();
+                cellsSize += previousRowCellsSize;
+            }
+            record.start(RecordType.DBCELL);
+            record.putInt(rowRecordsSize + cellsSize);
+            for(int cellOffset : cellOffsets) {
+                record.putShort(cellOffset);
+            }
+            document.write(record);
+        }
+
+        /**
+         * Returns the SST record with its CONTINUE records and the EXTSST record that indexes it,
+         * for an SST that starts at the given position of the Workbook stream.
+         */
+        private byte[] encodeSharedStrings(final int streamPosition) {
+            final int stringsPerBucket = Math.max(8, (strings.size() + 127) / 128);
+            ByteArrayOutputStream sst = new ByteArrayOutputStream(strings.size() * 16 + 16);
+            RecordBuffer record = new RecordBuffer();
+            RecordBuffer extSst = new RecordBuffer();
+            extSst.start(RecordType.EXTSST);
+            extSst.putShort(stringsPerBucket);
+
+            record.start(RecordType.SST);
+            record.putInt(stringCells);
+            record.putInt(strings.size());
+            for(int i = 0; i < strings.size(); i++) {
+                String value = strings.get(i);
+                boolean compressed = isCompressible(value);
+                int charSize = compressed ? 1 : 2;
+                //The length and options of a string never span records.
+                if(record.dataSize() + 3 + Math.min(value.length(), 1) * charSize > MAX_RECORD_DATA_SIZE) {
+                    sst.write(record.end(), 0, record.size());
+                    record.start(RecordType.CONTINUE);
+                }
+                if(i % stringsPerBucket == 0) {
+                    extSst.putInt(streamPosition + sst.size() + record.size());
+                    extSst.putShort(record.size());
+                    extSst.putShort(0);
+                }
+                record.putShort(value.length());
+                record.putByte(compressed ? 0 : 1);
+                int written = 0;
+                while(written < value.length()) {
+                    int room = (MAX_RECORD_DATA_SIZE - record.dataSize()) / charSize;
+                    if(room == 0) {
+                        //The rest of the characters go on in a CONTINUE record, after their options again.
+                        sst.write(record.end(), 0, record.size());
+                        record.start(RecordType.CONTINUE);
+                        record.putByte(compressed ? 0 : 1);
+                        continue;
+                    }
+                    int end = Math.min(value.length(), written + room);
+                    for(int c = written; c < end; c++) {
+                        if(compressed) {
+                            record.putByte(value.charAt(c));
+                        }
+                        else {
+                            record.putShort(value.charAt(c));
+                        }
+                    }
+                    written = end;
+                }
+            }
+            sst.write(record.end(), 0, record.size());
+            byte[] ext = extSst.end();
+            sst.write(ext, 0, extSst.size());
+            return sst.toByteArray();
+        }
+
+        private static boolean isCompressible(String value) {
+            for(int i = 0; i < value.length(); i++) {
+                if(value.charAt(i) > 0xFF) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Builds one record at a time. The array returned by end() is reused by the next record.
+     */
+    private static class RecordBuffer {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void start(int sid) {
+            clear();
+            putShort(sid);
+            putShort(0);
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int dataSize() {
+            return size - RECORD_HEADER_SIZE;
+        }
+
+        void putByte(int value) {
+            if(size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putShort(int value) {
+            putByte(value);
+            putByte(value >>> 8);
+        }
+
+        void putInt(int value) {
+            putShort(value);
+            putShort(value >>> 16);
+        }
+
+        /**
+         * Fills in the length of the record and returns its bytes, valid up to size().
+         */
+        byte[] end() {
+            int length = dataSize();
+            bytes[2] = (byte) length;
+            bytes[3] = (byte) (length >>> 8);
+            return bytes;
+        }
+    }
+
+    /**
+     * An OLE2 compound document with the Workbook stream as its only stream. The stream goes
+     * first, followed by the directory and the allocation tables, so that the stream can be
+     * written out as it is produced once its size is known.
+     */
+    private static class CompoundDocument {
+        private static final int SECTOR_SIZE = 512;
+        /** Smaller streams would go in the mini stream. Padding the workbook keeps it out. */
+        private static final int MIN_STREAM_SIZE = 4096;
+        private static final int IDS_PER_FAT_SECTOR = SECTOR_SIZE / 4;
+        private static final int HEADER_DIFAT_IDS = 109;
+        private static final int IDS_PER_DIFAT_SECTOR = IDS_PER_FAT_SECTOR - 1;
+        private static final int FREE_SECTOR = -1;
+        private static final int END_OF_CHAIN = -2;
+        private static final int FAT_SECTOR = -3;
+        private static final int DIFAT_SECTOR = -4;
+        private static final int NO_STREAM = -1;
+
+        private final OutputStream out;
+        private final int streamSize;
+        private final int streamSectors;
+        private final int fatSectors;
+        private final int difatSectors;
+        private long written;
+
+        CompoundDocument(OutputStream out, int streamSize) {
+            this.out = out;
+            this.streamSize = Math.max(streamSize, MIN_STREAM_SIZE);
+            this.streamSectors = (this.streamSize + SECTOR_SIZE - 1) / SECTOR_SIZE;
+            int fat = 1;
+            int difat = 0;
+            while(true) {
+                int sectors = streamSectors + 1 + fat + difat;
+                int neededFat = (sectors + IDS_PER_FAT_SECTOR - 1) / IDS_PER_FAT_SECTOR;
+                int neededDifat = neededFat > HEADER_DIFAT_IDS ?
+                        (neededFat - HEADER_DIFAT_IDS + IDS_PER_DIFAT_SECTOR - 1) / IDS_PER_DIFAT_SECTOR : 0;
+                if(neededFat == fat && neededDifat == difat) {
+                    break;
+                }
+                fat = neededFat;
+                difat = neededDifat;
+            }
+            this.fatSectors = fat;
+            this.difatSectors = difat;
+        }
+
+        private int getDirectorySector() {
+            return streamSectors;
+        }
+
+        private int getFirstFatSector() {
+            return streamSectors + 1;
+        }
+
+        private int getFirstDifatSector() {
+            return streamSectors + 1 + fatSectors;
+        }
+
+        void writeHeader() throws IOException {
+            RecordBuffer header = new RecordBuffer();
+            header.clear();
+            header.putInt(0xE011CFD0);
+            header.putInt(0xE11AB1A1);
+            for(int i = 0; i < 4; i++) {
+                header.putInt(0);
+            }
+            header.putShort(0x003E);
+            header.putShort(0x0003);
+            header.putShort(0xFFFE);
+            //Sector sizes: 2^9 and 2^6
+            header.putShort(9);
+            header.putShort(6);
+            header.putShort(0);
+            header.putInt(0);
+            //Directory sectors, not used with 512 byte sectors
+            header.putInt(0);
+            header.putInt(fatSectors);
+            header.putInt(getDirectorySector());
+            header.putInt(0);
+            header.putInt(MIN_STREAM_SIZE);
+            header.putInt(END_OF_CHAIN);
+            header.putInt(0);
+            header.putInt(difatSectors == 0 ? END_OF_CHAIN : getFirstDifatSector());
+            header.putInt(difatSectors);
+            for(int i = 0; i < HEADER_DIFAT_IDS; i++) {
+                header.putInt(i < fatSectors ? getFirstFatSector() + i : FREE_SECTOR);
+            }
+            out.write(header.bytes, 0, header.size);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes, 0, bytes.length);
+            written += bytes.length;
+        }
+
+        void write(RecordBuffer record) throws IOException {
+            record.end();
+            out.write(record.bytes, 0, record.size());
+            written += record.size();
+        }
+
+        /**
+         * Pads the stream and writes the directory and the allocation tables after it.
+         */
+        void finish() throws IOException {
+            pad((long) streamSectors * SECTOR_SIZE);
+
+            RecordBuffer sector = new RecordBuffer();
+            sector.clear();
+            writeDirectoryEntry(sector, "Root Entry", 5, 1, END_OF_CHAIN, 0);
+            writeDirectoryEntry(sector, "Workbook", 2, NO_STREAM, 0, streamSize);
+            writeDirectoryEntry(sector, null, 0, NO_STREAM, 0, 0);
+            writeDirectoryEntry(sector, null, 0, NO_STREAM, 0, 0);
+            out.write(sector.bytes, 0, sector.size);
+
+            sector.clear();
+            for(int i = 0; i < fatSectors * IDS_PER_FAT_SECTOR; i++) {
+                int next;
+                if(i < streamSectors - 1) {
+                    next = i + 1;
+                }
+                else if(i == streamSectors - 1 || i == getDirectorySector()) {
+                    next = END_OF_CHAIN;
+                }
+                else if(i < getFirstDifatSector()) {
+                    next = FAT_SECTOR;
+                }
+                else if(i < getFirstDifatSector() + difatSectors) {
+                    next = DIFAT_SECTOR;
+                }
+                else {
+                    next = FREE_SECTOR;
+                }
+                sector.putInt(next);
+            }
+            out.write(sector.bytes, 0, sector.size);
+
+            sector.clear();
+            for(int d = 0; d < difatSectors; d++) {
+                for(int i = 0; i < IDS_PER_DIFAT_SECTOR; i++) {
+                    int fat = HEADER_DIFAT_IDS + d * IDS_PER_DIFAT_SECTOR + i;
+                    sector.putInt(fat < fatSectors ? getFirstFatSector() + fat : FREE_SECTOR);
+                }
+                sector.putInt(d == difatSectors - 1 ? END_OF_CHAIN : getFirstDifatSector() + d + 1);
+            }
+            out.write(sector.bytes, 0, sector.size);
+        }
+
+        private void pad(long size) throws IOException {
+            byte[] zeros = new byte[SECTOR_SIZE];
+            while(written < size) {
+                int length = (int) Math.min(zeros.length, size - written);
+                out.write(zeros, 0, length);
+                written += length;
+            }
+        }
+
+        private static void writeDirectoryEntry(RecordBuffer sector, String name, int type, int child,
+                int startSector, int size) {
+            int nameLength = name == null ? 0 : name.length();
+            for(int i = 0; i < 32; i++) {
+                sector.putShort(i < nameLength ? name.charAt(i) : 0);
+            }
+            sector.putShort(name == null ? 0 : (nameLength + 1) * 2);
+            sector.putByte(type);
+            //Black, there is nothing to balance
+            sector.putByte(name == null ? 0 : 1);
+            sector.putInt(NO_STREAM);
+            sector.putInt(NO_STREAM);
+            sector.putInt(child);
+            //CLSID, state bits, creation and modification times
+            for(int i = 0; i < 9; i++) {
+                sector.putInt(0);
+            }
+            sector.putInt(name == null ? 0 : startSector);
+            sector.putInt(size);
+            sector.putInt(0);
+        }
+    }
+
+    private static int readShort(byte[] bytes, int pos) {
+        return (bytes[pos] & 0xFF) | ((bytes[pos + 1] & 0xFF) << 8);
+    }
+
+    private static void writeInt(byte[] bytes, int pos, int value) {
+        bytes[pos] = (byte) value;
+        bytes[pos + 1] = (byte) (value >>> 8);
+        bytes[pos + 2] = (byte) (value >>> 16);
+        bytes[pos + 3] = (byte) (value >>> 24);
+    }
+}
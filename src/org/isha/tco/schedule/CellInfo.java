@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+/**
+ * Column and row of a cell.
+ *
+ * @author psriniv
+ *
+ */
+class CellInfo {
+    private final int col;
+    private final int row;
+
+    public CellInfo(int col, int row) {
+        this.col = col;
+        this.row = row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + col;
+        result = prime * result + row;
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj)
+            return true;
+        if(obj == null)
+            return false;
+        if(getClass() != obj.getClass())
+            return false;
+        CellInfo other = (CellInfo) obj;
+        if(col != other.col)
+            return false;
+        if(row != other.row)
+            return false;
+        return true;
+    }
+
+    public String toString() {
+        return "[" + col + ", " + row + "]";
+    }
+}
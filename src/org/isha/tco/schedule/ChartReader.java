@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a sheet of an input workbook, the chart or the place owner table, with one of the
+ * spreadsheet libraries.
+ *
+ * @author psriniv
+ *
+ */
+interface ChartReader {
+
+    /**
+     * Returns the sheet with the given name, or null if the workbook does not have it.
+     */
+    ChartSheet read(File file, String sheetName) throws IOException;
+
+    /**
+     * Returns the sheets that the filter accepts, by name in the order of the workbook. The
+     * workbook is read once for all of them, and the sheets can be read on different threads.
+     */
+    Map<String, ChartSheet> read(File file, SheetFilter filter) throws IOException;
+
+    /**
+     * Picks the sheets with the given names, ignoring the case, and the sheets whose whole name
+     * matches a pattern.
+     */
+    static class SheetFilter {
+        private final Set<String> names = new HashSet<String>();
+        private final Pattern pattern;
+
+        /**
+         * The pattern may be null to pick sheets by name alone.
+         */
+        public SheetFilter(Collection<String> names, Pattern pattern) {
+            for(String name : names) {
+                this.names.add(name.trim().toLowerCase());
+            }
+            this.pattern = pattern;
+        }
+
+        public boolean accepts(String sheetName) {
+            return names.contains(sheetName.trim().toLowerCase()) || 
+                (pattern != null && pattern.matcher(sheetName).matches());
+        }
+
+        public String toString() {
+            return pattern == null ? names.toString() : names + " or " + pattern.pattern();
+        }
+    }
+}
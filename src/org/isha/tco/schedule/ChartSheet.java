@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.text.DateFormat;
+import java.util.List;
+
+/**
+ * The cells of the Chart sheet that the conversion reads: string cells, numeric and
+ * date cells, and the merged regions. Rows and columns are 0 based.
+ *
+ * @author psriniv
+ *
+ */
+interface ChartSheet {
+
+    /**
+     * Returns the index of the last row of the sheet.
+     */
+    int getLastRowNum();
+
+    /**
+     * Returns one more than the index of the last cell of the given row, or -1 if the row does not exist.
+     */
+    int getLastCellNum(int row);
+
+    /**
+     * Returns the text of a string cell, "" for a blank cell and null if the cell does not exist.
+     */
+    String getStringCellValue(int row, int col);
+
+    /**
+     * Returns the text of a string cell, a date cell formatted with the given format,
+     * the integer part of a numeric cell and "" for anything else.
+     */
+    String getCellValue(int row, int col, DateFormat dateFormat);
+
+    List<Region> getMergedRegions();
+
+    /**
+     * A merged region, both corners inclusive.
+     */
+    static class Region {
+        private final int firstCol;
+        private final int firstRow;
+        private final int lastCol;
+        private final int lastRow;
+
+        public Region(int firstCol, int firstRow, int lastCol, int lastRow) {
+            this.firstCol = firstCol;
+            this.firstRow = firstRow;
+            this.lastCol = lastCol;
+            this.lastRow = lastRow;
+        }
+
+        public int getFirstCol() {
+            return firstCol;
+        }
+
+        public int getFirstRow() {
+            return firstRow;
+        }
+
+        public int getLastCol() {
+            return lastCol;
+        }
+
+        public int getLastRow() {
+            return lastRow;
+        }
+    }
+}
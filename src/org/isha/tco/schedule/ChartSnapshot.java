@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary copy of a parsed chart, so that later runs over an unchanged input can
+ * skip reading the workbook.
+ * <p>
+ * The snapshot holds the date table, the merged regions, the teacher rows and the
+ * consolidated entries. Strings are written once into a table and referred to by index
+ * everywhere else. Owners are not stored; they are looked up again when the entries are
+ * consolidated so that a changed place owner workbook is still picked up. The hash of
+ * the settings the entries were consolidated with is kept in the header, so that a
+ * snapshot taken with other activities grouped across teachers is not restored.
+ * <p>
+ * Snapshots are named after the SHA-1 of the input workbook and are read back through a
+ * memory mapped buffer.
+ *
+ * @author psriniv
+ *
+ */
+class ChartSnapshot {
+
+    private static final int MAGIC = 0x53434853; //SCHS
+    private static final int VERSION = 4;
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * One consolidated entry as stored in the snapshot.
+     */
+    static class Entry {
+        private final String startDate;
+        private final String endDate;
+        /** as written in the chart, so that merged snapshots consolidate as the chart does */
+        private final String place;
+        private final String activity;
+        private final boolean grouped;
+        private final List<String> persons;
+
+        public Entry(String startDate, String endDate, String place, String activity, boolean grouped, 
+                List<String> persons) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.place = place;
+            this.activity = activity;
+            this.grouped = grouped;
+            this.persons = persons;
+        }
+
+        public String getStartDate() {
+            return startDate;
+        }
+
+        public String getEndDate() {
+            return endDate;
+        }
+
+        public String getPlace() {
+            return place;
+        }
+
+        public String getActivity() {
+            return activity;
+        }
+
+        public boolean isGrouped() {
+            return grouped;
+        }
+
+        public List<String> getPersons() {
+            return persons;
+        }
+    }
+
+    /**
+     * A merged region of the chart and the value in its top-left cell.
+     */
+    static class MergedRegion {
+        private final int firstCol;
+        private final int firstRow;
+        private final int lastCol;
+        private final int lastRow;
+        private final String value;
+
+        public MergedRegion(int firstCol, int firstRow, int lastCol, int lastRow, String value) {
+            this.firstCol = firstCol;
+            this.firstRow = firstRow;
+            this.lastCol = lastCol;
+            this.lastRow = lastRow;
+            this.value = value;
+        }
+
+        public int getFirstCol() {
+            return firstCol;
+        }
+
+        public int getFirstRow() {
+            return firstRow;
+        }
+
+        public int getLastCol() {
+            return lastCol;
+        }
+
+        public int getLastRow() {
+            return lastRow;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private final String settingsHash;
+    private final Map<Integer, String> dateMap;
+    private final Map<String, List<Integer>> monthMap;
+    private final List<MergedRegion> mergedRegions;
+    private final List<String> teachers;
+    private final List<String> markedTeachers;
+    private final boolean skipMarked;
+    private final List<Entry> entries;
+
+    public ChartSnapshot(String settingsHash, Map<Integer, String> dateMap, Map<String, List<Integer>> monthMap,
+            List<MergedRegion> mergedRegions, List<String> teachers, List<String> markedTeachers,
+            boolean skipMarked, List<Entry> entries) {
+        this.settingsHash = settingsHash;
+        this.dateMap = dateMap;
+        this.monthMap = monthMap;
+        this.mergedRegions = mergedRegions;
+        this.teachers = teachers;
+        this.markedTeachers = markedTeachers;
+        this.skipMarked = skipMarked;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the hash of the settings the entries were consolidated with.
+     */
+    public String getSettingsHash() {
+        return settingsHash;
+    }
+
+    public Map<Integer, String> getDateMap() {
+        return dateMap;
+    }
+
+    public Map<String, List<Integer>> getMonthMap() {
+        return monthMap;
+    }
+
+    public List<MergedRegion> getMergedRegions() {
+        return mergedRegions;
+    }
+
+    public List<String> getTeachers() {
+        return teachers;
+    }
+
+    public List<String> getMarkedTeachers() {
+        return markedTeachers;
+    }
+
+    public boolean isSkipMarked() {
+        return skipMarked;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns a rough estimate of the heap held by this snapshot.
+     * Strings are counted at every use, so shared strings make it an over-estimate.
+     */
+    public long estimateSize() {
+        long size = 64;
+        size += dateMap.size() * 64L;
+        size += monthMap.size() * 128L;
+        size += mergedRegions.size() * 48L;
+        for(MergedRegion region : mergedRegions) size += estimateSize(region.getValue());
+        for(String teacher : teachers) size += 8 + estimateSize(teacher);
+        size += markedTeachers.size() * 8L;
+        for(Entry entry : entries) {
+            size += 64 + estimateSize(entry.getStartDate()) + estimateSize(entry.getEndDate()) +
+                estimateSize(entry.getPlace()) + estimateSize(entry.getActivity());
+            size += 24 + entry.getPersons().size() * 8L;
+        }
+        return size;
+    }
+
+    private static long estimateSize(String value) {
+        return 40 + 2L * value.length();
+    }
+
+    /**
+     * Returns the snapshot file for the given input in the given folder.
+     * The name carries the SHA-1 of the input, so a changed input never finds a stale snapshot.
+     */
+    public static File getSnapshotFile(String folder, String prefix, File inputFile) throws IOException {
+        return new File(folder, prefix + "-" + hashOf(inputFile) + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Removes the snapshots taken of earlier versions of the input, other than the given file
+     * and those in use, given by their absolute paths.
+     */
+    public static void removeStaleSnapshots(File snapshotFile, String prefix, Collection<File> snapshotsInUse) {
+        File[] siblings = snapshotFile.getAbsoluteFile().getParentFile().listFiles();
+        if(siblings == null) {
+            return;
+        }
+        for(File sibling : siblings) {
+            String name = sibling.getName();
+            if(!sibling.equals(snapshotFile.getAbsoluteFile()) && !snapshotsInUse.contains(sibling.getAbsoluteFile())
+                    && name.startsWith(prefix + "-")
+                    && name.endsWith(SNAPSHOT_SUFFIX)
+                    && name.length() == prefix.length() + 1 + 40 + SNAPSHOT_SUFFIX.length()) {
+                sibling.delete();
+            }
+        }
+    }
+
+    private static String hashOf(File inputFile) throws IOException {
+        MessageDigest digest = newDigest();
+        //Read through a stream, not a mapping: a mapping keeps the chart locked on Windows until it is
+        //garbage collected, and the chart could not be saved over while the query server runs.
+        FileInputStream fis = new FileInputStream(inputFile);
+        try {
+            byte[] block = new byte[1 << 16];
+            int read;
+            while((read = fis.read(block)) != -1) {
+                digest.update(block, 0, read);
+            }
+        }
+        finally {
+            fis.close();
+        }
+        return toHex(digest);
+    }
+
+    /**
+     * Returns the SHA-1 of the given settings.
+     */
+    public static String hashOf(String settings) {
+        MessageDigest digest = newDigest();
+        digest.update(settings.getBytes(UTF8));
+        return toHex(digest);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(MessageDigest digest) {
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    public void write(File snapshotFile) throws IOException {
+        //Written to a temporary file first so that a crash never leaves a half written snapshot.
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+        snapshotFile.delete();
+        if(!tempFile.renameTo(snapshotFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to write snapshot: " + snapshotFile);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a stream, e.g. to hand it over to another process.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        StringTable strings = new StringTable();
+        //Collect all the strings first so that the table can be written ahead of its uses.
+        for(String date : dateMap.values()) strings.indexOf(date);
+        for(String month : monthMap.keySet()) strings.indexOf(month);
+        for(MergedRegion region : mergedRegions) strings.indexOf(region.getValue());
+        for(String teacher : teachers) strings.indexOf(teacher);
+        for(Entry entry : entries) {
+            strings.indexOf(entry.getStartDate());
+            strings.indexOf(entry.getEndDate());
+            strings.indexOf(entry.getPlace());
+            strings.indexOf(entry.getActivity());
+            for(String person : entry.getPersons()) strings.indexOf(person);
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        byte[] settingsBytes = settingsHash.getBytes(UTF8);
+        out.writeInt(settingsBytes.length);
+        out.write(settingsBytes);
+        out.writeInt(strings.size());
+        for(String value : strings.values()) {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(dateMap.size());
+        for(Map.Entry<Integer, String> date : dateMap.entrySet()) {
+            out.writeInt(date.getKey());
+            out.writeInt(strings.indexOf(date.getValue()));
+        }
+        out.writeInt(monthMap.size());
+        for(Map.Entry<String, List<Integer>> month : monthMap.entrySet()) {
+            out.writeInt(strings.indexOf(month.getKey()));
+            out.writeInt(month.getValue().size());
+            for(Integer col : month.getValue()) {
+                out.writeInt(col);
+            }
+        }
+        out.writeInt(mergedRegions.size());
+        for(MergedRegion region : mergedRegions) {
+            out.writeInt(region.getFirstCol());
+            out.writeInt(region.getFirstRow());
+            out.writeInt(region.getLastCol());
+            out.writeInt(region.getLastRow());
+            out.writeInt(strings.indexOf(region.getValue()));
+        }
+        writeStrings(out, strings, teachers);
+        writeStrings(out, strings, markedTeachers);
+        out.writeBoolean(skipMarked);
+        out.writeInt(entries.size());
+        for(Entry entry : entries) {
+            out.writeInt(strings.indexOf(entry.getStartDate()));
+            out.writeInt(strings.indexOf(entry.getEndDate()));
+            out.writeInt(strings.indexOf(entry.getPlace()));
+            out.writeInt(strings.indexOf(entry.getActivity()));
+            out.writeBoolean(entry.isGrouped());
+            writeStrings(out, strings, entry.getPersons());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, StringTable strings, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for(String value : values) {
+            out.writeInt(strings.indexOf(value));
+        }
+    }
+
+    /**
+     * Reads back a snapshot written by {@link #write(File)}.
+     * <br>
+     * Returns null if the file is not a snapshot of the current format.
+     */
+    public static ChartSnapshot read(File snapshotFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            return read(buffer);
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads back a snapshot written by {@link #write(DataOutputStream)}.
+     * <br>
+     * Returns null if the bytes are not a snapshot of the current format, or are cut short or corrupt.
+     */
+    public static ChartSnapshot read(ByteBuffer buffer) {
+        if(buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        try {
+            return readContents(buffer);
+        }
+        catch(BufferUnderflowException e) {
+            System.out.println("Warn: Snapshot is cut short.");
+            return null;
+        }
+        catch(IllegalArgumentException e) {
+            System.out.println("Warn: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads what follows the format version. Every count and string index is checked against what is 
+     * left of the buffer and the string table before it is used.
+     */
+    private static ChartSnapshot readContents(ByteBuffer buffer) {
+        String settingsHash = readString(buffer);
+        String[] strings = new String[readCount(buffer, 4)];
+        for(int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+
+        int dates = readCount(buffer, 8);
+        Map<Integer, String> dateMap = new HashMap<Integer, String>();
+        for(int i = 0; i < dates; i++) {
+            int col = buffer.getInt();
+            dateMap.put(col, readString(buffer, strings));
+        }
+        int months = readCount(buffer, 8);
+        Map<String, List<Integer>> monthMap = new HashMap<String, List<Integer>>();
+        for(int i = 0; i < months; i++) {
+            String month = readString(buffer, strings);
+            int cols = readCount(buffer, 4);
+            List<Integer> startEndCol = new ArrayList<Integer>();
+            for(int j = 0; j < cols; j++) {
+                startEndCol.add(buffer.getInt());
+            }
+            monthMap.put(month, startEndCol);
+        }
+        int regions = readCount(buffer, 20);
+        List<MergedRegion> mergedRegions = new ArrayList<MergedRegion>(regions);
+        for(int i = 0; i < regions; i++) {
+            mergedRegions.add(new MergedRegion(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                    buffer.getInt(), readString(buffer, strings)));
+        }
+        List<String> teachers = readStrings(buffer, strings);
+        List<String> markedTeachers = readStrings(buffer, strings);
+        boolean skipMarked = buffer.get() != 0;
+        int entryCount = readCount(buffer, 21);
+        List<Entry> entries = new ArrayList<Entry>(entryCount);
+        for(int i = 0; i < entryCount; i++) {
+            entries.add(new Entry(readString(buffer, strings), readString(buffer, strings), readString(buffer, strings),
+                    readString(buffer, strings), buffer.get() != 0, readStrings(buffer, strings)));
+        }
+        return new ChartSnapshot(settingsHash, dateMap, monthMap, mergedRegions, teachers, markedTeachers, skipMarked, entries);
+    }
+
+    /**
+     * Reads a string written out whole, i.e. its length followed by its bytes.
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = readCount(buffer, 1);
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(length);
+        buffer.position(buffer.position() + length);
+        return UTF8.decode(bytes).toString();
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer, String[] strings) {
+        int count = readCount(buffer, 4);
+        List<String> values = new ArrayList<String>(count);
+        for(int i = 0; i < count; i++) {
+            values.add(readString(buffer, strings));
+        }
+        return values;
+    }
+
+    /**
+     * Reads the number of items that follow, each taking at least the given number of bytes.
+     */
+    private static int readCount(ByteBuffer buffer, int minBytesEach) {
+        int count = buffer.getInt();
+        if(count < 0 || (long) count * minBytesEach > buffer.remaining()) {
+            throw new IllegalArgumentException("Corrupt snapshot: " + count + " items at " + 
+                    (buffer.position() - 4) + " with only " + buffer.remaining() + " bytes left.");
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer, String[] strings) {
+        int index = buffer.getInt();
+        if(index < 0 || index >= strings.length) {
+            throw new IllegalArgumentException("Corrupt snapshot: string " + index + " at " + 
+                    (buffer.position() - 4) + " of a table of " + strings.length + ".");
+        }
+        return strings[index];
+    }
+
+    /**
+     * Assigns each distinct string an index in the order they are first seen.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+
+        public int indexOf(String value) {
+            Integer index = indexes.get(value);
+            if(index == null) {
+                index = indexes.size();
+                indexes.put(value, index);
+            }
+            return index;
+        }
+
+        public int size() {
+            return indexes.size();
+        }
+
+        public List<String> values() {
+            return Collections.unmodifiableList(new ArrayList<String>(indexes.keySet()));
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Mails each sector co-ordinator their report over SMTP.
+ * <p>
+ * The mails are split into batches and each batch is sent over a single connection, with no
+ * more than a few connections open at a time. If the server supports pipelining, the sender,
+ * recipient and DATA commands of a mail go out together and their replies are read together,
+ * so each mail takes two round trips instead of four.
+ * <p>
+ * The addresses of the co-ordinators are read through the configured {@link PlaceOwnerSource}.
+ *
+ * @author psriniv
+ *
+ */
+class CoordinatorMailer {
+
+    private static final int TIMEOUT_MILLIS = 60 * 1000;
+    private static final int BASE64_LINE_LENGTH = 76;
+    private static final String CRLF = "\r\n";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A report to be mailed to a co-ordinator.
+     */
+    static class Mail {
+        private final String coordinator;
+        private final String address;
+        private final String subject;
+        private final String attachmentName;
+        private final byte[] attachment;
+
+        public Mail(String coordinator, String address, String subject, String attachmentName, byte[] attachment) {
+            this.coordinator = coordinator;
+            this.address = address;
+            this.subject = subject;
+            this.attachmentName = attachmentName;
+            this.attachment = attachment;
+        }
+
+        public String toString() {
+            return coordinator + " <" + address + ">";
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final String from;
+    private final int connections;
+    private final int batchSize;
+
+    public CoordinatorMailer(String host, int port, String from, int connections, int batchSize) {
+        this.host = host;
+        this.port = port;
+        this.from = from;
+        this.connections = Math.max(1, connections);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sends the mails and returns those that could not be sent.
+     */
+    public List<Mail> send(final List<Mail> mails) throws IOException {
+        List<List<Mail>> batches = new ArrayList<List<Mail>>();
+        for(int i = 0; i < mails.size(); i += batchSize) {
+            batches.add(mails.subList(i, Math.min(mails.size(), i + batchSize)));
+        }
+
+        ExecutorService senders = Executors.newFixedThreadPool(Math.min(connections, Math.max(1, batches.size())));
+        try {
+            List<Future<List<Mail>>> results = new ArrayList<Future<List<Mail>>>();
+            for(final List<Mail> batch : batches) {
+                results.add(senders.submit(new Callable<List<Mail>>() {
+                    public List<Mail> call() {
+                        return sendBatch(batch);
+                    }
+                }));
+            }
+            List<Mail> failed = new ArrayList<Mail>();
+            for(Future<List<Mail>> result : results) {
+                try {
+                    failed.addAll(result.get());
+                }
+                catch(ExecutionException e) {
+                    throw new IOException("Unable to send mails: " + e.getCause());
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while sending mails.");
+                }
+            }
+            return failed;
+        }
+        finally {
+            senders.shutdown();
+        }
+    }
+
+    /**
+     * Sends a batch over one connection. A mail that the server turns down does not stop the
+     * rest of the batch; a broken connection fails the rest of it.
+     */
+    private List<Mail> sendBatch(final List<Mail> batch) {
+        List<Mail> failed = new ArrayList<Mail>();
+        int sent = 0;
+        SmtpConnection connection = null;
+        try {
+            connection = new SmtpConnection(host, port);
+            for(Mail mail : batch) {
+                if(connection.send(from, mail.address, toMessage(mail))) {
+                    System.out.println("Mailed the report of co-ordinator: " + mail);
+                }
+                else {
+                    failed.add(mail);
+                }
+                sent++;
+            }
+            connection.quit();
+        }
+        catch(IOException e) {
+            System.out.println("Warn: Unable to mail the reports of " + batch.subList(sent, batch.size()) + ": " + e);
+            failed.addAll(batch.subList(sent, batch.size()));
+        }
+        finally {
+            if(connection != null) {
+                connection.close();
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the mail as a MIME message with the report attached, with CRLF line endings.
+     */
+    private byte[] toMessage(final Mail mail) {
+        final String boundary = "=_schedule_" + Long.toHexString(System.nanoTime());
+        StringBuilder message = new StringBuilder(mail.attachment.length * 4 / 3 + 1024);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+        message.append("Date: ").append(dateFormat.format(new Date())).append(CRLF);
+        message.append("From: ").append(from).append(CRLF);
+        message.append("To: ").append(mail.address).append(CRLF);
+        message.append("Subject: ").append(encodeHeader(mail.subject)).append(CRLF);
+        message.append("MIME-Version: 1.0").append(CRLF);
+        message.append("Content-Type: multipart/mixed; boundary=\"").append(boundary).append("\"").append(CRLF);
+        message.append(CRLF);
+        message.append("--").append(boundary).append(CRLF);
+        message.append("Content-Type: text/plain; charset=UTF-8").append(CRLF);
+        message.append("Content-Transfer-Encoding: base64").append(CRLF);
+        message.append(CRLF);
+        appendBase64(message, ("The schedule of the centers co-ordinated by " + mail.coordinator +
+                " is attached." + CRLF).getBytes(UTF8));
+        message.append("--").append(boundary).append(CRLF);
+        message.append("Content-Type: application/vnd.ms-excel; name=\"").append(mail.attachmentName).append("\"").append(CRLF);
+        message.append("Content-Transfer-Encoding: base64").append(CRLF);
+        message.append("Content-Disposition: attachment; filename=\"").append(mail.attachmentName).append("\"").append(CRLF);
+        message.append(CRLF);
+        appendBase64(message, mail.attachment);
+        message.append("--").append(boundary).append("--").append(CRLF);
+        //Base64 lines never start with a dot, so the message needs no dot stuffing.
+        return message.toString().getBytes(UTF8);
+    }
+
+    private static void appendBase64(final StringBuilder message, final byte[] bytes) {
+        String encoded = Base64.getEncoder().encodeToString(bytes);
+        for(int i = 0; i < encoded.length(); i += BASE64_LINE_LENGTH) {
+            message.append(encoded, i, Math.min(encoded.length(), i + BASE64_LINE_LENGTH)).append(CRLF);
+        }
+    }
+
+    /**
+     * Encodes a header value that is not plain ASCII as an RFC 2047 encoded word.
+     */
+    private static String encodeHeader(final String value) {
+        for(int i = 0; i < value.length(); i++) {
+            if(value.charAt(i) > 126) {
+                return "=?UTF-8?B?" + Base64.getEncoder().encodeToString(value.getBytes(UTF8)) + "?=";
+            }
+        }
+        return value;
+    }
+
+    /**
+     * An SMTP connection that sends one mail after another.
+     */
+    private static class SmtpConnection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final boolean pipelining;
+
+        public SmtpConnection(String host, int port) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+
+                expect(readReply(), 220);
+                write("EHLO " + InetAddress.getLocalHost().getHostName());
+                out.flush();
+                List<String> ehlo = readReply();
+                expect(ehlo, 250);
+                boolean supported = false;
+                for(String line : ehlo) {
+                    if(line.length() > 4 && line.substring(4).trim().toUpperCase().startsWith("PIPELINING")) {
+                        supported = true;
+                    }
+                }
+                pipelining = supported;
+            }
+            catch(IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Sends a mail. Returns false if the server turned it down.
+         */
+        public boolean send(final String from, final String to, final byte[] message) throws IOException {
+            List<String> mailReply, rcptReply, dataReply;
+            if(pipelining) {
+                write("MAIL FROM:<" + from + ">");
+                write("RCPT TO:<" + to + ">");
+                write("DATA");
+                out.flush();
+                mailReply = readReply();
+                rcptReply = readReply();
+                dataReply = readReply();
+            }
+            else {
+                write("MAIL FROM:<" + from + ">");
+                out.flush();
+                mailReply = readReply();
+                rcptReply = Collections.emptyList();
+                dataReply = Collections.emptyList();
+                if(isPositive(mailReply)) {
+                    write("RCPT TO:<" + to + ">");
+                    out.flush();
+                    rcptReply = readReply();
+                    if(isPositive(rcptReply)) {
+                        write("DATA");
+                        out.flush();
+                        dataReply = readReply();
+                    }
+                }
+            }
+
+            boolean accepted = isPositive(mailReply) && isPositive(rcptReply);
+            if(codeOf(dataReply) == 354) {
+                if(accepted) {
+                    out.write(message);
+                }
+                //The data has to be ended even if the mail is not wanted any more.
+                out.write(("." + CRLF).getBytes(ASCII));
+                out.flush();
+                accepted = isPositive(readReply()) && accepted;
+            }
+            else {
+                accepted = false;
+            }
+            if(!accepted) {
+                System.out.println("Warn: Mail to " + to + " was turned down: " + mailReply + " " + rcptReply + " " + dataReply);
+                write("RSET");
+                out.flush();
+                readReply();
+            }
+            return accepted;
+        }
+
+        public void quit() throws IOException {
+            write("QUIT");
+            out.flush();
+            readReply();
+        }
+
+        public void close() {
+            try {
+                socket.close();
+            }
+            catch(IOException e) {
+                //Nothing more to do.
+            }
+        }
+
+        private void write(final String command) throws IOException {
+            out.write((command + CRLF).getBytes(UTF8));
+        }
+
+        /**
+         * Reads the lines of one reply, which may span several lines.
+         */
+        private List<String> readReply() throws IOException {
+            List<String> lines = new ArrayList<String>();
+            while(true) {
+                StringBuilder line = new StringBuilder();
+                int c;
+                while((c = in.read()) != '\n') {
+                    if(c == -1) {
+                        throw new IOException("Connection closed by the mail server.");
+                    }
+                    if(c != '\r') {
+                        line.append((char) c);
+                    }
+                }
+                lines.add(line.toString());
+                if(line.length() < 4 || line.charAt(3) != '-') {
+                    return lines;
+                }
+            }
+        }
+
+        private static int codeOf(final List<String> reply) {
+            if(reply.isEmpty()) {
+                return -1;
+            }
+            String last = reply.get(reply.size() - 1);
+            try {
+                return Integer.parseInt(last.substring(0, Math.min(3, last.length())));
+            }
+            catch(NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static boolean isPositive(final List<String> reply) {
+            int code = codeOf(reply);
+            return code >= 200 && code < 300;
+        }
+
+        private static void expect(final List<String> reply, final int code) throws IOException {
+            if(codeOf(reply) != code) {
+                throw new IOException("Unexpected reply from the mail server: " + reply);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the columns of the chart to dates using its month and date rows.
+ *
+ * @author psriniv
+ *
+ */
+class DateHelper {
+    private Map<Integer, String> dateMap = new HashMap<Integer, String>();
+    private Map<String, List<Integer>> monthMap = new HashMap<String, List<Integer>>();
+
+    public DateHelper() {
+        //Dummy constructor
+    }
+
+    /**
+     * Creates a helper over dates and months processed earlier.
+     */
+    public DateHelper(Map<Integer, String> dateMap, Map<String, List<Integer>> monthMap) {
+        this.dateMap = dateMap;
+        this.monthMap = monthMap;
+    }
+
+    public Map<Integer, String> getDateMap() {
+        return Collections.unmodifiableMap(dateMap);
+    }
+
+    public Map<String, List<Integer>> getMonthMap() {
+        return Collections.unmodifiableMap(monthMap);
+    }
+
+    /**
+     * For each column in the given row, create a map from the column index to its contents
+     */
+    public void processDates(final ChartSheet sheet, final int row) {
+        int columns = sheet.getLastCellNum(row);
+        // Start from 1 since the first column contains teacher names.
+        for(int i = ScheduleEngine.TEACHER_START_COL + 1; i < columns; i++) {
+            String dateOfMonth = sheet.getCellValue(row, i, ScheduleEngine.getOutputDateFormat()).trim();
+            dateMap.put(i, dateOfMonth);
+        }
+
+        if(ScheduleEngine.isDebug) System.out.println("date map: " + dateMap);
+    }
+
+    private final DateFormat monthYearFormat = new SimpleDateFormat("MMM-yy");
+    /**
+     * Create a map from month name to start and end column index of that month.
+     */
+    public void processMonths(final ChartSheet sheet, final int row) {
+        int columnCount = sheet.getLastCellNum(row);
+        //Start from the second column. First column contains teacher names.
+        String prevMonth = "";
+        for(int i = ScheduleEngine.TEACHER_START_COL + 1; i < columnCount; i++) {
+            String month = sheet.getCellValue(row, i, monthYearFormat).trim();
+            if(!"".equals(month)) {
+                //Start of a new month
+
+                //Store the end col for prev month
+                setEndColumn(prevMonth, i - 1);
+
+                //Store the start col for this month
+                List<Integer> startEndCol = new ArrayList<Integer>();
+                startEndCol.add(i);
+                //MMM-yy -> [a,b]
+                monthMap.put(month, startEndCol);
+
+                //Change the prev month to the new month.
+                prevMonth = month;
+            }
+        }
+
+        //Set the end column for the last month
+        setEndColumn(prevMonth, columnCount - 1);
+        if(ScheduleEngine.isDebug) System.out.println("month map: " + monthMap);
+    }
+
+    private void setEndColumn(String month, int endColumn) {
+        if(!"".equals(month)) {
+            List<Integer> startEndCol = monthMap.get(month);
+            startEndCol.add(endColumn);
+            monthMap.put(month, startEndCol);
+        }
+    }
+
+    /**
+     * Returns a string of the form &lt;date-of-month>/&lt;month>/&lt;year> for the given column.
+     * <p>
+     * Example:
+     * 15/May/08
+     */
+    public String getDate(int column) {
+        String dateOfMonth = dateMap.get(column);
+        String monthYear = "";
+        for(Map.Entry<String, List<Integer>> monthEntry : monthMap.entrySet()) {
+            List<Integer> startEndColumns = monthEntry.getValue();
+            if(startEndColumns.get(0) <= column && column <= startEndColumns.get(1)) {
+                monthYear = monthEntry.getKey();
+                break;
+            }
+        }
+        if("".equals(monthYear)) {
+            throw new IllegalArgumentException("Unable to find the date for the column: " + column);
+        }
+        //Get month and year from string like May-08
+        String[] values = monthYear.split("-");
+        if(values.length != 2) {
+            System.out.println("Illegal month-year format: " + monthYear + ". Should be in MMM-YY");
+        }
+        return dateOfMonth + "/" + values[0].trim() + "/" + values[1].trim();
+    }
+
+    /**
+     * Given a date in dd/MMM/yy format, find the column for that.
+     * <br>
+     * Returns -1 if no such date is found
+     */
+    public int getColumn(String date) {
+    	if("".equals(date) || date == null) 
+    		return -1;
+
+    	String[] tokens = date.split("/");
+    	String monthYear = String.format("%s-%s", tokens[1], tokens[2]);
+    	List<Integer> monthStartAndEnd = monthMap.get(monthYear);
+    	if(monthStartAndEnd == null) 
+    		return -1;
+
+    	int monthStartCol = monthStartAndEnd.get(0);
+    	String dateOfMonthStart = dateMap.get(monthStartCol);
+    	int beginDateOfMonth = Integer.parseInt(dateOfMonthStart);
+    	int endDateOfMonth = Integer.parseInt(dateMap.get(monthStartAndEnd.get(1)));
+    	int dateOfMonth = Integer.parseInt(tokens[0]);
+    	if(beginDateOfMonth <= dateOfMonth && dateOfMonth <= endDateOfMonth) {
+    		return monthStartCol + (dateOfMonth - beginDateOfMonth);
+    	}
+    	else {
+    		return -1;
+    	}
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Some of the entries of a list, kept as their positions in it rather than copied out, so that
+ * entries held off the heap are only read in when they are used. The list must not change
+ * afterwards, and should be one with fast random access.
+ *
+ * @author psriniv
+ *
+ */
+class EntryPositions extends AbstractList<ScheduleEntry> implements RandomAccess {
+
+    private final List<ScheduleEntry> source;
+    private int[] positions = new int[4];
+    private int count;
+
+    public EntryPositions(List<ScheduleEntry> source) {
+        this.source = source;
+    }
+
+    /**
+     * Adds the entry at the given position of the list.
+     */
+    public void addPosition(int position) {
+        if(count == positions.length) {
+            positions = Arrays.copyOf(positions, count * 2);
+        }
+        positions[count++] = position;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public ScheduleEntry get(int index) {
+        if(index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return source.get(positions[index]);
+    }
+}
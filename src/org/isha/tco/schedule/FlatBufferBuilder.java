@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Builds a FlatBuffer, the encoding of the Arrow metadata, the way the FlatBuffers library
+ * does: from the end of the buffer towards its start, so that what a table points to is
+ * written before the table. Offsets handed out are counted from the end of the buffer and so
+ * stay valid when the buffer grows.
+ * <p>
+ * Only what {@link ScheduleArrowWriter} needs is here: scalars, strings, vectors and tables,
+ * without sharing of identical vtables.
+ *
+ * @author psriniv
+ *
+ */
+class FlatBufferBuilder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ByteBuffer buffer;
+    /** Bytes still free at the start of the buffer */
+    private int space;
+    private int minAlign = 1;
+    private int[] vtable;
+    private int objectStart;
+    private int vectorLength;
+
+    public FlatBufferBuilder(int initialSize) {
+        buffer = ByteBuffer.allocate(Math.max(64, initialSize)).order(ByteOrder.LITTLE_ENDIAN);
+        space = buffer.capacity();
+    }
+
+    /**
+     * Forgets what was built, keeping the buffer.
+     */
+    public void clear() {
+        space = buffer.capacity();
+        minAlign = 1;
+        vtable = null;
+    }
+
+    /**
+     * Returns the offset of what was written last, counted from the end of the buffer.
+     */
+    public int offset() {
+        return buffer.capacity() - space;
+    }
+
+    /**
+     * Pads so that after writing additionalBytes the next value of the given size is aligned.
+     */
+    public void prep(final int size, final int additionalBytes) {
+        if(size > minAlign) {
+            minAlign = size;
+        }
+        int alignSize = (-(offset() + additionalBytes)) & (size - 1);
+        while(space < alignSize + size + additionalBytes) {
+            grow();
+        }
+        pad(alignSize);
+    }
+
+    private void grow() {
+        int used = offset();
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+        grown.position(grown.capacity() - used);
+        grown.put(buffer.array(), space, used);
+        space += grown.capacity() - buffer.capacity();
+        buffer = grown;
+    }
+
+    public void pad(final int bytes) {
+        for(int i = 0; i < bytes; i++) {
+            buffer.put(--space, (byte) 0);
+        }
+    }
+
+    public void putByte(final byte value) {
+        buffer.put(space -= 1, value);
+    }
+
+    public void putShort(final short value) {
+        buffer.putShort(space -= 2, value);
+    }
+
+    public void putInt(final int value) {
+        buffer.putInt(space -= 4, value);
+    }
+
+    public void putLong(final long value) {
+        buffer.putLong(space -= 8, value);
+    }
+
+    public void addByte(final byte value) {
+        prep(1, 0);
+        putByte(value);
+    }
+
+    public void addShort(final short value) {
+        prep(2, 0);
+        putShort(value);
+    }
+
+    public void addInt(final int value) {
+        prep(4, 0);
+        putInt(value);
+    }
+
+    public void addLong(final long value) {
+        prep(8, 0);
+        putLong(value);
+    }
+
+    /**
+     * Adds a reference to something written earlier.
+     */
+    public void addOffset(final int offset) {
+        prep(4, 0);
+        putInt(offset() - offset + 4);
+    }
+
+    public int createString(final String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        addByte((byte) 0);
+        startVector(1, bytes.length, 1);
+        space -= bytes.length;
+        buffer.position(space);
+        buffer.put(bytes);
+        return endVector();
+    }
+
+    /**
+     * Starts a vector; its elements are then written last to first.
+     */
+    public void startVector(final int elementSize, final int length, final int alignment) {
+        vectorLength = length;
+        prep(4, elementSize * length);
+        prep(alignment, elementSize * length);
+    }
+
+    public int endVector() {
+        putInt(vectorLength);
+        return offset();
+    }
+
+    public int createOffsetVector(final int[] offsets) {
+        startVector(4, offsets.length, 4);
+        for(int i = offsets.length - 1; i >= 0; i--) {
+            addOffset(offsets[i]);
+        }
+        return endVector();
+    }
+
+    public void startTable(final int fields) {
+        vtable = new int[fields];
+        objectStart = offset();
+    }
+
+    public void addByte(final int field, final byte value) {
+        addByte(value);
+        vtable[field] = offset();
+    }
+
+    public void addBoolean(final int field, final boolean value) {
+        addByte(field, (byte) (value ? 1 : 0));
+    }
+
+    public void addShort(final int field, final short value) {
+        addShort(value);
+        vtable[field] = offset();
+    }
+
+    public void addInt(final int field, final int value) {
+        addInt(value);
+        vtable[field] = offset();
+    }
+
+    public void addLong(final int field, final long value) {
+        addLong(value);
+        vtable[field] = offset();
+    }
+
+    public void addOffset(final int field, final int offset) {
+        addOffset(offset);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Writes the vtable of the table and returns the offset of the table.
+     */
+    public int endTable() {
+        addInt(0);
+        final int tableOffset = offset();
+        for(int i = vtable.length - 1; i >= 0; i--) {
+            addShort((short) (vtable[i] != 0 ? tableOffset - vtable[i] : 0));
+        }
+        addShort((short) (tableOffset - objectStart));
+        addShort((short) ((vtable.length + 2) * 2));
+        //The table starts with the distance back to its vtable.
+        buffer.putInt(buffer.capacity() - tableOffset, offset() - tableOffset);
+        vtable = null;
+        return tableOffset;
+    }
+
+    /**
+     * Adds the reference to the root table and returns the finished buffer.
+     */
+    public ByteBuffer finish(final int root) {
+        prep(minAlign, 4);
+        addOffset(root);
+        ByteBuffer finished = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        finished.position(space);
+        return finished;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the places and their co-ordinators from a database with a single query.
+ * <p>
+ * The query returns the place and its sector co-ordinator in its first two columns and,
+ * optionally, the zone and the zonal co-ordinator in the next two. The rows are read once
+ * per JVM for each database and query, however many times the owners are looked up.
+ * <br>
+ * The mail addresses come from a second query that returns the co-ordinator and the address.
+ *
+ * @author psriniv
+ *
+ */
+class JdbcPlaceOwnerSource implements PlaceOwnerSource {
+
+    static final String DEFAULT_QUERY = "SELECT place, owner, zone, zonal_coordinator FROM place_owner";
+    static final String DEFAULT_ADDRESS_QUERY = "SELECT coordinator, email FROM coordinator_email";
+
+    /** url and query to the rows read for them */
+    private static final Map<String, List<PlaceOwner>> loaded = new HashMap<String, List<PlaceOwner>>();
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String query;
+    private final String addressQuery;
+
+    /**
+     * Loads the driver class first if one is given, for drivers that do not register themselves.
+     */
+    public JdbcPlaceOwnerSource(String driver, String url, String user, String password, String query, 
+            String addressQuery) throws ClassNotFoundException {
+        if(driver != null && !"".equals(driver)) {
+            Class.forName(driver);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.query = query;
+        this.addressQuery = addressQuery;
+    }
+
+    public List<PlaceOwner> load() throws SQLException {
+        final String key = url + "\n" + query;
+        synchronized(loaded) {
+            List<PlaceOwner> placeOwners = loaded.get(key);
+            if(placeOwners == null) {
+                placeOwners = Collections.unmodifiableList(query());
+                loaded.put(key, placeOwners);
+            }
+            return placeOwners;
+        }
+    }
+
+    public Map<String, String> loadAddresses() throws SQLException {
+        Map<String, String> addresses = new LinkedHashMap<String, String>();
+        Connection connection = connect();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rows = statement.executeQuery(addressQuery);
+                while(rows.next()) {
+                    String coordinator = trimToNull(rows.getString(1));
+                    String address = trimToNull(rows.getString(2));
+                    if(coordinator != null && address != null) {
+                        addresses.put(coordinator, address);
+                    }
+                }
+                rows.close();
+            }
+            finally {
+                statement.close();
+            }
+        }
+        finally {
+            connection.close();
+        }
+        return addresses;
+    }
+
+    private Connection connect() throws SQLException {
+        return user == null ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+    }
+
+    private List<PlaceOwner> query() throws SQLException {
+        List<PlaceOwner> placeOwners = new ArrayList<PlaceOwner>();
+        Connection connection = connect();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rows = statement.executeQuery(query);
+                final int columns = rows.getMetaData().getColumnCount();
+                while(rows.next()) {
+                    String place = rows.getString(1);
+                    String owner = rows.getString(2);
+                    if(place == null || owner == null) {
+                        continue;
+                    }
+                    placeOwners.add(new PlaceOwner(place, owner.trim(), 
+                            columns > 2 ? trimToNull(rows.getString(3)) : null,
+                            columns > 3 ? trimToNull(rows.getString(4)) : null));
+                }
+                rows.close();
+            }
+            finally {
+                statement.close();
+            }
+        }
+        finally {
+            connection.close();
+        }
+        System.out.println("Read " + placeOwners.size() + " place owners from the database.");
+        return placeOwners;
+    }
+
+    private static String trimToNull(final String value) {
+        return value == null || "".equals(value.trim()) ? null : value.trim();
+    }
+}
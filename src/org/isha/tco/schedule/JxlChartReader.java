@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jxl.Sheet;
+import jxl.Workbook;
+import jxl.read.biff.BiffException;
+
+/**
+ * Reads .xls workbooks with jxl, which is quicker than POI on small workbooks.
+ *
+ * @author psriniv
+ *
+ */
+class JxlChartReader implements ChartReader {
+
+    public ChartSheet read(File file, String sheetName) throws IOException {
+        Workbook workbook;
+        try {
+            workbook = Workbook.getWorkbook(file);
+        }
+        catch(BiffException e) {
+            IOException ioe = new IOException("Unable to read " + file + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        try {
+            //jxl matches sheet names exactly, POI ignores the case.
+            for(Sheet sheet : workbook.getSheets()) {
+                if(sheet.getName().equalsIgnoreCase(sheetName)) {
+                    return new JxlChartSheet(sheet);
+                }
+            }
+            return null;
+        }
+        finally {
+            workbook.close();
+        }
+    }
+
+    public Map<String, ChartSheet> read(File file, SheetFilter filter) throws IOException {
+        Workbook workbook;
+        try {
+            workbook = Workbook.getWorkbook(file);
+        }
+        catch(BiffException e) {
+            IOException ioe = new IOException("Unable to read " + file + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        try {
+            Map<String, ChartSheet> sheets = new LinkedHashMap<String, ChartSheet>();
+            for(Sheet sheet : workbook.getSheets()) {
+                if(filter.accepts(sheet.getName())) {
+                    sheets.put(sheet.getName(), new JxlChartSheet(sheet));
+                }
+            }
+            return sheets;
+        }
+        finally {
+            workbook.close();
+        }
+    }
+}
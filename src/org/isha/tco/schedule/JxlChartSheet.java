@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import jxl.Cell;
+import jxl.CellType;
+import jxl.DateCell;
+import jxl.LabelCell;
+import jxl.NumberCell;
+import jxl.Range;
+import jxl.Sheet;
+import jxl.biff.EmptyCell;
+
+/**
+ * A sheet read with jxl. The cells are taken out of the sheet up front so that the
+ * workbook can be closed right after.
+ *
+ * @author psriniv
+ *
+ */
+class JxlChartSheet implements ChartSheet {
+
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+    private final Cell[][] rows;
+    private final List<Region> mergedRegions = new ArrayList<Region>();
+
+    public JxlChartSheet(Sheet sheet) {
+        rows = new Cell[sheet.getRows()][];
+        for(int row = 0; row < rows.length; row++) {
+            rows[row] = sheet.getRow(row);
+        }
+        for(Range range : sheet.getMergedCells()) {
+            Cell topLeft = range.getTopLeft();
+            Cell bottomRight = range.getBottomRight();
+            mergedRegions.add(new Region(topLeft.getColumn(), topLeft.getRow(), 
+                    bottomRight.getColumn(), bottomRight.getRow()));
+        }
+    }
+
+    public int getLastRowNum() {
+        return Math.max(0, rows.length - 1);
+    }
+
+    public int getLastCellNum(int row) {
+        if(row < 0 || row >= rows.length || rows[row].length == 0) {
+            return -1;
+        }
+        return rows[row].length;
+    }
+
+    public String getStringCellValue(int row, int col) {
+        Cell cell = getCell(row, col);
+        return cell == null ? null : cell.getContents();
+    }
+
+    public String getCellValue(int row, int col, DateFormat dateFormat) {
+        Cell cell = getCell(row, col);
+        if(cell == null) {
+            return "";
+        }
+        CellType type = cell.getType();
+        if(type == CellType.LABEL) {
+            return ((LabelCell) cell).getString();
+        }
+        if(type == CellType.DATE) {
+            //jxl reads dates as GMT, where POI reads them in the default time zone.
+            DateFormat gmtFormat = (DateFormat) dateFormat.clone();
+            gmtFormat.setTimeZone(GMT);
+            return gmtFormat.format(((DateCell) cell).getDate());
+        }
+        if(type == CellType.NUMBER) {
+            return String.valueOf((int) ((NumberCell) cell).getValue());
+        }
+        return "";
+    }
+
+    public List<Region> getMergedRegions() {
+        return Collections.unmodifiableList(mergedRegions);
+    }
+
+    /**
+     * Returns null for the cells that are not in the workbook at all.
+     */
+    private Cell getCell(int row, int col) {
+        if(row < 0 || row >= rows.length || col < 0 || col >= rows[row].length) {
+            return null;
+        }
+        Cell cell = rows[row][col];
+        return cell instanceof EmptyCell ? null : cell;
+    }
+}
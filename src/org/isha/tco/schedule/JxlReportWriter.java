@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import jxl.CellView;
+import jxl.Workbook;
+import jxl.write.DateFormat;
+import jxl.write.DateTime;
+import jxl.write.Label;
+import jxl.write.WritableCellFormat;
+import jxl.write.WritableSheet;
+import jxl.write.WritableWorkbook;
+import jxl.write.WriteException;
+
+/**
+ * Writes .xls reports with jxl.
+ *
+ * @author psriniv
+ *
+ */
+class JxlReportWriter implements ReportWriter {
+
+    public Report createReport() {
+        try {
+            return new JxlReport();
+        }
+        catch(IOException e) {
+            //Only writes to memory.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class JxlReport implements Report {
+        /** jxl writes the workbook to a stream given up front */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final WritableWorkbook workbook;
+        private final WritableSheet sheet;
+        //One format for all the date cells of the report. A format per cell runs into
+        //Warning:  Maximum number of format records exceeded.  Using default format.
+        //http://support.teamdev.com/thread/1760
+        private final WritableCellFormat dateFormat = new WritableCellFormat(new DateFormat("dd-MMM-yyyy"));
+
+        public JxlReport() throws IOException {
+            workbook = Workbook.createWorkbook(bytes);
+            sheet = workbook.createSheet("Output", 0);
+        }
+
+        public void writeCell(int row, int col, String value) {
+            try {
+                sheet.addCell(new Label(col, row, value));
+            }
+            catch(WriteException e) {
+                throw new IllegalArgumentException("Unable to write the cell: [" + col + ", " + row + "]", e);
+            }
+        }
+
+        public void writeDateCell(int row, int col, Date value) {
+            try {
+                sheet.addCell(new DateTime(col, row, value, dateFormat));
+            }
+            catch(WriteException e) {
+                throw new IllegalArgumentException("Unable to write the cell: [" + col + ", " + row + "]", e);
+            }
+        }
+
+        public void autoSizeColumn(int col) {
+            CellView view = sheet.getColumnView(col);
+            view.setAutosize(true);
+            sheet.setColumnView(col, view);
+        }
+
+        public void write(OutputStream out) throws IOException {
+            workbook.write();
+            try {
+                workbook.close();
+            }
+            catch(WriteException e) {
+                IOException ioe = new IOException("Unable to write the report: " + e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            }
+            bytes.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Consolidated entries kept outside the Java heap, for charts that span several years.
+ * <p>
+ * Each entry is a fixed-width record of ints in a direct buffer. The strings of the entries
+ * are replaced by their ids in a dictionary that holds every distinct string once, and the
+ * teachers of the entries are runs of ids in a second direct buffer. For each teacher and each
+ * owner, the positions of their entries are kept as a run in a third buffer, so their reports
+ * read only those entries. An entry is only turned into a {@link ScheduleEntry} when it is
+ * read, so the heap holds the dictionary and whatever entries are in use at the moment, and
+ * the collector has very little to go through.
+ * <p>
+ * The chart is consolidated straight into a {@link Builder}, and the store cannot be changed
+ * once it is built.
+ *
+ * @author psriniv
+ *
+ */
+class OffHeapEntryStore extends AbstractList<ScheduleEntry> implements RandomAccess {
+
+    private static final int START_DATE = 0;
+    private static final int END_DATE = 1;
+    private static final int CHART_PLACE = 2;
+    private static final int PLACE = 3;
+    private static final int CENTER = 4;
+    private static final int SECTOR = 5;
+    private static final int ACTIVITY = 6;
+    private static final int OWNER = 7;
+    private static final int GROUPED = 8;
+    private static final int PERSONS_OFFSET = 9;
+    private static final int PERSONS_COUNT = 10;
+    /** ints per record */
+    private static final int RECORD_INTS = 11;
+    private static final int NO_STRING = -1;
+    private static final int NO_LINK = -1;
+    private static final int INITIAL_ENTRIES = 1024;
+
+    private final IntBuffer records;
+    private final IntBuffer persons;
+    /** positions of the entries of each teacher and of each owner, in order */
+    private final IntBuffer personEntries;
+    private final IntBuffer ownerEntries;
+    /** string id to where its run of positions starts; the run ends where that of the next id starts */
+    private final int[] personStarts;
+    private final int[] ownerStarts;
+    private final int size;
+    /** id to string, and for the ids of places, centers and sectors, to their trimmed lower case key */
+    private final String[] strings;
+    private final String[] keys;
+    /** id to days since epoch, for date ids */
+    private final int[] days;
+    private final Map<String, Integer> ids;
+
+    private OffHeapEntryStore(Builder builder, int[] days, IntBuffer records, IntBuffer persons) {
+        this.size = builder.size;
+        this.records = records;
+        this.persons = persons;
+        this.strings = builder.strings.toArray(new String[builder.strings.size()]);
+        this.keys = new String[strings.length];
+        for(int id = builder.placeIds.nextSetBit(0); id >= 0; id = builder.placeIds.nextSetBit(id + 1)) {
+            keys[id] = strings[id].trim().toLowerCase();
+        }
+        this.days = days;
+        this.ids = builder.ids;
+
+        this.personStarts = new int[strings.length + 1];
+        this.ownerStarts = new int[strings.length + 1];
+        for(int index = 0, record = 0; index < size; index++, record += RECORD_INTS) {
+            final int personsOffset = records.get(record + PERSONS_OFFSET);
+            final int personsEnd = personsOffset + records.get(record + PERSONS_COUNT);
+            for(int i = personsOffset; i < personsEnd; i++) {
+                personStarts[persons.get(i) + 1]++;
+            }
+            final int owner = records.get(record + OWNER);
+            if(owner != NO_STRING) {
+                ownerStarts[owner + 1]++;
+            }
+        }
+        for(int id = 0; id < strings.length; id++) {
+            personStarts[id + 1] += personStarts[id];
+            ownerStarts[id + 1] += ownerStarts[id];
+        }
+        this.personEntries = allocate(Math.max(1, personStarts[strings.length]));
+        this.ownerEntries = allocate(Math.max(1, ownerStarts[strings.length]));
+        final int[] personFill = Arrays.copyOf(personStarts, strings.length);
+        final int[] ownerFill = Arrays.copyOf(ownerStarts, strings.length);
+        for(int index = 0, record = 0; index < size; index++, record += RECORD_INTS) {
+            final int personsOffset = records.get(record + PERSONS_OFFSET);
+            final int personsEnd = personsOffset + records.get(record + PERSONS_COUNT);
+            for(int i = personsOffset; i < personsEnd; i++) {
+                personEntries.put(personFill[persons.get(i)]++, index);
+            }
+            final int owner = records.get(record + OWNER);
+            if(owner != NO_STRING) {
+                ownerEntries.put(ownerFill[owner]++, index);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ScheduleEntry get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        final int record = index * RECORD_INTS;
+        final int personsOffset = records.get(record + PERSONS_OFFSET);
+        final int personsCount = records.get(record + PERSONS_COUNT);
+        List<String> entryPersons = new ArrayList<String>(personsCount);
+        for(int i = 0; i < personsCount; i++) {
+            entryPersons.add(strings[persons.get(personsOffset + i)]);
+        }
+        final int startDate = records.get(record + START_DATE);
+        final int endDate = records.get(record + END_DATE);
+        final int place = records.get(record + PLACE);
+        final int center = records.get(record + CENTER);
+        final int sector = records.get(record + SECTOR);
+        return new ScheduleEntry(strings[startDate], strings[endDate], days[startDate], days[endDate],
+                strings[records.get(record + CHART_PLACE)], strings[place], strings[center], strings[sector],
+                keys[place], keys[center], keys[sector],
+                strings[records.get(record + ACTIVITY)], records.get(record + GROUPED) != 0,
+                entryPersons, toString(records.get(record + OWNER)));
+    }
+
+    private String toString(int id) {
+        return id == NO_STRING ? null : strings[id];
+    }
+
+    /**
+     * Returns the entries taken by the given teacher. Only those entries are read off the buffers.
+     */
+    public List<ScheduleEntry> withPerson(String person) {
+        return select(personEntries, personStarts, ids.get(person));
+    }
+
+    /**
+     * Returns the entries at places owned by the given co-ordinator.
+     * Only those entries are read off the buffers.
+     */
+    public List<ScheduleEntry> withOwner(String owner) {
+        return select(ownerEntries, ownerStarts, ids.get(owner));
+    }
+
+    private List<ScheduleEntry> select(IntBuffer positions, int[] starts, Integer id) {
+        if(id == null) {
+            return new Selection(positions, 0, 0);
+        }
+        return new Selection(positions, starts[id], starts[id + 1] - starts[id]);
+    }
+
+    /**
+     * Returns the number of bytes held outside the heap.
+     */
+    public long getOffHeapBytes() {
+        return 4L * (records.capacity() + persons.capacity() + personEntries.capacity() + ownerEntries.capacity());
+    }
+
+    public String toString() {
+        return size + " entries, " + strings.length + " distinct strings, " + getOffHeapBytes() + " bytes off heap";
+    }
+
+    /**
+     * Some of the entries of the store, in order.
+     */
+    private class Selection extends AbstractList<ScheduleEntry> implements RandomAccess {
+        private final IntBuffer positions;
+        private final int start;
+        private final int count;
+
+        public Selection(IntBuffer positions, int start, int count) {
+            this.positions = positions;
+            this.start = start;
+            this.count = count;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public ScheduleEntry get(int index) {
+            if(index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            }
+            return OffHeapEntryStore.this.get(positions.get(start + index));
+        }
+    }
+
+    /**
+     * Consolidates the entries of a chart, one teacher at a time, into records off the heap.
+     * <p>
+     * Entries are found again through a hash table of record positions, which is off the heap
+     * as well, and the teachers of an entry are a chain of links since they are not added one
+     * after the other. When the store is built, the records are put in the order of the
+     * consolidated schedule and the teachers of each entry are laid out next to each other.
+     */
+    static class Builder {
+        private IntBuffer records = allocate(INITIAL_ENTRIES * RECORD_INTS);
+        /** teacher and next link, pairs that chain the teachers of an entry from the last one added */
+        private IntBuffer links = allocate(INITIAL_ENTRIES * 2);
+        private int linkCount;
+        /** for each record, the first record with the same dates and place */
+        private IntBuffer placeFirsts = allocate(INITIAL_ENTRIES);
+        private final RecordTable entryTable = new RecordTable(true);
+        private final RecordTable placeTable = new RecordTable(false);
+        private int size;
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        /** ids of the strings that are used as dates and as places */
+        private final BitSet dateIds = new BitSet();
+        private final BitSet placeIds = new BitSet();
+
+        /**
+         * Adds a teacher to the entry of the place-activity between the given dates, and makes
+         * the entry if there is none yet. An activity that is not grouped gets an entry per teacher.
+         * The place as displayed, the center, the sector and the owner are only used for a new entry.
+         * <br>
+         * Returns the number of teachers of the entry.
+         */
+        public int add(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+                String activity, boolean grouped, String teacher, String owner) {
+            final int startDateId = idOf(startDate);
+            final int endDateId = idOf(endDate);
+            final int chartPlaceId = idOf(chartPlace);
+            final int activityId = idOf(activity);
+            final int teacherId = idOf(teacher);
+            final int keyTeacherId = grouped ? NO_STRING : teacherId;
+
+            int record = entryTable.find(startDateId, endDateId, chartPlaceId, activityId, grouped, keyTeacherId);
+            final boolean added = record < 0;
+            if(added) {
+                record = size++;
+                records = ensureCapacity(records, size * RECORD_INTS);
+                placeFirsts = ensureCapacity(placeFirsts, size);
+                dateIds.set(startDateId);
+                dateIds.set(endDateId);
+                final int placeId = idOf(place);
+                final int centerId = idOf(center);
+                final int sectorId = idOf(sector);
+                placeIds.set(placeId);
+                placeIds.set(centerId);
+                placeIds.set(sectorId);
+
+                final int base = record * RECORD_INTS;
+                records.put(base + START_DATE, startDateId);
+                records.put(base + END_DATE, endDateId);
+                records.put(base + CHART_PLACE, chartPlaceId);
+                records.put(base + PLACE, placeId);
+                records.put(base + CENTER, centerId);
+                records.put(base + SECTOR, sectorId);
+                records.put(base + ACTIVITY, activityId);
+                records.put(base + OWNER, owner == null ? NO_STRING : idOf(owner));
+                records.put(base + GROUPED, grouped ? 1 : 0);
+                records.put(base + PERSONS_OFFSET, NO_LINK);
+                records.put(base + PERSONS_COUNT, 0);
+
+                int placeFirst = placeTable.find(startDateId, endDateId, chartPlaceId, NO_STRING, grouped, NO_STRING);
+                if(placeFirst < 0) {
+                    placeFirst = record;
+                    placeTable.put(record);
+                }
+                placeFirsts.put(record, placeFirst);
+            }
+
+            final int base = record * RECORD_INTS;
+            int count = records.get(base + PERSONS_COUNT);
+            int head = records.get(base + PERSONS_OFFSET);
+            for(int link = head; link != NO_LINK; link = links.get(link * 2 + 1)) {
+                if(links.get(link * 2) == teacherId) {
+                    return count;
+                }
+            }
+            links = ensureCapacity(links, (linkCount + 1) * 2);
+            links.put(linkCount * 2, teacherId);
+            links.put(linkCount * 2 + 1, head);
+            records.put(base + PERSONS_OFFSET, linkCount++);
+            records.put(base + PERSONS_COUNT, ++count);
+            if(added) {
+                //Hashed once its teacher is in, which is part of the key of an activity that is not grouped.
+                entryTable.put(record);
+            }
+            return count;
+        }
+
+        private int idOf(String value) {
+            Integer id = ids.get(value);
+            if(id == null) {
+                id = strings.size();
+                strings.add(value);
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        /**
+         * Orders the entries by start date, end date, the place as first seen on those dates and
+         * then the activity as first seen there, and returns them as a store.
+         * The builder cannot be used afterwards.
+         */
+        public OffHeapEntryStore build() {
+            final int[] days = new int[strings.size()];
+            for(int id = dateIds.nextSetBit(0); id >= 0; id = dateIds.nextSetBit(id + 1)) {
+                days[id] = ScheduleEntry.toDay(strings.get(id));
+            }
+            Integer[] order = new Integer[size];
+            for(int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer record1, Integer record2) {
+                    int result = compareInts(days[records.get(record1 * RECORD_INTS + START_DATE)],
+                            days[records.get(record2 * RECORD_INTS + START_DATE)]);
+                    if(result == 0) {
+                        result = compareInts(days[records.get(record1 * RECORD_INTS + END_DATE)],
+                                days[records.get(record2 * RECORD_INTS + END_DATE)]);
+                    }
+                    if(result == 0) {
+                        result = compareInts(placeFirsts.get(record1), placeFirsts.get(record2));
+                    }
+                    return result == 0 ? compareInts(record1, record2) : result;
+                }
+            });
+
+            IntBuffer sortedRecords = allocate(Math.max(1, size * RECORD_INTS));
+            IntBuffer sortedPersons = allocate(Math.max(1, linkCount));
+            int personsOffset = 0;
+            for(int i = 0; i < size; i++) {
+                final int from = order[i] * RECORD_INTS;
+                final int to = i * RECORD_INTS;
+                for(int field = 0; field < RECORD_INTS; field++) {
+                    sortedRecords.put(to + field, records.get(from + field));
+                }
+                //The chain runs from the last teacher added, so it is laid out backwards.
+                final int count = records.get(from + PERSONS_COUNT);
+                int position = personsOffset + count;
+                for(int link = records.get(from + PERSONS_OFFSET); link != NO_LINK; link = links.get(link * 2 + 1)) {
+                    sortedPersons.put(--position, links.get(link * 2));
+                }
+                sortedRecords.put(to + PERSONS_OFFSET, personsOffset);
+                personsOffset += count;
+            }
+            OffHeapEntryStore store = new OffHeapEntryStore(this, days, sortedRecords, sortedPersons);
+            records = null;
+            links = null;
+            placeFirsts = null;
+            return store;
+        }
+
+        private static int compareInts(int value1, int value2) {
+            return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+        }
+
+        /**
+         * Open addressing hash table of record positions, keyed by the dates, the place and,
+         * for the entries themselves, the activity and the teacher of an activity that is not grouped.
+         */
+        private class RecordTable {
+            private final boolean byActivity;
+            /** record position + 1, 0 for a free slot */
+            private IntBuffer slots = allocate(INITIAL_ENTRIES * 2);
+            private int used;
+
+            RecordTable(boolean byActivity) {
+                this.byActivity = byActivity;
+            }
+
+            /**
+             * Returns the record with the given key or -1 if there is none.
+             */
+            int find(int startDate, int endDate, int chartPlace, int activity, boolean grouped, int keyTeacher) {
+                final int mask = slots.capacity() - 1;
+                for(int slot = hash(startDate, endDate, chartPlace, activity, keyTeacher) & mask; ; slot = (slot + 1) & mask) {
+                    final int record = slots.get(slot) - 1;
+                    if(record < 0) {
+                        return -1;
+                    }
+                    final int base = record * RECORD_INTS;
+                    if(records.get(base + START_DATE) == startDate && records.get(base + END_DATE) == endDate
+                            && records.get(base + CHART_PLACE) == chartPlace
+                            && (!byActivity || (records.get(base + ACTIVITY) == activity
+                                    && (records.get(base + GROUPED) != 0) == grouped && keyTeacherOf(record) == keyTeacher))) {
+                        return record;
+                    }
+                }
+            }
+
+            void put(int record) {
+                if((used + 1) * 2 > slots.capacity()) {
+                    IntBuffer old = slots;
+                    slots = allocate(old.capacity() * 2);
+                    for(int slot = 0; slot < old.capacity(); slot++) {
+                        if(old.get(slot) != 0) {
+                            insert(old.get(slot) - 1);
+                        }
+                    }
+                }
+                insert(record);
+                used++;
+            }
+
+            private void insert(int record) {
+                final int base = record * RECORD_INTS;
+                final int mask = slots.capacity() - 1;
+                int slot = hash(records.get(base + START_DATE), records.get(base + END_DATE), records.get(base + CHART_PLACE), 
+                        records.get(base + ACTIVITY), byActivity ? keyTeacherOf(record) : NO_STRING) & mask;
+                while(slots.get(slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots.put(slot, record + 1);
+            }
+
+            private int keyTeacherOf(int record) {
+                final int base = record * RECORD_INTS;
+                //An activity that is not grouped has the one teacher it was made for.
+                return records.get(base + GROUPED) != 0 ? NO_STRING : links.get(records.get(base + PERSONS_OFFSET) * 2);
+            }
+
+            private int hash(int startDate, int endDate, int chartPlace, int activity, int keyTeacher) {
+                int hash = 31 * (31 * startDate + endDate) + chartPlace;
+                if(byActivity) {
+                    hash = 31 * (31 * hash + activity) + keyTeacher;
+                }
+                hash *= 0x9E3779B9;
+                return hash ^ (hash >>> 16);
+            }
+        }
+    }
+
+    private static IntBuffer allocate(int ints) {
+        return ByteBuffer.allocateDirect(ints * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Returns the buffer, or a copy of it twice as large if it holds fewer than the given ints.
+     */
+    private static IntBuffer ensureCapacity(IntBuffer buffer, int ints) {
+        if(buffer.capacity() >= ints) {
+            return buffer;
+        }
+        IntBuffer grown = allocate(Math.max(buffer.capacity() * 2, ints));
+        IntBuffer old = buffer.duplicate();
+        old.clear();
+        grown.put(old);
+        grown.clear();
+        return grown;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * Publishes the outputs of a run all at once so that readers of the output directory never
+ * see a mix of old and new reports.
+ * <p>
+ * Each run writes into its own folder under a hidden sibling of the output directory
+ * (&lt;parent>/.&lt;name>.runs/&lt;run>). When the run is done, the files that did not change
+ * since the previous run are replaced with hard links to the previous ones, so that they keep
+ * their modified time, and the output directory, which is a symbolic link to the current run,
+ * is switched over to the new run with a single rename. The last few runs are kept around for
+ * readers that are still going through them.
+ * <p>
+ * If the output directory is a plain folder, as left by earlier versions, it is moved into
+ * the runs folder on the first publish, as previous-&lt;run>. It may hold files that the
+ * converter did not write, so it is never removed with the old runs. Where symbolic links are
+ * not supported, the run folder is renamed into place instead, which leaves a short moment
+ * without the directory. The name of the run in place is then kept in the runs folder, so
+ * that the run can be moved back among the others, and rotated, when the next one comes.
+ *
+ * @author psriniv
+ *
+ */
+class OutputPublisher {
+
+    private static final String RUNS_FOLDER_SUFFIX = ".runs";
+    /** Prefix of an output directory that was there before the runs. These are never removed. */
+    private static final String PREVIOUS_OUTPUT_PREFIX = "previous-";
+    /** Holds the name of the run renamed into place when it could not be linked */
+    private static final String PUBLISHED_RUN_FILE = "published-run";
+    private static final int RUNS_TO_KEEP = 3;
+    private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path outputDirectory;
+    private final Path runsFolder;
+
+    public OutputPublisher(String outputFolder) {
+        this.outputDirectory = new File(outputFolder).getAbsoluteFile().toPath();
+        this.runsFolder = outputDirectory.resolveSibling("." + outputDirectory.getFileName() + RUNS_FOLDER_SUFFIX);
+    }
+
+    /**
+     * Returns the folder that holds the runs. Files that belong to the converter rather than
+     * to the readers, like the chart snapshot, can be kept here across runs.
+     */
+    public File getRunsFolder() {
+        return runsFolder.toFile();
+    }
+
+    /**
+     * Creates and returns a new, empty folder for the outputs of this run.
+     */
+    public File stage() throws IOException {
+        Files.createDirectories(runsFolder);
+        String runName = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        Path run = runsFolder.resolve(runName);
+        for(int i = 1; Files.exists(run, LinkOption.NOFOLLOW_LINKS); i++) {
+            run = runsFolder.resolve(runName + "-" + i);
+        }
+        Files.createDirectory(run);
+        return run.toFile();
+    }
+
+    /**
+     * Makes the given staged folder the output directory. All writes into it must be complete.
+     */
+    public void publish(File staged) throws IOException {
+        Path run = staged.getAbsoluteFile().toPath();
+        Path previousRun = getPublishedRun();
+        if(previousRun != null) {
+            int linked = linkUnchangedFiles(run, previousRun);
+            System.out.println("Unchanged outputs since the previous run: " + linked);
+        }
+
+        if(Files.isDirectory(outputDirectory, LinkOption.NOFOLLOW_LINKS)) {
+            //It has to move out of the way before the link can take its place.
+            moveOutputDirectoryAside(run);
+        }
+
+        try {
+            Path tempLink = runsFolder.resolve("current.tmp");
+            Files.deleteIfExists(tempLink);
+            Files.createSymbolicLink(tempLink, outputDirectory.getParent().relativize(run));
+            //A rename over the existing link is atomic.
+            Files.move(tempLink, outputDirectory, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(runsFolder.resolve(PUBLISHED_RUN_FILE));
+        }
+        catch(UnsupportedOperationException e) {
+            publishWithoutLink(run);
+        }
+        catch(IOException e) {
+            if(Files.isSymbolicLink(outputDirectory)) {
+                throw e;
+            }
+            System.out.println("Warn: Unable to link the output directory (" + e.getMessage() + "). Renaming the run into place.");
+            publishWithoutLink(run);
+        }
+        System.out.println("Published outputs from: " + run);
+
+        removeOldRuns(run);
+    }
+
+    private void publishWithoutLink(Path run) throws IOException {
+        if(Files.exists(outputDirectory, LinkOption.NOFOLLOW_LINKS)) {
+            moveOutputDirectoryAside(run);
+        }
+        Files.move(run, outputDirectory);
+        Files.write(runsFolder.resolve(PUBLISHED_RUN_FILE), run.getFileName().toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Moves the plain folder at the output directory into the runs folder. A run that was renamed
+     * into place goes back under its own name. Anything else was there before the runs and is kept
+     * as previous-&lt;run> for good.
+     */
+    private void moveOutputDirectoryAside(Path run) throws IOException {
+        Path publishedRunFile = runsFolder.resolve(PUBLISHED_RUN_FILE);
+        String publishedRun = null;
+        if(Files.isRegularFile(publishedRunFile)) {
+            publishedRun = new String(Files.readAllBytes(publishedRunFile), "UTF-8").trim();
+        }
+        if(publishedRun != null && !"".equals(publishedRun) && !publishedRun.startsWith(PREVIOUS_OUTPUT_PREFIX)
+                && !Files.exists(runsFolder.resolve(publishedRun), LinkOption.NOFOLLOW_LINKS)) {
+            Files.move(outputDirectory, runsFolder.resolve(publishedRun));
+        }
+        else {
+            Path previous = runsFolder.resolve(PREVIOUS_OUTPUT_PREFIX + run.getFileName());
+            System.out.println("Moving the existing output directory to: " + previous + 
+                    ". It is not removed with the old runs.");
+            Files.move(outputDirectory, previous);
+        }
+        Files.deleteIfExists(publishedRunFile);
+    }
+
+    /**
+     * Returns the run the output directory points to now, or null if there is none.
+     */
+    private Path getPublishedRun() throws IOException {
+        if(Files.isSymbolicLink(outputDirectory)) {
+            Path target = outputDirectory.getParent().resolve(Files.readSymbolicLink(outputDirectory));
+            return Files.isDirectory(target) ? target : null;
+        }
+        return Files.isDirectory(outputDirectory) ? outputDirectory : null;
+    }
+
+    /**
+     * Replaces the files of the run that are identical to those of the previous run with hard links to them.
+     */
+    private static int linkUnchangedFiles(Path run, Path previousRun) throws IOException {
+        int linked = 0;
+        File[] files = run.toFile().listFiles();
+        if(files == null) {
+            return 0;
+        }
+        for(File file : files) {
+            Path current = file.toPath();
+            Path previous = previousRun.resolve(file.getName());
+            if(file.isDirectory()) {
+                if(Files.isDirectory(previous)) {
+                    linked += linkUnchangedFiles(current, previous);
+                }
+                continue;
+            }
+            if(!Files.isRegularFile(previous) || !isSameContent(file, previous.toFile())) {
+                continue;
+            }
+            Path tempLink = current.resolveSibling(file.getName() + ".link");
+            try {
+                Files.createLink(tempLink, previous);
+                Files.move(tempLink, current, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                linked++;
+            }
+            catch(UnsupportedOperationException e) {
+                //Keep the copy.
+                return linked;
+            }
+            catch(IOException e) {
+                //Keep the copy, e.g. the previous run is on another file system.
+                Files.deleteIfExists(tempLink);
+            }
+        }
+        return linked;
+    }
+
+    private static boolean isSameContent(File file1, File file2) throws IOException {
+        if(file1.length() != file2.length()) {
+            return false;
+        }
+        InputStream in1 = new BufferedInputStream(new FileInputStream(file1), COMPARE_BUFFER_SIZE);
+        try {
+            InputStream in2 = new BufferedInputStream(new FileInputStream(file2), COMPARE_BUFFER_SIZE);
+            try {
+                byte[] buffer1 = new byte[COMPARE_BUFFER_SIZE];
+                byte[] buffer2 = new byte[COMPARE_BUFFER_SIZE];
+                int read1;
+                while((read1 = readFully(in1, buffer1)) > 0) {
+                    int read2 = readFully(in2, buffer2);
+                    if(read1 != read2 || !Arrays.equals(buffer1, buffer2)) {
+                        return false;
+                    }
+                }
+                return readFully(in2, buffer2) == 0;
+            }
+            finally {
+                in2.close();
+            }
+        }
+        finally {
+            in1.close();
+        }
+    }
+
+    /**
+     * Fills the buffer unless the stream ends first and clears what is left of it.
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int read;
+        while(total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+            total += read;
+        }
+        Arrays.fill(buffer, total, buffer.length, (byte) 0);
+        return total;
+    }
+
+    /**
+     * Deletes all but the last few runs. The run just published is always kept, and so is an
+     * output directory that was there before the runs.
+     */
+    private void removeOldRuns(Path currentRun) {
+        File[] runs = runsFolder.toFile().listFiles();
+        if(runs == null) {
+            return;
+        }
+        Arrays.sort(runs, new Comparator<File>() {
+            public int compare(File run1, File run2) {
+                long modified1 = run1.lastModified();
+                long modified2 = run2.lastModified();
+                return modified1 < modified2 ? -1 : (modified1 == modified2 ? run1.compareTo(run2) : 1);
+            }
+        });
+        int kept = 0;
+        for(int i = runs.length - 1; i >= 0; i--) {
+            File run = runs[i];
+            if(!run.isDirectory() || Files.isSymbolicLink(run.toPath()) 
+                    || run.getName().startsWith(PREVIOUS_OUTPUT_PREFIX)) {
+                continue;
+            }
+            if(run.toPath().equals(currentRun) || ++kept < RUNS_TO_KEEP) {
+                continue;
+            }
+            if(!deleteRecursively(run)) {
+                System.out.println("Warn: Unable to remove old outputs: " + run);
+            }
+        }
+    }
+
+    private static boolean deleteRecursively(File file) {
+        File[] children = file.isDirectory() && !Files.isSymbolicLink(file.toPath()) ? file.listFiles() : null;
+        if(children != null) {
+            for(File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        return file.delete();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the parsed form of input workbooks so that repeated conversions in the same JVM
+ * (query server reloads, batches) do not parse an unchanged file again.
+ * <p>
+ * Values are keyed by the kind of input, the file path, its last modified time and its
+ * size. Each value comes with an estimate of the memory it holds and the least recently
+ * used values are evicted once the estimates exceed the budget.
+ *
+ * @author psriniv
+ *
+ */
+class ParsedInputCache {
+
+    static interface Kind {
+        static final String CHART = "chart";
+        static final String PLACE_OWNER = "placeOwner";
+    }
+
+    private static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    private static final ParsedInputCache INSTANCE = new ParsedInputCache(DEFAULT_BUDGET_BYTES);
+
+    private final LinkedHashMap<Key, Value> values = new LinkedHashMap<Key, Value>(16, 0.75f, true);
+    private long budgetBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ParsedInputCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the cache shared by the conversions in this JVM.
+     */
+    public static ParsedInputCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the memory budget. A budget of 0 turns the cache off.
+     */
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evict(0);
+    }
+
+    /**
+     * Returns the parsed value of the given file, or null if it is not cached
+     * or the file has changed since.
+     */
+    public synchronized Object get(String kind, File file) {
+        Value value = values.get(new Key(kind, file));
+        if(value == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return value.parsed;
+    }
+
+    /**
+     * Caches the parsed value of the given file, replacing the values of earlier versions of it.
+     */
+    public synchronized void put(String kind, File file, Object parsed, long estimatedBytes) {
+        Key key = new Key(kind, file);
+        for(Iterator<Map.Entry<Key, Value>> it = values.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, Value> cached = it.next();
+            if(cached.getKey().isSameFile(key)) {
+                usedBytes -= cached.getValue().estimatedBytes;
+                it.remove();
+            }
+        }
+        if(estimatedBytes > budgetBytes) {
+            //Would not fit even in an empty cache.
+            return;
+        }
+        evict(estimatedBytes);
+        values.put(key, new Value(parsed, estimatedBytes));
+        usedBytes += estimatedBytes;
+    }
+
+    /**
+     * Evicts the least recently used values until the given number of bytes fits into the budget.
+     */
+    private void evict(long neededBytes) {
+        for(Iterator<Value> it = values.values().iterator(); it.hasNext() && usedBytes + neededBytes > budgetBytes;) {
+            usedBytes -= it.next().estimatedBytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    public synchronized String toString() {
+        return "[entries: " + values.size() + ", used: " + usedBytes + "/" + budgetBytes + " bytes, hits: " + hits +
+            ", misses: " + misses + ", evictions: " + evictions + "]";
+    }
+
+    private static class Key {
+        private final String kind;
+        private final String path;
+        private final long lastModified;
+        private final long length;
+
+        public Key(String kind, File file) {
+            this.kind = kind;
+            this.path = file.getAbsolutePath();
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        public boolean isSameFile(Key other) {
+            return kind.equals(other.kind) && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + kind.hashCode();
+            result = prime * result + path.hashCode();
+            result = prime * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = prime * result + (int) (length ^ (length >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj)
+                return true;
+            if(obj == null || getClass() != obj.getClass())
+                return false;
+            Key other = (Key) obj;
+            return isSameFile(other) && lastModified == other.lastModified && length == other.length;
+        }
+    }
+
+    private static class Value {
+        private final Object parsed;
+        private final long estimatedBytes;
+
+        public Value(Object parsed, long estimatedBytes) {
+            this.parsed = parsed;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
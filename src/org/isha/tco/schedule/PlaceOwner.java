@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+/**
+ * The co-ordinators of a center or sector, and the zone it is in.
+ *
+ * @author psriniv
+ *
+ */
+class PlaceOwner {
+    private final String place;
+    private final String owner;
+    private final String zone;
+    private final String zonalCoordinator;
+
+    /**
+     * The zone and the zonal co-ordinator may be null where they are not known.
+     */
+    public PlaceOwner(String place, String owner, String zone, String zonalCoordinator) {
+        this.place = place;
+        this.owner = owner;
+        this.zone = zone;
+        this.zonalCoordinator = zonalCoordinator;
+    }
+
+    public String getPlace() {
+        return place;
+    }
+
+    /**
+     * Returns the sector co-ordinator.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public String getZonalCoordinator() {
+        return zonalCoordinator;
+    }
+
+    public String toString() {
+        return place + ": " + owner + (zone == null ? "" : ", " + zone + ": " + zonalCoordinator);
+    }
+}
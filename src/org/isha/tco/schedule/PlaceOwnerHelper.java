@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.Set;
+
+/**
+ * Finds the sector co-ordinator, zone and zonal co-ordinator of a center or sector from the
+ * configured {@link PlaceOwnerSource}: the place owner workbook unless place_owner_source
+ * says jdbc.
+ * <br>
+ * The places are read once and kept in a hash table that does not change afterwards.
+ *
+ * @author psriniv
+ *
+ */
+class PlaceOwnerHelper {
+    static interface Source {
+        static final String SPREADSHEET = "spreadsheet";
+        static final String JDBC = "jdbc";
+    }
+
+    /** trimmed lower case place to its owners */
+    private final Map<String, PlaceOwner> placeOwnerMap;
+
+    public PlaceOwnerHelper(ResourceBundle props, ChartReader reader) {
+        this(createSource(props, reader));
+    }
+
+    /**
+     * Reads the places from the given source, or has no places if it is null.
+     */
+    PlaceOwnerHelper(PlaceOwnerSource source) {
+        Map<String, PlaceOwner> placeOwners = new HashMap<String, PlaceOwner>();
+        if(source != null) {
+            try {
+                List<PlaceOwner> loaded = source.load();
+                placeOwners = new HashMap<String, PlaceOwner>(loaded.size() * 4 / 3 + 1);
+                for(PlaceOwner placeOwner : loaded) {
+                    placeOwners.put(placeOwner.getPlace().trim().toLowerCase(), placeOwner);
+                }
+            }
+            catch(Exception e) {
+                e.printStackTrace();
+            }
+        }
+        placeOwnerMap = Collections.unmodifiableMap(placeOwners);
+
+        if(ScheduleEngine.isDebug) System.out.println("Place owner map: " + placeOwnerMap);
+    }
+
+    /**
+     * Returns the configured source of the places, or null if it cannot be set up.
+     */
+    static PlaceOwnerSource createSource(final ResourceBundle props, final ChartReader reader) {
+        String source = Source.SPREADSHEET;
+        try {
+            source = props.getString(ScheduleEngine.ConfigKey.PLACE_OWNER_SOURCE).trim().toLowerCase();
+        }
+        catch(MissingResourceException mre) {
+            //Read from the workbook.
+        }
+
+        if(Source.JDBC.equals(source)) {
+            try {
+                return new JdbcPlaceOwnerSource(getOptional(props, ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_DRIVER),
+                        props.getString(ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_URL).trim(),
+                        getOptional(props, ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_USER),
+                        getOptional(props, ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_PASSWORD),
+                        getOptional(props, ScheduleEngine.ConfigKey.PLACE_OWNER_QUERY) == null ?
+                                JdbcPlaceOwnerSource.DEFAULT_QUERY : props.getString(ScheduleEngine.ConfigKey.PLACE_OWNER_QUERY),
+                        getOptional(props, ScheduleEngine.ConfigKey.PLACE_OWNER_ADDRESS_QUERY) == null ?
+                                JdbcPlaceOwnerSource.DEFAULT_ADDRESS_QUERY : props.getString(ScheduleEngine.ConfigKey.PLACE_OWNER_ADDRESS_QUERY));
+            }
+            catch(MissingResourceException mre) {
+                System.out.println("Warn: No property found with ConfigKey: " + ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_URL);
+            }
+            catch(ClassNotFoundException e) {
+                System.out.println("Warn: Unable to load the JDBC driver: " + e.getMessage() + ". Owners will not be filled.");
+            }
+            return null;
+        }
+        if(!Source.SPREADSHEET.equals(source)) {
+            System.out.println("Warn: Unknown " + ScheduleEngine.ConfigKey.PLACE_OWNER_SOURCE + ": " + source +
+                    ". Expected one of " + Source.SPREADSHEET + ", " + Source.JDBC + ". Reading the workbook.");
+        }
+
+        try {
+            String placeOwnerFilename = props.getString(ScheduleEngine.ConfigKey.PLACE_OWNER_WORKBOOK_FILENAME);
+            if(placeOwnerFilename != "") {
+                return new SpreadsheetPlaceOwnerSource(reader, new File(placeOwnerFilename));
+            }
+        }
+        catch(MissingResourceException mre) {
+            //Ignore this.
+            System.out.println("Warn: No property found with ConfigKey: " + ScheduleEngine.ConfigKey.PLACE_OWNER_WORKBOOK_FILENAME);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the key, or null if it is not configured.
+     */
+    private static String getOptional(final ResourceBundle props, final String key) {
+        try {
+            return props.getString(key).trim();
+        }
+        catch(MissingResourceException mre) {
+            return null;
+        }
+    }
+
+    public String getOwner(String place) {
+        PlaceOwner placeOwner = placeOwnerMap.get(place.toLowerCase());
+        return placeOwner == null ? null : placeOwner.getOwner();
+    }
+
+    public String getZone(String place) {
+        PlaceOwner placeOwner = placeOwnerMap.get(place.toLowerCase());
+        return placeOwner == null ? null : placeOwner.getZone();
+    }
+
+    public String getZonalCoordinator(String place) {
+        PlaceOwner placeOwner = placeOwnerMap.get(place.toLowerCase());
+        return placeOwner == null ? null : placeOwner.getZonalCoordinator();
+    }
+
+    public Set<String> getPlaces() {
+    	return placeOwnerMap.keySet();
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the co-ordinators of the centers and sectors, and their mail addresses, are read from:
+ * the place owner workbook or a database.
+ *
+ * @author psriniv
+ *
+ */
+interface PlaceOwnerSource {
+
+    /**
+     * Reads all the places with their co-ordinators at once.
+     */
+    List<PlaceOwner> load() throws Exception;
+
+    /**
+     * Reads the mail address of each co-ordinator. Returns an empty map if there are none.
+     */
+    Map<String, String> loadAddresses() throws Exception;
+}
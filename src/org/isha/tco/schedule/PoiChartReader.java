@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Reads .xls and .xlsx workbooks with the POI user model.
+ * <br>
+ * The sheets of a workbook share its records, which are only read once the workbook is loaded.
+ *
+ * @author psriniv
+ *
+ */
+class PoiChartReader implements ChartReader {
+
+    private static final byte[] OLE2_SIGNATURE = 
+        {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1};
+    private static final byte[] ZIP_SIGNATURE = {'P', 'K', 3, 4};
+    /** POI reads an .xls in blocks of 512 bytes, each of which would otherwise be a read of the file */
+    private static final int OLE2_READ_BUFFER_SIZE = 1 << 16;
+
+    public ChartSheet read(File file, String sheetName) throws IOException {
+        Workbook workbook = open(file);
+        Sheet sheet = workbook.getSheet(sheetName);
+        return sheet == null ? null : new PoiChartSheet(sheet);
+    }
+
+    public Map<String, ChartSheet> read(File file, SheetFilter filter) throws IOException {
+        Workbook workbook = open(file);
+        Map<String, ChartSheet> sheets = new LinkedHashMap<String, ChartSheet>();
+        for(int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            String sheetName = workbook.getSheetName(i);
+            if(filter.accepts(sheetName)) {
+                sheets.put(sheetName, new PoiChartSheet(workbook.getSheetAt(i)));
+            }
+        }
+        return sheets;
+    }
+
+    /**
+     * Loads the workbook from the file itself rather than from a stream of it.
+     * <p>
+     * An .xlsx is opened as a zip file, so that only the parts POI reads are inflated, where
+     * a stream would be copied into memory as a whole first. An .xls is read by POI into
+     * blocks in any case; it is read through one large buffer instead of a read per block.
+     * The file is closed by the time the workbook is returned.
+     */
+    static Workbook open(final File file) throws IOException {
+        byte[] signature = new byte[OLE2_SIGNATURE.length];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if(raf.length() < signature.length) {
+                throw new IOException("Unable to read " + file + ": not a workbook");
+            }
+            raf.readFully(signature);
+        }
+        finally {
+            raf.close();
+        }
+
+        if(Arrays.equals(signature, OLE2_SIGNATURE)) {
+            InputStream in = new BufferedInputStream(new FileInputStream(file), OLE2_READ_BUFFER_SIZE);
+            try {
+                return new HSSFWorkbook(new POIFSFileSystem(in));
+            }
+            finally {
+                in.close();
+            }
+        }
+        if(Arrays.equals(Arrays.copyOf(signature, ZIP_SIGNATURE.length), ZIP_SIGNATURE)) {
+            try {
+                OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+                try {
+                    return new XSSFWorkbook(pkg);
+                }
+                finally {
+                    //The workbook has read its parts. A read only package is let go of by reverting it.
+                    pkg.revert();
+                }
+            }
+            catch(InvalidFormatException e) {
+                IOException ioe = new IOException("Unable to read " + file + ": " + e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+        throw new IOException("Unable to read " + file + ": neither an .xls nor an .xlsx workbook");
+    }
+}
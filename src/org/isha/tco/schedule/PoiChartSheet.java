@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+/**
+ * The Chart sheet of a workbook read with POI.
+ *
+ * @author psriniv
+ *
+ */
+class PoiChartSheet implements ChartSheet {
+
+    private final Sheet sheet;
+
+    public PoiChartSheet(Sheet sheet) {
+        this.sheet = sheet;
+    }
+
+    public int getLastRowNum() {
+        return sheet.getLastRowNum();
+    }
+
+    public int getLastCellNum(int row) {
+        Row currentRow = sheet.getRow(row);
+        return currentRow == null ? -1 : currentRow.getLastCellNum();
+    }
+
+    public String getStringCellValue(int row, int col) {
+        Cell cell = getCell(row, col);
+        return cell == null ? null : cell.getStringCellValue();
+    }
+
+    public String getCellValue(int row, int col, DateFormat dateFormat) {
+        return getCellValue(getCell(row, col), dateFormat);
+    }
+
+    public List<Region> getMergedRegions() {
+        final int mergedRegions = sheet.getNumMergedRegions();
+        List<Region> regions = new ArrayList<Region>(mergedRegions);
+        for(int i = 0; i < mergedRegions; i++) {
+            CellRangeAddress region = sheet.getMergedRegion(i);
+            regions.add(new Region(region.getFirstColumn(), region.getFirstRow(),
+                    region.getLastColumn(), region.getLastRow()));
+        }
+        return regions;
+    }
+
+    private Cell getCell(int row, int col) {
+        Row currentRow = sheet.getRow(row);
+        return currentRow == null ? null : currentRow.getCell(col);
+    }
+
+    static String getCellValue(Cell cell, DateFormat dateFormat) {
+        if(cell == null) {
+            return "";
+        }
+        switch(cell.getCellType()) {
+        case Cell.CELL_TYPE_STRING:
+            return cell.getRichStringCellValue().getString();
+        case Cell.CELL_TYPE_NUMERIC:
+            if(DateUtil.isCellDateFormatted(cell)) {
+                return dateFormat.format(cell.getDateCellValue());
+            }
+            else {
+                return String.valueOf((int) cell.getNumericCellValue());
+            }
+        default:
+            return "";
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Writes .xls reports with POI HSSF.
+ *
+ * @author psriniv
+ *
+ */
+class PoiReportWriter implements ReportWriter {
+
+    public Report createReport() {
+        return new PoiReport();
+    }
+
+    private static class PoiReport implements Report {
+        private final Workbook workbook = new HSSFWorkbook();
+        private final Sheet sheet = workbook.createSheet("Output");
+
+        public void writeCell(int row, int col, String value) {
+            Row outputRow = sheet.getRow(row);
+            if(outputRow == null) {
+                outputRow = sheet.createRow(row);
+            }
+            outputRow.createCell(col).setCellValue(value);
+        }
+
+        public void writeDateCell(int row, int col, Date value) {
+            writeCell(row, col, ScheduleEngine.getOutputDateFormat().format(value));
+        }
+
+        public void autoSizeColumn(int col) {
+            sheet.autoSizeColumn(col);
+        }
+
+        public void write(OutputStream out) throws IOException {
+            workbook.write(out);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes report files on a few I/O threads so that building the next report overlaps
+ * with writing out the previous ones.
+ * <p>
+ * Reports are serialized on the calling thread and handed over as bytes. The bytes that
+ * are waiting to be written are bounded: a submit blocks until the writers have caught up
+ * enough for the new report to fit. A failed write is thrown from the next submit or from
+ * {@link #close()}.
+ * <p>
+ * When bundling, the reports are not written to their files but go into one zip archive
+ * under their paths relative to the bundle's root folder. The reports are compressed on the
+ * I/O threads in parallel and added to the archive by a single thread in the order they were
+ * submitted, so that the archive is the same however the compression is scheduled.
+ *
+ * @author psriniv
+ *
+ */
+class ReportOutputPipeline {
+
+    private static final int KB = 1024;
+
+    private final ExecutorService writers;
+    /** Adds the compressed reports to the bundle in order, null unless bundling */
+    private final ExecutorService archiver;
+    private final ZipBundle bundle;
+    private final File bundleRoot;
+    /** One permit per KB of pending output */
+    private final Semaphore pendingKBs;
+    private final int maxPendingKBs;
+    private volatile IOException failure;
+
+    public ReportOutputPipeline(int ioThreads, long maxPendingBytes) {
+        this(ioThreads, maxPendingBytes, null, null);
+    }
+
+    /**
+     * Creates a pipeline that writes the reports into the given zip bundle instead of to their
+     * files. The entries are named by the path of their file under bundleRoot.
+     */
+    public ReportOutputPipeline(int ioThreads, long maxPendingBytes, ZipBundle bundle, File bundleRoot) {
+        this.writers = Executors.newFixedThreadPool(Math.max(1, ioThreads), newThreadFactory("report-writer-"));
+        this.archiver = bundle == null ? null : Executors.newSingleThreadExecutor(newThreadFactory("report-archiver-"));
+        this.bundle = bundle;
+        this.bundleRoot = bundleRoot;
+        this.maxPendingKBs = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxPendingBytes / KB));
+        this.pendingKBs = new Semaphore(maxPendingKBs);
+    }
+
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, namePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the reports go into a zip bundle.
+     */
+    public boolean isBundling() {
+        return bundle != null;
+    }
+
+    /**
+     * Serializes the report and queues it to be written to the given file.
+     */
+    public void submit(final File file, final ReportWriter.Report report) throws IOException {
+        ReportBytes bytes = new ReportBytes();
+        report.write(bytes);
+        submit(file, bytes.toByteBuffer());
+    }
+
+    /**
+     * Queues the bytes to be written to the given file. The buffer must not be changed afterwards.
+     */
+    public void submit(final File file, final ByteBuffer bytes) throws IOException {
+        checkFailure();
+        //A report bigger than the whole budget still goes through, alone.
+        final int permits = Math.min(maxPendingKBs, bytes.remaining() / KB + 1);
+        try {
+            pendingKBs.acquire(permits);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to write: " + file);
+        }
+        if(bundle != null) {
+            submitToBundle(file, bytes, permits);
+            return;
+        }
+        writers.execute(new Runnable() {
+            public void run() {
+                try {
+                    if(failure == null) {
+                        write(file, bytes);
+                    }
+                }
+                catch(IOException e) {
+                    failure = e;
+                }
+                finally {
+                    pendingKBs.release(permits);
+                }
+            }
+        });
+    }
+
+    private void submitToBundle(final File file, final ByteBuffer bytes, final int permits) {
+        final String name = getEntryName(file);
+        final Future<ZipBundle.Entry> compressed = writers.submit(new Callable<ZipBundle.Entry>() {
+            public ZipBundle.Entry call() {
+                return failure == null ? ZipBundle.compress(name, bytes) : null;
+            }
+        });
+        archiver.execute(new Runnable() {
+            public void run() {
+                try {
+                    ZipBundle.Entry entry = compressed.get();
+                    if(failure == null) {
+                        bundle.write(entry);
+                    }
+                }
+                catch(IOException e) {
+                    failure = e;
+                }
+                catch(ExecutionException e) {
+                    failure = new IOException("Unable to compress: " + file + ": " + e.getCause());
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new InterruptedIOException("Interrupted while bundling: " + file);
+                }
+                finally {
+                    pendingKBs.release(permits);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the path of the file under the bundle's root, with / as the separator.
+     */
+    private String getEntryName(final File file) {
+        String root = bundleRoot.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        String name = path.startsWith(root) ? path.substring(root.length()) : file.getName();
+        return name.replace(File.separatorChar, '/');
+    }
+
+    private static void write(File file, ByteBuffer bytes) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            FileChannel channel = fos.getChannel();
+            while(bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        finally {
+            fos.close();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for all the queued reports to be written.
+     */
+    public void close() throws IOException {
+        try {
+            awaitTermination(writers);
+            if(archiver != null) {
+                awaitTermination(archiver);
+            }
+        }
+        finally {
+            if(bundle != null) {
+                bundle.close();
+            }
+        }
+        checkFailure();
+        if(bundle != null) {
+            System.out.println("Reports are bundled in: " + bundle.getFile());
+        }
+    }
+
+    private static void awaitTermination(final ExecutorService executor) throws IOException {
+        executor.shutdown();
+        try {
+            while(!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for the reports to be written.");
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the reports to be written.");
+        }
+    }
+
+    /**
+     * Hands over its buffer without copying it.
+     */
+    private static class ReportBytes extends ByteArrayOutputStream {
+        public ReportBytes() {
+            super(16 * KB);
+        }
+
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
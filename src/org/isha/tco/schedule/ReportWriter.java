@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * Builds the report workbooks with one of the spreadsheet libraries. Each report is a
+ * workbook with a single sheet of text and date cells.
+ *
+ * @author psriniv
+ *
+ */
+interface ReportWriter {
+
+    /**
+     * Starts a new, empty report.
+     */
+    Report createReport();
+
+    static interface Report {
+
+        void writeCell(int row, int col, String value);
+
+        /**
+         * Writes a date. Writers that keep dates as date cells do so, formatted as dd-MMM-yyyy;
+         * the others write the date as text in the output date format.
+         */
+        void writeDateCell(int row, int col, Date value);
+
+        /**
+         * Widens the column to fit its contents. Called once all the cells are written.
+         */
+        void autoSizeColumn(int col);
+
+        /**
+         * Writes out the workbook. Nothing can be added to the report afterwards.
+         */
+        void write(OutputStream out) throws IOException;
+    }
+}
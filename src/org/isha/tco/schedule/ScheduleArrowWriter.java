@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the consolidated entries as an Arrow IPC file (Feather version 2), the columnar
+ * format read by pandas, R, Spark and the like without going through the rows.
+ * <p>
+ * The columns are start and end (date32, days since epoch), place, center, sector and activity
+ * (dictionary-encoded strings), teachers (a list of dictionary-encoded strings), grouped
+ * (boolean) and owner (a dictionary-encoded string, null when the place has no owner).
+ * <p>
+ * The file format cannot replace a dictionary once a batch has used it, so the entries are
+ * gone through twice: first to collect the distinct values of the dictionaries, then to fill
+ * the record batches column by column as the entries are handed over. Only one batch is held
+ * at a time.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleArrowWriter {
+
+    private static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+    private static final int CONTINUATION = 0xFFFFFFFF;
+    private static final short METADATA_V5 = 4;
+    private static final short LITTLE_ENDIAN = 0;
+    private static final short DATE_UNIT_DAY = 0;
+
+    private static interface HeaderType {
+        static final byte SCHEMA = 1;
+        static final byte DICTIONARY_BATCH = 2;
+        static final byte RECORD_BATCH = 3;
+    }
+
+    private static interface FieldType {
+        static final byte INT = 2;
+        static final byte UTF8 = 5;
+        static final byte BOOL = 6;
+        static final byte DATE = 8;
+        static final byte LIST = 12;
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The distinct values of a string column, indexed in the order they are first seen.
+     */
+    private static class Dictionary {
+        private final long id;
+        private final Map<String, Integer> indices = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        Dictionary(long id) {
+            this.id = id;
+        }
+
+        void add(final String value) {
+            if(!indices.containsKey(value)) {
+                indices.put(value, Integer.valueOf(values.size()));
+                values.add(value);
+            }
+        }
+
+        int indexOf(final String value) {
+            Integer index = indices.get(value);
+            if(index == null) {
+                throw new IllegalStateException("The schedule changed while it was written: " + value);
+            }
+            return index.intValue();
+        }
+    }
+
+    /**
+     * Where a dictionary or record batch message is in the file, for the footer.
+     */
+    private static class Block {
+        private final long offset;
+        private final int metadataLength;
+        private final long bodyLength;
+
+        Block(long offset, int metadataLength, long bodyLength) {
+            this.offset = offset;
+            this.metadataLength = metadataLength;
+            this.bodyLength = bodyLength;
+        }
+    }
+
+    private final FileOutputStream fos;
+    private final FileChannel channel;
+    private final int batchRows;
+    private final FlatBufferBuilder metadata = new FlatBufferBuilder(1024);
+    private ByteBuffer body = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    /** length and null count of each array of the message being built */
+    private final List<long[]> nodes = new ArrayList<long[]>();
+    /** offset and length in the body of each buffer of the message being built */
+    private final List<long[]> buffers = new ArrayList<long[]>();
+    private final List<Block> dictionaryBlocks = new ArrayList<Block>();
+    private final List<Block> batchBlocks = new ArrayList<Block>();
+    private long position;
+    private boolean written;
+
+    private final Dictionary places = new Dictionary(0);
+    private final Dictionary centers = new Dictionary(1);
+    private final Dictionary sectors = new Dictionary(2);
+    private final Dictionary activities = new Dictionary(3);
+    private final Dictionary teachers = new Dictionary(4);
+    private final Dictionary owners = new Dictionary(5);
+    /** schedule date to days since epoch */
+    private final Map<String, Integer> days = new HashMap<String, Integer>();
+
+    //The columns of the batch being filled
+    private int[] startDays;
+    private int[] endDays;
+    private int[] placeIndices;
+    private int[] centerIndices;
+    private int[] sectorIndices;
+    private int[] activityIndices;
+    private int[] teacherOffsets;
+    private int[] teacherIndices;
+    private byte[] grouped;
+    private int[] ownerIndices;
+    private byte[] ownerValidity;
+    private int rows;
+    private long totalRows;
+
+    public ScheduleArrowWriter(File file, int batchRows) throws IOException {
+        this.batchRows = Math.max(1, batchRows);
+        this.fos = new FileOutputStream(file);
+        this.channel = fos.getChannel();
+    }
+
+    /**
+     * Writes the schema, the dictionaries and then the entries of the schedule in record batches.
+     */
+    public void write(final ScheduleHelper sh) throws IOException {
+        final long[] entries = new long[1];
+        sh.writeEntries(new ScheduleHelper.EntrySink() {
+            public void add(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+                    String activity, boolean isGrouped, List<String> persons, String owner) {
+                places.add(place);
+                centers.add(center);
+                sectors.add(sector);
+                activities.add(activity);
+                for(String person : persons) {
+                    teachers.add(person);
+                }
+                if(owner != null && !"".equals(owner)) {
+                    owners.add(owner);
+                }
+                entries[0]++;
+            }
+        });
+
+        ByteBuffer magic = ByteBuffer.allocate(8);
+        magic.put(MAGIC);
+        magic.clear();
+        position += writeFully(magic);
+        metadata.clear();
+        body.clear();
+        writeMessage(HeaderType.SCHEMA, schema(), null);
+        for(Dictionary dictionary : new Dictionary[] {places, centers, sectors, activities, teachers, owners}) {
+            writeDictionary(dictionary);
+        }
+
+        final int capacity = (int) Math.max(1, Math.min(batchRows, entries[0]));
+        startDays = new int[capacity];
+        endDays = new int[capacity];
+        placeIndices = new int[capacity];
+        centerIndices = new int[capacity];
+        sectorIndices = new int[capacity];
+        activityIndices = new int[capacity];
+        teacherOffsets = new int[capacity + 1];
+        teacherIndices = new int[capacity * 2];
+        grouped = new byte[(capacity + 7) / 8];
+        ownerIndices = new int[capacity];
+        ownerValidity = new byte[(capacity + 7) / 8];
+
+        final IOException[] failure = new IOException[1];
+        sh.writeEntries(new ScheduleHelper.EntrySink() {
+            public void add(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+                    String activity, boolean isGrouped, List<String> persons, String owner) {
+                if(failure[0] != null) {
+                    return;
+                }
+                startDays[rows] = toDay(startDate);
+                endDays[rows] = toDay(endDate);
+                placeIndices[rows] = places.indexOf(place);
+                centerIndices[rows] = centers.indexOf(center);
+                sectorIndices[rows] = sectors.indexOf(sector);
+                activityIndices[rows] = activities.indexOf(activity);
+                int teacherCount = teacherOffsets[rows];
+                if(teacherIndices.length < teacherCount + persons.size()) {
+                    teacherIndices = Arrays.copyOf(teacherIndices, Math.max(teacherCount + persons.size(), teacherIndices.length * 2));
+                }
+                for(String person : persons) {
+                    teacherIndices[teacherCount++] = teachers.indexOf(person);
+                }
+                teacherOffsets[rows + 1] = teacherCount;
+                if(isGrouped) {
+                    grouped[rows >> 3] |= 1 << (rows & 7);
+                }
+                ownerIndices[rows] = owner == null || "".equals(owner) ? -1 : owners.indexOf(owner);
+                rows++;
+                totalRows++;
+
+                if(rows == startDays.length) {
+                    try {
+                        writeBatch();
+                    }
+                    catch(IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            }
+        });
+        if(failure[0] != null) {
+            throw failure[0];
+        }
+        if(rows > 0) {
+            writeBatch();
+        }
+        written = true;
+    }
+
+    private int toDay(final String date) {
+        Integer day = days.get(date);
+        if(day == null) {
+            day = Integer.valueOf(ScheduleEntry.toDay(date));
+            days.put(date, day);
+        }
+        return day.intValue();
+    }
+
+    /**
+     * Returns the number of entries written.
+     */
+    public long getRows() {
+        return totalRows;
+    }
+
+    public int getBatches() {
+        return batchBlocks.size();
+    }
+
+    private void writeDictionary(final Dictionary dictionary) throws IOException {
+        final int size = dictionary.values.size();
+        int[] offsets = new int[size + 1];
+        byte[][] values = new byte[size][];
+        for(int i = 0; i < size; i++) {
+            values[i] = dictionary.values.get(i).getBytes(UTF8);
+            offsets[i + 1] = offsets[i] + values[i].length;
+        }
+
+        metadata.clear();
+        body.clear();
+        nodes.clear();
+        buffers.clear();
+        addNode(size, 0);
+        addEmptyBuffer();
+        addBuffer(offsets, size + 1);
+        ensureBody(offsets[size] + 8);
+        long start = body.position();
+        for(byte[] value : values) {
+            body.put(value);
+        }
+        buffers.add(new long[] {start, offsets[size]});
+        padBody();
+
+        int data = recordBatch(size);
+        metadata.startTable(3);
+        metadata.addLong(0, dictionary.id);
+        metadata.addOffset(1, data);
+        metadata.addBoolean(2, false);
+        writeMessage(HeaderType.DICTIONARY_BATCH, metadata.endTable(), dictionaryBlocks);
+    }
+
+    private void writeBatch() throws IOException {
+        final int length = rows;
+        metadata.clear();
+        body.clear();
+        nodes.clear();
+        buffers.clear();
+        addIntColumn(startDays, length);
+        addIntColumn(endDays, length);
+        addIntColumn(placeIndices, length);
+        addIntColumn(centerIndices, length);
+        addIntColumn(sectorIndices, length);
+        addIntColumn(activityIndices, length);
+
+        addNode(length, 0);
+        addEmptyBuffer();
+        addBuffer(teacherOffsets, length + 1);
+        addIntColumn(teacherIndices, teacherOffsets[length]);
+
+        addNode(length, 0);
+        addEmptyBuffer();
+        addBuffer(grouped, (length + 7) / 8);
+
+        int nulls = 0;
+        Arrays.fill(ownerValidity, (byte) 0);
+        for(int i = 0; i < length; i++) {
+            if(ownerIndices[i] < 0) {
+                ownerIndices[i] = 0;
+                nulls++;
+            }
+            else {
+                ownerValidity[i >> 3] |= 1 << (i & 7);
+            }
+        }
+        addNode(length, nulls);
+        if(nulls > 0) {
+            addBuffer(ownerValidity, (length + 7) / 8);
+        }
+        else {
+            addEmptyBuffer();
+        }
+        addBuffer(ownerIndices, length);
+
+        writeMessage(HeaderType.RECORD_BATCH, recordBatch(length), batchBlocks);
+        rows = 0;
+        Arrays.fill(grouped, (byte) 0);
+    }
+
+    /**
+     * Adds a column of 32 bit values without nulls.
+     */
+    private void addIntColumn(final int[] values, final int length) {
+        addNode(length, 0);
+        addEmptyBuffer();
+        addBuffer(values, length);
+    }
+
+    private void addNode(final long length, final long nullCount) {
+        nodes.add(new long[] {length, nullCount});
+    }
+
+    private void addBuffer(final int[] values, final int length) {
+        ensureBody(length * 4 + 8);
+        long start = body.position();
+        body.asIntBuffer().put(values, 0, length);
+        body.position(body.position() + length * 4);
+        buffers.add(new long[] {start, length * 4});
+        padBody();
+    }
+
+    private void addBuffer(final byte[] bytes, final int length) {
+        ensureBody(length + 8);
+        long start = body.position();
+        body.put(bytes, 0, length);
+        buffers.add(new long[] {start, length});
+        padBody();
+    }
+
+    /**
+     * Adds an absent buffer, e.g. the validity of an array without nulls.
+     */
+    private void addEmptyBuffer() {
+        buffers.add(new long[] {body.position(), 0});
+    }
+
+    private void ensureBody(final int bytes) {
+        if(body.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(body.capacity() * 2, body.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+            body.flip();
+            grown.put(body);
+            body = grown;
+        }
+    }
+
+    /**
+     * Pads the body so that the next buffer starts at a multiple of 8 bytes.
+     */
+    private void padBody() {
+        while((body.position() & 7) != 0) {
+            body.put((byte) 0);
+        }
+    }
+
+    /**
+     * Builds a RecordBatch table for the nodes and buffers added.
+     */
+    private int recordBatch(final long length) {
+        metadata.startVector(16, nodes.size(), 8);
+        for(int i = nodes.size() - 1; i >= 0; i--) {
+            metadata.prep(8, 16);
+            metadata.putLong(nodes.get(i)[1]);
+            metadata.putLong(nodes.get(i)[0]);
+        }
+        int nodeVector = metadata.endVector();
+        metadata.startVector(16, buffers.size(), 8);
+        for(int i = buffers.size() - 1; i >= 0; i--) {
+            metadata.prep(8, 16);
+            metadata.putLong(buffers.get(i)[1]);
+            metadata.putLong(buffers.get(i)[0]);
+        }
+        int bufferVector = metadata.endVector();
+
+        metadata.startTable(3);
+        metadata.addLong(0, length);
+        metadata.addOffset(1, nodeVector);
+        metadata.addOffset(2, bufferVector);
+        return metadata.endTable();
+    }
+
+    private int schema() {
+        int teacherField = dictionaryField("item", teachers, false);
+        int[] fields = {
+            dateField("start"),
+            dateField("end"),
+            dictionaryField("place", places, false),
+            dictionaryField("center", centers, false),
+            dictionaryField("sector", sectors, false),
+            dictionaryField("activity", activities, false),
+            field("teachers", false, FieldType.LIST, emptyTable(), 0, new int[] {teacherField}),
+            field("grouped", false, FieldType.BOOL, emptyTable(), 0, new int[0]),
+            dictionaryField("owner", owners, true)
+        };
+        int fieldVector = metadata.createOffsetVector(fields);
+        metadata.startTable(4);
+        metadata.addShort(0, LITTLE_ENDIAN);
+        metadata.addOffset(1, fieldVector);
+        return metadata.endTable();
+    }
+
+    private int dateField(final String name) {
+        metadata.startTable(1);
+        metadata.addShort(0, DATE_UNIT_DAY);
+        int type = metadata.endTable();
+        return field(name, false, FieldType.DATE, type, 0, new int[0]);
+    }
+
+    private int dictionaryField(final String name, final Dictionary dictionary, final boolean nullable) {
+        metadata.startTable(2);
+        metadata.addInt(0, 32);
+        metadata.addBoolean(1, true);
+        int indexType = metadata.endTable();
+        metadata.startTable(4);
+        metadata.addLong(0, dictionary.id);
+        metadata.addOffset(1, indexType);
+        metadata.addBoolean(2, false);
+        int encoding = metadata.endTable();
+        return field(name, nullable, FieldType.UTF8, emptyTable(), encoding, new int[0]);
+    }
+
+    private int emptyTable() {
+        metadata.startTable(0);
+        return metadata.endTable();
+    }
+
+    private int field(final String name, final boolean nullable, final byte typeType, final int type,
+            final int dictionary, final int[] children) {
+        int nameString = metadata.createString(name);
+        int childVector = metadata.createOffsetVector(children);
+        metadata.startTable(6);
+        metadata.addOffset(0, nameString);
+        metadata.addBoolean(1, nullable);
+        metadata.addByte(2, typeType);
+        metadata.addOffset(3, type);
+        if(dictionary != 0) {
+            metadata.addOffset(4, dictionary);
+        }
+        metadata.addOffset(5, childVector);
+        return metadata.endTable();
+    }
+
+    /**
+     * Writes an encapsulated message: the metadata, padded to 8 bytes, followed by the body.
+     */
+    private void writeMessage(final byte headerType, final int header, final List<Block> blocks) throws IOException {
+        final int bodyLength = body.position();
+        metadata.startTable(4);
+        metadata.addShort(0, METADATA_V5);
+        metadata.addByte(1, headerType);
+        metadata.addOffset(2, header);
+        metadata.addLong(3, bodyLength);
+        ByteBuffer message = metadata.finish(metadata.endTable());
+
+        final int metadataLength = (8 + message.remaining() + 7) & ~7;
+        ByteBuffer prefix = ByteBuffer.allocate(metadataLength).order(ByteOrder.LITTLE_ENDIAN);
+        prefix.putInt(CONTINUATION);
+        prefix.putInt(metadataLength - 8);
+        prefix.put(message);
+        prefix.clear();
+
+        final long offset = position;
+        position += writeFully(prefix);
+        body.flip();
+        position += writeFully(body);
+        if(blocks != null) {
+            blocks.add(new Block(offset, metadataLength, bodyLength));
+        }
+    }
+
+    private int blockVector(final List<Block> blocks) {
+        metadata.startVector(24, blocks.size(), 8);
+        for(int i = blocks.size() - 1; i >= 0; i--) {
+            Block block = blocks.get(i);
+            metadata.prep(8, 24);
+            metadata.putLong(block.bodyLength);
+            metadata.pad(4);
+            metadata.putInt(block.metadataLength);
+            metadata.putLong(block.offset);
+        }
+        return metadata.endVector();
+    }
+
+    private int writeFully(final ByteBuffer bytes) throws IOException {
+        int written = 0;
+        while(bytes.hasRemaining()) {
+            written += channel.write(bytes);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the footer that locates the batches, and closes the file. Only closes it if
+     * {@link #write(ScheduleHelper)} failed.
+     */
+    public void close() throws IOException {
+        try {
+            if(written) {
+                metadata.clear();
+                int schema = schema();
+                int dictionaryVector = blockVector(dictionaryBlocks);
+                int batchVector = blockVector(batchBlocks);
+                metadata.startTable(4);
+                metadata.addShort(0, METADATA_V5);
+                metadata.addOffset(1, schema);
+                metadata.addOffset(2, dictionaryVector);
+                metadata.addOffset(3, batchVector);
+                ByteBuffer footer = metadata.finish(metadata.endTable());
+
+                ByteBuffer end = ByteBuffer.allocate(8 + footer.remaining() + 4 + MAGIC.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                end.putInt(CONTINUATION);
+                end.putInt(0);
+                final int footerLength = footer.remaining();
+                end.put(footer);
+                end.putInt(footerLength);
+                end.put(MAGIC);
+                end.flip();
+                writeFully(end);
+            }
+        }
+        finally {
+            fos.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds teachers that are double-booked and centers that have overlapping programs.
+ * <p>
+ * The entries are swept once in order of their start day while keeping, for each teacher and
+ * each center, its entries that have not ended yet. An entry overlaps every one of those of
+ * its teachers and its center, and each such pair is reported. Entries that end before the
+ * next one of the same teacher or center starts are dropped as the sweep goes, so the work is
+ * one check for every pair of entries that share a day, and only the entries that have not
+ * ended are held, not all of them.
+ * <p>
+ * At a center, entries with the same activity are not conflicts. They are the same program
+ * held by teachers that were not grouped together.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleConflictDetector {
+
+    static interface ConflictType {
+        static final String TEACHER = "Teacher";
+        static final String CENTER = "Center";
+    }
+
+    /**
+     * Two overlapping entries of the same teacher or center.
+     */
+    static class Conflict {
+        private final String type;
+        private final String name;
+        private final ScheduleEntry entry;
+        private final ScheduleEntry overlappingEntry;
+
+        public Conflict(String type, String name, ScheduleEntry entry, ScheduleEntry overlappingEntry) {
+            this.type = type;
+            this.name = name;
+            this.entry = entry;
+            this.overlappingEntry = overlappingEntry;
+        }
+
+        /**
+         * Returns one of {@link ConflictType}.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Returns the teacher or the center that is double-booked.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the entry that starts earlier.
+         */
+        public ScheduleEntry getEntry() {
+            return entry;
+        }
+
+        public ScheduleEntry getOverlappingEntry() {
+            return overlappingEntry;
+        }
+
+        public String toString() {
+            return type + " " + name + ": " + entry + " overlaps " + overlappingEntry;
+        }
+    }
+
+    /**
+     * The entries of one teacher or center that have not ended yet, and the conflicts found among them.
+     */
+    private static class Sweep {
+        private final String type;
+        private final String name;
+        private final boolean isCenter;
+        /** The entries that have started and not ended yet, in the order they started */
+        private final List<ScheduleEntry> active = new LinkedList<ScheduleEntry>();
+        private final List<Conflict> conflicts = new ArrayList<Conflict>();
+
+        public Sweep(String type, String name) {
+            this.type = type;
+            this.name = name;
+            this.isCenter = ConflictType.CENTER.equals(type);
+        }
+
+        /**
+         * Takes the next entry, which does not start before any of the entries taken so far.
+         */
+        public void add(ScheduleEntry entry) {
+            for(Iterator<ScheduleEntry> activeEntries = active.iterator(); activeEntries.hasNext();) {
+                ScheduleEntry activeEntry = activeEntries.next();
+                if(activeEntry.getEndDay() < entry.getStartDay()) {
+                    activeEntries.remove();
+                }
+                else if(!isCenter || !entry.getActivity().equalsIgnoreCase(activeEntry.getActivity())) {
+                    conflicts.add(new Conflict(type, name, activeEntry, entry));
+                }
+            }
+            active.add(entry);
+        }
+    }
+
+    private ScheduleConflictDetector() {
+        //Utility class
+    }
+
+    /**
+     * Returns the teacher conflicts followed by the center conflicts in the given entries.
+     * The entries are expected in order of their start and then end day, as
+     * {@link ScheduleHelper#getEntries()} returns them, and are read through just once.
+     */
+    public static List<Conflict> detect(List<ScheduleEntry> entries) {
+        //teacher or center to its sweep, in the order they are first seen
+        Map<String, Sweep> teacherSweeps = new LinkedHashMap<String, Sweep>();
+        Map<String, Sweep> centerSweeps = new LinkedHashMap<String, Sweep>();
+        for(ScheduleEntry entry : entries) {
+            for(String person : entry.getPersons()) {
+                getSweep(teacherSweeps, ConflictType.TEACHER, person).add(entry);
+            }
+            //Breaks and travel do not have a place.
+            if(!"".equals(entry.getPlace().trim())) {
+                getSweep(centerSweeps, ConflictType.CENTER, entry.getPlace()).add(entry);
+            }
+        }
+
+        List<Conflict> conflicts = new ArrayList<Conflict>();
+        for(Sweep sweep : teacherSweeps.values()) {
+            conflicts.addAll(sweep.conflicts);
+        }
+        for(Sweep sweep : centerSweeps.values()) {
+            conflicts.addAll(sweep.conflicts);
+        }
+        return conflicts;
+    }
+
+    private static Sweep getSweep(Map<String, Sweep> sweeps, String type, String name) {
+        Sweep sweep = sweeps.get(name);
+        if(sweep == null) {
+            sweep = new Sweep(type, name);
+            sweeps.put(name, sweep);
+        }
+        return sweep;
+    }
+}
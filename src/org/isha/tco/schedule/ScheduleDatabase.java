@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Loads the consolidated schedule of a chart into a database over JDBC, for tools that want
+ * to query the schedules without reading the reports. Any embedded database with a JDBC
+ * driver will do, e.g. H2 or SQLite; the driver is not shipped and has to be put on the
+ * class path.
+ * <p>
+ * An entry is a row of schedule_entry and its teachers are rows of schedule_entry_teacher,
+ * both keyed by the name of the chart and the position of the entry in the consolidated
+ * report. Loading a chart replaces what was loaded for it before. All the rows go in through
+ * batched prepared statements in a single transaction, so readers see either the old or the
+ * new schedule of a chart.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleDatabase {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS schedule_entry (" +
+            "chart VARCHAR(255) NOT NULL, entry_no INTEGER NOT NULL, " +
+            "start_date DATE NOT NULL, end_date DATE NOT NULL, " +
+            "place VARCHAR(255) NOT NULL, center VARCHAR(255) NOT NULL, sector VARCHAR(255) NOT NULL, " +
+            "activity VARCHAR(255) NOT NULL, grouped SMALLINT NOT NULL, owner VARCHAR(255), " +
+            "PRIMARY KEY (chart, entry_no))",
+        "CREATE TABLE IF NOT EXISTS schedule_entry_teacher (" +
+            "chart VARCHAR(255) NOT NULL, entry_no INTEGER NOT NULL, teacher VARCHAR(255) NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS schedule_entry_dates ON schedule_entry (start_date, end_date)",
+        "CREATE INDEX IF NOT EXISTS schedule_entry_center ON schedule_entry (center)",
+        "CREATE INDEX IF NOT EXISTS schedule_entry_teacher_name ON schedule_entry_teacher (teacher)",
+        "CREATE INDEX IF NOT EXISTS schedule_entry_teacher_entry ON schedule_entry_teacher (chart, entry_no)"
+    };
+    private static final String DELETE_ENTRIES = "DELETE FROM schedule_entry WHERE chart = ?";
+    private static final String DELETE_TEACHERS = "DELETE FROM schedule_entry_teacher WHERE chart = ?";
+    private static final String INSERT_ENTRY = "INSERT INTO schedule_entry " +
+        "(chart, entry_no, start_date, end_date, place, center, sector, activity, grouped, owner) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_TEACHER =
+        "INSERT INTO schedule_entry_teacher (chart, entry_no, teacher) VALUES (?, ?, ?)";
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int batchSize;
+
+    /**
+     * Loads the driver class first if one is given, for drivers that do not register themselves.
+     */
+    public ScheduleDatabase(String driver, String url, String user, String password, int batchSize)
+    throws ClassNotFoundException {
+        if(driver != null && !"".equals(driver)) {
+            Class.forName(driver);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Replaces the schedule of the chart with the given entries.
+     */
+    public void load(final String chart, final List<ScheduleEntry> entries) throws SQLException {
+        Connection connection = user == null ?
+                DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                for(String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            finally {
+                statement.close();
+            }
+
+            connection.setAutoCommit(false);
+            boolean committed = false;
+            try {
+                delete(connection, DELETE_TEACHERS, chart);
+                delete(connection, DELETE_ENTRIES, chart);
+                insert(connection, chart, entries);
+                connection.commit();
+                committed = true;
+            }
+            finally {
+                if(!committed) {
+                    connection.rollback();
+                }
+            }
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private static void delete(final Connection connection, final String sql, final String chart) throws SQLException {
+        PreparedStatement delete = connection.prepareStatement(sql);
+        try {
+            delete.setString(1, chart);
+            delete.executeUpdate();
+        }
+        finally {
+            delete.close();
+        }
+    }
+
+    private void insert(final Connection connection, final String chart, final List<ScheduleEntry> entries)
+    throws SQLException {
+        //The dates are days since epoch in UTC, see ScheduleEntry.toDay
+        final Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        PreparedStatement insertEntry = connection.prepareStatement(INSERT_ENTRY);
+        PreparedStatement insertTeacher = connection.prepareStatement(INSERT_TEACHER);
+        try {
+            int pendingEntries = 0;
+            int pendingTeachers = 0;
+            int entryNo = 1;
+            for(ScheduleEntry entry : entries) {
+                insertEntry.setString(1, chart);
+                insertEntry.setInt(2, entryNo);
+                insertEntry.setDate(3, new Date(entry.getStartDay() * MILLIS_PER_DAY), utc);
+                insertEntry.setDate(4, new Date(entry.getEndDay() * MILLIS_PER_DAY), utc);
+                insertEntry.setString(5, entry.getPlace());
+                insertEntry.setString(6, entry.getCenter());
+                insertEntry.setString(7, entry.getSector());
+                insertEntry.setString(8, entry.getActivity());
+                insertEntry.setShort(9, (short) (entry.isGrouped() ? 1 : 0));
+                if(entry.getOwner() == null || "".equals(entry.getOwner())) {
+                    insertEntry.setNull(10, Types.VARCHAR);
+                }
+                else {
+                    insertEntry.setString(10, entry.getOwner());
+                }
+                insertEntry.addBatch();
+                if(++pendingEntries == batchSize) {
+                    insertEntry.executeBatch();
+                    pendingEntries = 0;
+                }
+
+                for(String teacher : entry.getPersons()) {
+                    insertTeacher.setString(1, chart);
+                    insertTeacher.setInt(2, entryNo);
+                    insertTeacher.setString(3, teacher);
+                    insertTeacher.addBatch();
+                    if(++pendingTeachers == batchSize) {
+                        insertTeacher.executeBatch();
+                        pendingTeachers = 0;
+                    }
+                }
+                entryNo++;
+            }
+            if(pendingEntries > 0) {
+                insertEntry.executeBatch();
+            }
+            if(pendingTeachers > 0) {
+                insertTeacher.executeBatch();
+            }
+        }
+        finally {
+            insertEntry.close();
+            insertTeacher.close();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The differences between the consolidated schedules of two versions of a chart: the entries
+ * that were added and removed, and the teachers, co-ordinators and places they touch.
+ * <p>
+ * Every entry is reduced to a row that is hashed once. The rows of the old chart are counted
+ * in a hash map and the rows of the new chart are taken off it, so the diff is linear in the
+ * number of entries. Rows with the same hash are still compared field by field. The teachers
+ * of an entry are compared regardless of their order in the chart.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleDiff {
+
+    static interface ChangeType {
+        static final String ADDED = "Added";
+        static final String REMOVED = "Removed";
+    }
+
+    /**
+     * An entry that is only in one of the two schedules.
+     */
+    static class Change {
+        private final String type;
+        private final ScheduleEntry entry;
+
+        public Change(String type, ScheduleEntry entry) {
+            this.type = type;
+            this.entry = entry;
+        }
+
+        /**
+         * One of {@link ChangeType}
+         */
+        public String getType() {
+            return type;
+        }
+
+        public ScheduleEntry getEntry() {
+            return entry;
+        }
+
+        public String toString() {
+            return type + ": " + entry;
+        }
+    }
+
+    private final List<Change> changes;
+    private final Set<String> teachers;
+    private final Set<String> coordinators;
+    private final Set<String> places;
+
+    private ScheduleDiff(List<Change> changes, Set<String> teachers, Set<String> coordinators, Set<String> places) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.teachers = Collections.unmodifiableSet(teachers);
+        this.coordinators = Collections.unmodifiableSet(coordinators);
+        this.places = Collections.unmodifiableSet(places);
+    }
+
+    /**
+     * Compares the schedule of the old chart with that of the new one.
+     */
+    public static ScheduleDiff compute(ScheduleHelper oldSchedule, ScheduleHelper newSchedule) {
+        List<ScheduleEntry> oldEntries = oldSchedule.getEntries();
+        List<ScheduleEntry> newEntries = newSchedule.getEntries();
+
+        //row to the number of times it is only in the old schedule
+        Map<Row, int[]> oldRows = new HashMap<Row, int[]>(oldEntries.size() * 4 / 3 + 1);
+        for(ScheduleEntry entry : oldEntries) {
+            Row row = new Row(entry);
+            int[] count = oldRows.get(row);
+            if(count == null) {
+                oldRows.put(row, new int[] { 1 });
+            }
+            else {
+                count[0]++;
+            }
+        }
+
+        List<Change> changes = new ArrayList<Change>();
+        for(ScheduleEntry entry : newEntries) {
+            int[] count = oldRows.get(new Row(entry));
+            if(count != null && count[0] > 0) {
+                count[0]--;
+            }
+            else {
+                changes.add(new Change(ChangeType.ADDED, entry));
+            }
+        }
+        for(ScheduleEntry entry : oldEntries) {
+            int[] count = oldRows.get(new Row(entry));
+            if(count[0] > 0) {
+                count[0]--;
+                changes.add(new Change(ChangeType.REMOVED, entry));
+            }
+        }
+
+        Set<String> teachers = new TreeSet<String>();
+        Set<String> coordinators = new TreeSet<String>();
+        Set<String> places = new TreeSet<String>();
+        for(Change change : changes) {
+            ScheduleEntry entry = change.getEntry();
+            teachers.addAll(entry.getPersons());
+            if(entry.getOwner() != null && !"".equals(entry.getOwner())) {
+                coordinators.add(entry.getOwner());
+            }
+            places.add(entry.getPlace());
+        }
+
+        //Teachers whose report is turned on or off without any change to their schedule
+        if(oldSchedule.isSkipMarked() != newSchedule.isSkipMarked()) {
+            teachers.addAll(oldSchedule.getTeachers());
+            teachers.addAll(newSchedule.getTeachers());
+        }
+        else {
+            addDifference(teachers, oldSchedule.getMarkedTeachers(), newSchedule.getMarkedTeachers());
+        }
+        addDifference(teachers, oldSchedule.getTeachers(), newSchedule.getTeachers());
+
+        return new ScheduleDiff(changes, teachers, coordinators, places);
+    }
+
+    /**
+     * Adds the names that are in only one of the two lists.
+     */
+    private static void addDifference(Set<String> names, List<String> oldNames, List<String> newNames) {
+        Set<String> oldSet = new HashSet<String>(oldNames);
+        Set<String> newSet = new HashSet<String>(newNames);
+        for(String name : oldSet) {
+            if(!newSet.contains(name)) {
+                names.add(name);
+            }
+        }
+        for(String name : newSet) {
+            if(!oldSet.contains(name)) {
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the removed entries in the order of the old schedule, after the added entries
+     * in the order of the new schedule.
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty() && teachers.isEmpty();
+    }
+
+    /**
+     * Returns the teachers whose schedule or report changed.
+     */
+    public Set<String> getTeachers() {
+        return teachers;
+    }
+
+    /**
+     * Returns the sector co-ordinators of the changed entries.
+     */
+    public Set<String> getCoordinators() {
+        return coordinators;
+    }
+
+    /**
+     * Returns the places of the changed entries as shown in the reports.
+     */
+    public Set<String> getPlaces() {
+        return places;
+    }
+
+    /**
+     * Returns the entries that were added or removed.
+     */
+    public List<ScheduleEntry> getChangedEntries() {
+        List<ScheduleEntry> entries = new ArrayList<ScheduleEntry>(changes.size());
+        for(Change change : changes) {
+            entries.add(change.getEntry());
+        }
+        return entries;
+    }
+
+    public String toString() {
+        return changes.size() + " changed entries, teachers: " + teachers +
+            ", co-ordinators: " + coordinators + ", places: " + places;
+    }
+
+    /**
+     * The fields of an entry that show up in the reports, with their hash computed once.
+     */
+    private static class Row {
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final ScheduleEntry entry;
+        private final List<String> sortedPersons;
+        private final long hash;
+
+        public Row(ScheduleEntry entry) {
+            this.entry = entry;
+            List<String> persons = new ArrayList<String>(entry.getPersons());
+            Collections.sort(persons);
+            this.sortedPersons = persons;
+
+            long h = FNV_OFFSET_BASIS;
+            h = hash(h, entry.getStartDate());
+            h = hash(h, entry.getEndDate());
+            h = hash(h, entry.getPlace());
+            h = hash(h, entry.getActivity());
+            h = hash(h, entry.isGrouped() ? "g" : "");
+            for(String person : persons) {
+                h = hash(h, person);
+            }
+            h = hash(h, entry.getOwner());
+            this.hash = h;
+        }
+
+        /**
+         * FNV-1a over the characters of the value followed by a separator.
+         */
+        private static long hash(long h, String value) {
+            if(value != null) {
+                for(int i = 0; i < value.length(); i++) {
+                    h = (h ^ value.charAt(i)) * FNV_PRIME;
+                }
+            }
+            return (h ^ 0xffff) * FNV_PRIME;
+        }
+
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof Row)) {
+                return false;
+            }
+            Row other = (Row) obj;
+            return hash == other.hash &&
+                entry.getStartDate().equals(other.entry.getStartDate()) &&
+                entry.getEndDate().equals(other.entry.getEndDate()) &&
+                entry.getPlace().equals(other.entry.getPlace()) &&
+                entry.getActivity().equals(other.entry.getActivity()) &&
+                entry.isGrouped() == other.entry.isGrouped() &&
+                sortedPersons.equals(other.sortedPersons) &&
+                (entry.getOwner() == null ? other.entry.getOwner() == null : entry.getOwner().equals(other.entry.getOwner()));
+        }
+    }
+}
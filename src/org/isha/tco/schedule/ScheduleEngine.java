@@ -0,0 +1,1209 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Converts a chart into the consolidated, per-teacher, per-coordinator, per-center and
+ * conflict reports. The spreadsheet libraries are plugged in as a {@link ChartReader}
+ * and a {@link ReportWriter}.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleEngine {
+
+    static final int EXCEL_START_COL = 0;
+    static final int MONTH_YEAR_ROW = 1;
+    static final int DATE_OF_MONTH_ROW = MONTH_YEAR_ROW + 1;
+    static final int TEACHER_START_COL = EXCEL_START_COL + 1;
+    static final int TEACHER_START_ROW = DATE_OF_MONTH_ROW + 1;
+    private static final String CHART_SHEET_NAME = "Chart";
+    private static final String DIFF_OPTION = "--diff";
+
+    /** The sheets of a workbook are converted on threads of their own, and a DateFormat is not thread safe */
+    private static final ThreadLocal<DateFormat> outputDateFormat = new ThreadLocal<DateFormat>() {
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat("dd-MMM-yyyy");
+        }
+    };
+
+    private static final String DEFAULT_QUERY_SERVER_HOST = "127.0.0.1";
+    private static final int DEFAULT_OUTPUT_IO_THREADS = 2;
+    private static final long DEFAULT_OUTPUT_MAX_PENDING_MB = 32;
+    private static final int DEFAULT_SMTP_PORT = 25;
+    private static final int DEFAULT_SMTP_CONNECTIONS = 2;
+    private static final int DEFAULT_SMTP_BATCH_SIZE = 50;
+    private static final int DEFAULT_JDBC_BATCH_SIZE = 1000;
+    private static final int DEFAULT_ARROW_BATCH_SIZE = 65536;
+
+    static interface ConfigKey {
+        static final String DEBUG = "debug";
+        static final String OUTPUT_DIRECTORY = "output_directory";
+        static final String PLACE_OWNER_WORKBOOK_FILENAME = "place_owner_workbook_filename";
+        static final String ACTIVITIES_FOR_GROUPING_TEACHERS = "activities_for_grouping_teachers";
+        static final String QUERY_SERVER_PORT = "query_server_port";
+        static final String QUERY_SERVER_HOST = "query_server_host";
+        static final String REPORT_CUTS = "report_cuts";
+        static final String CHART_SNAPSHOT = "chart_snapshot";
+        static final String PARSED_INPUT_CACHE_MB = "parsed_input_cache_mb";
+        static final String OUTPUT_IO_THREADS = "output_io_threads";
+        static final String OUTPUT_MAX_PENDING_MB = "output_max_pending_mb";
+        static final String ATOMIC_PUBLISH = "atomic_publish";
+        static final String STREAMING_XLSX_READER = "streaming_xlsx_reader";
+        static final String CHART_READER = "chart_reader";
+        static final String REPORT_WRITER = "report_writer";
+        static final String OFF_HEAP_ENTRY_STORE = "off_heap_entry_store";
+        static final String SHARDS = "shards";
+        static final String SHARD_WORKER_JVM_OPTIONS = "shard_worker_jvm_options";
+        static final String ZIP_BUNDLE = "zip_bundle";
+        static final String SMTP_HOST = "smtp_host";
+        static final String SMTP_PORT = "smtp_port";
+        static final String SMTP_FROM = "smtp_from";
+        static final String SMTP_CONNECTIONS = "smtp_connections";
+        static final String SMTP_BATCH_SIZE = "smtp_batch_size";
+        static final String JDBC_URL = "jdbc_url";
+        static final String JDBC_DRIVER = "jdbc_driver";
+        static final String JDBC_USER = "jdbc_user";
+        static final String JDBC_PASSWORD = "jdbc_password";
+        static final String JDBC_BATCH_SIZE = "jdbc_batch_size";
+        static final String PLACE_OWNER_SOURCE = "place_owner_source";
+        static final String PLACE_OWNER_JDBC_URL = "place_owner_jdbc_url";
+        static final String PLACE_OWNER_JDBC_DRIVER = "place_owner_jdbc_driver";
+        static final String PLACE_OWNER_JDBC_USER = "place_owner_jdbc_user";
+        static final String PLACE_OWNER_JDBC_PASSWORD = "place_owner_jdbc_password";
+        static final String PLACE_OWNER_QUERY = "place_owner_query";
+        static final String PLACE_OWNER_ADDRESS_QUERY = "place_owner_address_query";
+        static final String JSON_LINES_EXPORT = "json_lines_export";
+        static final String ARROW_EXPORT = "arrow_export";
+        static final String ARROW_BATCH_SIZE = "arrow_batch_size";
+        static final String CHART_SHEETS = "chart_sheets";
+        static final String CHART_SHEET_PATTERN = "chart_sheet_pattern";
+        static final String CHART_SHEET_THREADS = "chart_sheet_threads";
+    }
+
+    static interface Backend {
+        static final String POI = "poi";
+        static final String JXL = "jxl";
+        /** Writes the .xls records directly. Only for reports. */
+        static final String BIFF = "biff";
+    }
+
+    static interface ReportCut {
+        static final String MONTHLY = "monthly";
+        static final String QUARTERLY = "quarterly";
+        static final String YEARLY = "yearly";
+    }
+
+    static interface ReportFilterType {
+        static final String ALL = "All";
+        static final String TEACHER = "Teacher";
+        static final String SECTOR_COORDINATOR = "SectorCoordinator";
+        static final String CENTER = "Center";
+    }
+
+    static interface OutputSuffix {
+        static final String CONSOLIDATED = "ConsolidatedReport.xls";
+        static final String CONFLICTS = "ConflictReport.xls";
+        static final String DIFF = "DiffReport.xls";
+        static final String BUNDLE = "Reports.zip";
+        static final String JSON_LINES = "Entries.jsonl";
+        static final String ARROW = "Entries.arrow";
+        static final String PER_TEACHER_FILE = ".xls";
+        static final String PER_COORD_FILE = ".xls";
+        static final String PER_CENTER_FILE = ".xls";
+        static final String PER_TEACHER_DIR = File.separator + "teachers" + File.separator;
+        static final String PER_COORD_DIR = File.separator + "coords" + File.separator;
+        static final String PER_CENTER_DIR = File.separator + "centers" + File.separator;
+    }
+
+    static boolean isDebug = false;
+
+    /**
+     * Returns the format of the dates in the reports, to be used on the calling thread only.
+     */
+    static DateFormat getOutputDateFormat() {
+        return outputDateFormat.get();
+    }
+
+    private ChartReader chartReader;
+    private ReportWriter reportWriter;
+    /** The libraries the engine was created with, for the shard workers to start from */
+    private final String defaultChartReader;
+    private final String defaultReportWriter;
+    /** The worker JVMs if the conversion is sharded, null otherwise */
+    private ShardCoordinator shards;
+    /** input to the snapshot last read or taken of it, e.g. of both charts of a diff */
+    private final Map<File, File> snapshotsInUse = new HashMap<File, File>();
+
+    /**
+     * Creates an engine that reads and writes with the given libraries unless
+     * schedule.properties picks others.
+     */
+    public ScheduleEngine(ChartReader chartReader, ReportWriter reportWriter) {
+        this.chartReader = chartReader;
+        this.reportWriter = reportWriter;
+        this.defaultChartReader = chartReader.getClass().getName();
+        this.defaultReportWriter = reportWriter.getClass().getName();
+    }
+
+    /**
+     * Converts the chart named in the arguments as configured in schedule.properties.
+     */
+    public void run(String[] args) throws Exception {
+        ResourceBundle props = ResourceBundle.getBundle("schedule");
+
+        if(args.length == 0 || "--help".equals(args[0])) {
+            usage();
+            return;
+        }
+
+        configure(props);
+        //In diff mode the reports are those of the new chart, and only the ones the changes touch are written.
+        final boolean diffMode = DIFF_OPTION.equals(args[0]);
+        if(diffMode && args.length != 3) {
+            usage();
+            return;
+        }
+        final File oldInputFile = diffMode ? new File(args[1]) : null;
+        final File inputFile = new File(diffMode ? args[2] : args[0]);
+
+        // Process the teacher schedule information and store it in output sheet
+        String outputFolder = "";
+        try {
+            outputFolder = props.getString(ConfigKey.OUTPUT_DIRECTORY);
+        }
+        catch(MissingResourceException mre) {
+            System.out.println("Warn: " + ConfigKey.OUTPUT_DIRECTORY + " key not configured in properties. Defaulting output to current directory");
+        }
+        String prefix = inputFile.getName().substring(0, inputFile.getName().lastIndexOf('.'));
+
+        // With atomic publish, the outputs are written to a folder of their own and made visible at the end.
+        OutputPublisher publisher = null;
+        try {
+            if(Boolean.valueOf(props.getString(ConfigKey.ATOMIC_PUBLISH).trim()).booleanValue()) {
+                if(diffMode) {
+                    //The reports that did not change are left as they are in the output directory.
+                    System.out.println("Warn: " + ConfigKey.ATOMIC_PUBLISH + " does not apply to " + DIFF_OPTION + ". Writing outputs in place.");
+                }
+                else if("".equals(outputFolder.trim())) {
+                    System.out.println("Warn: " + ConfigKey.ATOMIC_PUBLISH + " needs " + ConfigKey.OUTPUT_DIRECTORY + ". Writing outputs in place.");
+                }
+                else {
+                    publisher = new OutputPublisher(outputFolder);
+                }
+            }
+        }
+        catch(MissingResourceException mre) {
+            //Atomic publish is optional.
+        }
+        final String publishedFolder = outputFolder;
+        if(publisher != null) {
+            outputFolder = publisher.stage().getPath();
+        }
+        final String outputFilename = outputFolder + File.separator + prefix + OutputSuffix.CONSOLIDATED;
+
+        // With a zip bundle, the reports are streamed into one archive instead of the output folders.
+        boolean bundling = false;
+        try {
+            bundling = Boolean.valueOf(props.getString(ConfigKey.ZIP_BUNDLE).trim()).booleanValue();
+        }
+        catch(MissingResourceException mre) {
+            //Reports are written as files.
+        }
+        if(bundling) {
+            new File(outputFolder + File.separator).mkdirs();
+        }
+        else {
+            makeOutputDirectories(outputFolder);
+        }
+
+        String scheduleStartDate = "";
+        String scheduleEndDate = "";
+        if(args.length > 1 && !diffMode) {
+            scheduleStartDate = args[1];
+        }
+        if(args.length > 2 && !diffMode) {
+            scheduleEndDate = args[2];
+        }
+
+        // The whole chart is read once. Date windows are cut out of it from the interval index.
+        String snapshotFolder = null;
+        try {
+            if(Boolean.valueOf(props.getString(ConfigKey.CHART_SNAPSHOT).trim()).booleanValue()) {
+                //The snapshot outlives the runs. It is not one of the published outputs.
+                snapshotFolder = publisher != null ? publisher.getRunsFolder().getPath() :
+                    ("".equals(outputFolder) ? "." : outputFolder);
+            }
+        }
+        catch(MissingResourceException mre) {
+            //Snapshots are optional.
+        }
+        // The sheets of a workbook, if configured, are converted side by side as charts of their own.
+        ChartReader.SheetFilter sheetFilter = getSheetFilter(props);
+        if(sheetFilter != null && diffMode) {
+            System.out.println("Warn: " + ConfigKey.CHART_SHEETS + " and " + ConfigKey.CHART_SHEET_PATTERN + 
+                    " do not apply to " + DIFF_OPTION + ". Comparing the " + CHART_SHEET_NAME + " sheets.");
+            sheetFilter = null;
+        }
+        final File bundleFile = bundling ? new File(outputFolder + File.separator + prefix + OutputSuffix.BUNDLE) : null;
+        List<String> prefixes;
+        List<ScheduleEntry> entries = null;
+        if(sheetFilter != null) {
+            prefixes = convertSheets(props, inputFile, sheetFilter, outputFolder, bundleFile, 
+                    scheduleStartDate, scheduleEndDate);
+        }
+        else {
+            prefixes = Collections.singletonList(prefix);
+            startShards(props);
+            try {
+                ScheduleHelper sh = extract(props, inputFile, snapshotFolder);
+
+                // Reports are built on this thread and written out by the pipeline.
+                final ReportOutputPipeline output = createOutputPipeline(props, 
+                        bundleFile != null ? new ZipBundle(bundleFile) : null, new File(outputFolder + File.separator));
+                entries = sh.getEntries();
+
+                loadDatabase(props, prefix, entries);
+
+                if(diffMode) {
+                    ScheduleDiff diff = ScheduleDiff.compute(extract(props, oldInputFile, snapshotFolder), sh);
+                    System.out.println("Changes from " + oldInputFile + " to " + inputFile + ": " + diff);
+                    sh.writeReports(outputFilename, output, diff);
+                    output.close();
+                    return;
+                }
+
+                writeSchedule(props, sh, entries, outputFolder, prefix, output, scheduleStartDate, scheduleEndDate);
+                output.close();
+            }
+            finally {
+                if(shards != null) {
+                    shards.close();
+                    shards = null;
+                }
+            }
+        }
+        if(publisher != null) {
+            publisher.publish(new File(outputFolder));
+            System.out.println("Outputs are available at: " + publishedFolder);
+            //The staged folder may have been moved there.
+            outputFolder = publishedFolder;
+        }
+
+        mailCoordinatorReports(props, outputFolder, prefixes, 
+                bundleFile != null ? new File(outputFolder + File.separator + bundleFile.getName()) : null);
+
+        if(isDebug) System.out.println("Parsed input cache: " + ParsedInputCache.getInstance());
+
+        if(entries != null) {
+            startQueryServer(props, inputFile, snapshotFolder, entries);
+        }
+    }
+
+    /**
+     * Writes the reports and exports of a consolidated schedule, cut to the window of dates if
+     * one is given, and the report cuts.
+     */
+    private void writeSchedule(final ResourceBundle props, final ScheduleHelper sh, final List<ScheduleEntry> entries,
+            final String outputFolder, final String prefix, final ReportOutputPipeline output,
+            final String scheduleStartDate, final String scheduleEndDate) throws Exception {
+        ScheduleIntervalIndex dateIndex = new ScheduleIntervalIndex(entries);
+        ScheduleHelper reported = sh;
+        if(!"".equals(scheduleStartDate) || !"".equals(scheduleEndDate)) {
+            int fromDay = "".equals(scheduleStartDate) ? Integer.MIN_VALUE : ScheduleEntry.toDay(scheduleStartDate);
+            int toDay = "".equals(scheduleEndDate) ? Integer.MAX_VALUE : ScheduleEntry.toDay(scheduleEndDate);
+            reported = sh.window(dateIndex, fromDay, toDay);
+        }
+        writeReports(reported, outputFolder + File.separator + prefix + OutputSuffix.CONSOLIDATED, output);
+        exportEntries(props, reported, outputFolder, prefix);
+
+        writeReportCuts(props, sh, dateIndex, outputFolder, prefix, output);
+    }
+
+    /**
+     * Returns the filter for the sheets to convert as charts, or null to convert the Chart sheet alone.
+     */
+    private static ChartReader.SheetFilter getSheetFilter(final ResourceBundle props) {
+        List<String> names = new ArrayList<String>();
+        Pattern pattern = null;
+        try {
+            for(String name : props.getString(ConfigKey.CHART_SHEETS).split(",")) {
+                if(!"".equals(name.trim())) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        catch(MissingResourceException mre) {
+            //No sheets named.
+        }
+        try {
+            String regex = props.getString(ConfigKey.CHART_SHEET_PATTERN).trim();
+            if(!"".equals(regex)) {
+                pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            }
+        }
+        catch(MissingResourceException mre) {
+            //No pattern.
+        }
+        catch(PatternSyntaxException e) {
+            System.out.println("Warn: Invalid " + ConfigKey.CHART_SHEET_PATTERN + ": " + e.getMessage());
+        }
+        if(names.isEmpty() && pattern == null) {
+            return null;
+        }
+        return new ChartReader.SheetFilter(names, pattern);
+    }
+
+    /**
+     * Converts the sheets of the workbook that the filter accepts as if each were a chart of
+     * its own, with the outputs of a sheet prefixed by its name. The workbook is read once, and
+     * each sheet gets its own dates, merged regions and extraction on a thread of its own.
+     * The reports of all the sheets go through one output pipeline.
+     * <br>
+     * Returns the prefixes of the sheets converted.
+     */
+    private List<String> convertSheets(final ResourceBundle props, final File inputFile, 
+            final ChartReader.SheetFilter filter, final String outputFolder, final File bundleFile,
+            final String scheduleStartDate, final String scheduleEndDate) throws Exception {
+        for(String key : new String[] {ConfigKey.SHARDS, ConfigKey.CHART_SNAPSHOT, ConfigKey.QUERY_SERVER_PORT}) {
+            if(props.containsKey(key)) {
+                System.out.println("Warn: " + key + " is not used when converting the sheets: " + filter);
+            }
+        }
+
+        final Map<String, ChartSheet> sheets = chartReader.read(inputFile, filter);
+        if(sheets.isEmpty()) {
+            throw new IllegalArgumentException("Unable to find the sheets: " + filter + " in " + inputFile);
+        }
+        System.out.println("Converting the sheets: " + sheets.keySet() + " of: " + inputFile);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            threads = Integer.parseInt(props.getString(ConfigKey.CHART_SHEET_THREADS).trim());
+        }
+        catch(MissingResourceException mre) {
+            //One thread per processor.
+        }
+        threads = Math.max(1, Math.min(threads, sheets.size()));
+
+        //The place owners are the same for all the sheets, and are not changed once read.
+        final PlaceOwnerHelper poh = new PlaceOwnerHelper(props, chartReader);
+        final ReportOutputPipeline output = createOutputPipeline(props, 
+                bundleFile != null ? new ZipBundle(bundleFile) : null, new File(outputFolder + File.separator));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<?>> conversions = new LinkedHashMap<String, Future<?>>();
+            for(final Map.Entry<String, ChartSheet> sheet : sheets.entrySet()) {
+                conversions.put(sheet.getKey(), executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        convertSheet(props, sheet.getKey(), sheet.getValue(), poh, outputFolder, output, 
+                                scheduleStartDate, scheduleEndDate);
+                        return null;
+                    }
+                }));
+            }
+
+            //Every sheet is seen through before the first failure is thrown.
+            Exception failure = null;
+            for(Map.Entry<String, Future<?>> conversion : conversions.entrySet()) {
+                try {
+                    conversion.getValue().get();
+                }
+                catch(ExecutionException e) {
+                    System.out.println("Unable to convert the sheet: " + conversion.getKey() + ": " + e.getCause());
+                    e.getCause().printStackTrace();
+                    if(failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if(failure != null) {
+                throw failure;
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        output.close();
+        return new ArrayList<String>(sheets.keySet());
+    }
+
+    private void convertSheet(final ResourceBundle props, final String prefix, final ChartSheet sheet,
+            final PlaceOwnerHelper poh, final String outputFolder, final ReportOutputPipeline output,
+            final String scheduleStartDate, final String scheduleEndDate) throws Exception {
+        DateHelper dh = new DateHelper();
+        dh.processMonths(sheet, MONTH_YEAR_ROW);
+        dh.processDates(sheet, DATE_OF_MONTH_ROW);
+
+        ScheduleHelper sh = new ScheduleHelper(props, dh, poh, reportWriter);
+        sh.extract(sheet, TEACHER_START_ROW, "", "");
+        List<ScheduleEntry> entries = sh.getEntries();
+        System.out.println("Extracted " + entries.size() + " entries from the sheet: " + prefix);
+
+        loadDatabase(props, prefix, entries);
+        writeSchedule(props, sh, entries, outputFolder, prefix, output, scheduleStartDate, scheduleEndDate);
+    }
+
+    /**
+     * Applies the settings of schedule.properties that both the conversion and the shard workers use.
+     */
+    private void configure(final ResourceBundle props) {
+        try {
+            String debugMode = props.getString(ConfigKey.DEBUG);
+            isDebug = Boolean.valueOf(debugMode).booleanValue();
+        }
+        catch(MissingResourceException mre) {
+            //ignore this
+            System.out.println("Warn: debug config key not found in properties.");
+        }
+        chooseBackends(props);
+        try {
+            long cacheBudget = Long.parseLong(props.getString(ConfigKey.PARSED_INPUT_CACHE_MB).trim());
+            ParsedInputCache.getInstance().setBudgetBytes(cacheBudget * 1024 * 1024);
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default budget.
+        }
+    }
+
+    /**
+     * Creates the pipeline to write the reports with, into the given bundle if it is not null.
+     */
+    private static ReportOutputPipeline createOutputPipeline(final ResourceBundle props, 
+            final ZipBundle bundle, final File bundleRoot) {
+        int outputIoThreads = DEFAULT_OUTPUT_IO_THREADS;
+        long outputMaxPendingMB = DEFAULT_OUTPUT_MAX_PENDING_MB;
+        try {
+            outputIoThreads = Integer.parseInt(props.getString(ConfigKey.OUTPUT_IO_THREADS).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+        try {
+            outputMaxPendingMB = Long.parseLong(props.getString(ConfigKey.OUTPUT_MAX_PENDING_MB).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+        return new ReportOutputPipeline(outputIoThreads, outputMaxPendingMB * 1024 * 1024, bundle, bundleRoot);
+    }
+
+    /**
+     * Starts the shard workers if the conversion is configured to be split across more than one JVM.
+     */
+    private void startShards(final ResourceBundle props) throws IOException {
+        int count = 0;
+        try {
+            count = Integer.parseInt(props.getString(ConfigKey.SHARDS).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Not sharded.
+        }
+        if(count <= 1) {
+            return;
+        }
+        String jvmOptions = "";
+        try {
+            jvmOptions = props.getString(ConfigKey.SHARD_WORKER_JVM_OPTIONS);
+        }
+        catch(MissingResourceException mre) {
+            //The workers run with the defaults of the JVM.
+        }
+        shards = new ShardCoordinator(count);
+        shards.start(defaultChartReader, defaultReportWriter, jvmOptions);
+    }
+
+    /**
+     * Writes the reports of the schedule. When sharded, the per entity reports are written by
+     * the workers while the consolidated and conflict reports are written here.
+     */
+    private void writeReports(final ScheduleHelper sh, final String outputFilename,
+            final ReportOutputPipeline output) throws Exception {
+        if(shards == null || output.isBundling()) {
+            //The workers cannot add to the bundle, so a bundle is written here alone.
+            sh.writeReports(outputFilename, output);
+            return;
+        }
+        shards.startReports(sh, outputFilename);
+        sh.writeReports(outputFilename, output, null, ScheduleHelper.ReportShare.SUMMARIES);
+        shards.awaitReports();
+    }
+
+    /**
+     * Serves the coordinator of a sharded conversion till it says to quit.
+     * See {@link ShardCoordinator} for the commands.
+     */
+    void runShardWorker(final int port, final int shard, final int count) throws Exception {
+        ResourceBundle props = ResourceBundle.getBundle("schedule");
+        configure(props);
+
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            out.writeInt(shard);
+            out.flush();
+
+            while(true) {
+                int command;
+                try {
+                    command = in.readInt();
+                }
+                catch(EOFException e) {
+                    //The coordinator is gone.
+                    return;
+                }
+                if(command == ShardCoordinator.Command.QUIT) {
+                    return;
+                }
+                try {
+                    if(command == ShardCoordinator.Command.EXTRACT) {
+                        File inputFile = new File(in.readUTF());
+                        ChartSnapshot parsed = extractShard(props, inputFile, shard, count);
+                        out.writeInt(ShardCoordinator.Reply.EXTRACTED);
+                        ShardCoordinator.writeSnapshot(out, parsed);
+                    }
+                    else if(command == ShardCoordinator.Command.WRITE_REPORTS) {
+                        String outputFilename = in.readUTF();
+                        int maxNumberOfPersons = in.readInt();
+                        List<String> coordinators = ShardCoordinator.readStrings(in);
+                        //Only the entries of the reports of this shard.
+                        ChartSnapshot snapshot = ShardCoordinator.readSnapshot(in);
+                        ReportOutputPipeline output = createOutputPipeline(props, null, null);
+                        restore(props, snapshot).writeReports(outputFilename, output, null,
+                                ScheduleHelper.ReportShare.ofEntities(shard, count, coordinators, maxNumberOfPersons));
+                        output.close();
+                        out.writeInt(ShardCoordinator.Reply.REPORTS_WRITTEN);
+                    }
+                    else {
+                        throw new IllegalArgumentException("Unknown command: " + command);
+                    }
+                }
+                catch(Exception e) {
+                    e.printStackTrace();
+                    out.writeInt(ShardCoordinator.Reply.FAILED);
+                    out.writeUTF(String.valueOf(e));
+                }
+                out.flush();
+            }
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads the Chart sheet of the given workbook and consolidates the schedule of the
+     * given shard of the teacher rows.
+     */
+    private ChartSnapshot extractShard(final ResourceBundle props, final File inputFile,
+            final int shard, final int count) throws Exception {
+        ChartSheet sheet = readChart(inputFile);
+        DateHelper dh = new DateHelper();
+        dh.processMonths(sheet, MONTH_YEAR_ROW);
+        dh.processDates(sheet, DATE_OF_MONTH_ROW);
+
+        int[] rows = ShardCoordinator.getRowRange(TEACHER_START_ROW, sheet.getLastRowNum(), shard, count);
+        System.out.println("Extracting teacher rows " + rows[0] + " till " + rows[1] + " of: " + inputFile);
+        ScheduleHelper sh = new ScheduleHelper(props, dh, new PlaceOwnerHelper(props, chartReader), reportWriter);
+        sh.extract(sheet, rows[0], rows[1], "", "");
+        return sh.toSnapshot();
+    }
+
+    /**
+     * Writes the entries of the consolidated report in the formats configured for other tools.
+     */
+    private static void exportEntries(final ResourceBundle props, final ScheduleHelper sh,
+            final String outputFolder, final String prefix) throws IOException {
+        boolean jsonLines = false;
+        try {
+            jsonLines = Boolean.valueOf(props.getString(ConfigKey.JSON_LINES_EXPORT).trim()).booleanValue();
+        }
+        catch(MissingResourceException mre) {
+            //Exports are optional.
+        }
+        if(jsonLines) {
+            File jsonLinesFile = new File(outputFolder + File.separator + prefix + OutputSuffix.JSON_LINES);
+            ScheduleJsonLinesWriter writer = new ScheduleJsonLinesWriter(jsonLinesFile);
+            try {
+                sh.writeEntries(writer);
+            }
+            finally {
+                writer.close();
+            }
+            System.out.println("Wrote " + writer.getLines() + " entries to file: " + jsonLinesFile);
+        }
+
+        boolean arrow = false;
+        int batchSize = DEFAULT_ARROW_BATCH_SIZE;
+        try {
+            arrow = Boolean.valueOf(props.getString(ConfigKey.ARROW_EXPORT).trim()).booleanValue();
+        }
+        catch(MissingResourceException mre) {
+            //Exports are optional.
+        }
+        try {
+            batchSize = Integer.parseInt(props.getString(ConfigKey.ARROW_BATCH_SIZE).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+        if(arrow) {
+            File arrowFile = new File(outputFolder + File.separator + prefix + OutputSuffix.ARROW);
+            ScheduleArrowWriter writer = new ScheduleArrowWriter(arrowFile, batchSize);
+            try {
+                writer.write(sh);
+            }
+            finally {
+                writer.close();
+            }
+            System.out.println("Wrote " + writer.getRows() + " entries in " + writer.getBatches() + 
+                    " record batches to file: " + arrowFile);
+        }
+    }
+
+    /**
+     * Loads the whole consolidated schedule of the chart into the database, if one is configured.
+     */
+    private static void loadDatabase(final ResourceBundle props, final String chart, 
+            final List<ScheduleEntry> entries) throws Exception {
+        String url = "";
+        try {
+            url = props.getString(ConfigKey.JDBC_URL).trim();
+        }
+        catch(MissingResourceException mre) {
+            //The database is optional.
+        }
+        if("".equals(url)) {
+            return;
+        }
+        String driver = null;
+        String user = null;
+        String password = null;
+        int batchSize = DEFAULT_JDBC_BATCH_SIZE;
+        try {
+            driver = props.getString(ConfigKey.JDBC_DRIVER).trim();
+        }
+        catch(MissingResourceException mre) {
+            //The driver registers itself.
+        }
+        try {
+            user = props.getString(ConfigKey.JDBC_USER).trim();
+            password = props.getString(ConfigKey.JDBC_PASSWORD);
+        }
+        catch(MissingResourceException mre) {
+            //An embedded database needs no login.
+        }
+        try {
+            batchSize = Integer.parseInt(props.getString(ConfigKey.JDBC_BATCH_SIZE).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+
+        long start = System.currentTimeMillis();
+        //The sheets of a workbook are loaded one after the other, as embedded databases take one writer at a time.
+        synchronized(ScheduleDatabase.class) {
+            new ScheduleDatabase(driver, url, user, password, batchSize).load(chart, entries);
+        }
+        System.out.println("Loaded " + entries.size() + " entries of chart: " + chart + " into the database" +
+                " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Mails each sector co-ordinator with an address their per-coordinator report of each of the
+     * charts with the given prefixes, if an SMTP host is configured. The reports are taken from
+     * the output folder or from the zip bundle if one is given.
+     */
+    private void mailCoordinatorReports(final ResourceBundle props, final String outputFolder, 
+            final List<String> prefixes, final File bundleFile) throws IOException {
+        String host = "";
+        try {
+            host = props.getString(ConfigKey.SMTP_HOST).trim();
+        }
+        catch(MissingResourceException mre) {
+            //Mailing is optional.
+        }
+        if("".equals(host)) {
+            return;
+        }
+        int port = DEFAULT_SMTP_PORT;
+        int connections = DEFAULT_SMTP_CONNECTIONS;
+        int batchSize = DEFAULT_SMTP_BATCH_SIZE;
+        String from = "";
+        try {
+            port = Integer.parseInt(props.getString(ConfigKey.SMTP_PORT).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+        try {
+            connections = Integer.parseInt(props.getString(ConfigKey.SMTP_CONNECTIONS).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+        try {
+            batchSize = Integer.parseInt(props.getString(ConfigKey.SMTP_BATCH_SIZE).trim());
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default.
+        }
+        try {
+            from = props.getString(ConfigKey.SMTP_FROM).trim();
+        }
+        catch(MissingResourceException mre) {
+            System.out.println("Warn: " + ConfigKey.SMTP_FROM + " key not configured in properties. Not mailing the reports.");
+            return;
+        }
+        PlaceOwnerSource placeOwnerSource = PlaceOwnerHelper.createSource(props, chartReader);
+        if(placeOwnerSource == null) {
+            System.out.println("Warn: No place owners configured to read the co-ordinator addresses from. Not mailing the reports.");
+            return;
+        }
+        Map<String, String> addresses;
+        try {
+            addresses = placeOwnerSource.loadAddresses();
+        }
+        catch(Exception e) {
+            System.out.println("Warn: Unable to read the co-ordinator addresses: " + e + ". Not mailing the reports.");
+            return;
+        }
+        if(isDebug) System.out.println("Co-ordinator addresses: " + addresses);
+
+        ZipFile bundle = bundleFile != null ? new ZipFile(bundleFile) : null;
+        List<CoordinatorMailer.Mail> mails = new ArrayList<CoordinatorMailer.Mail>();
+        try {
+            for(String prefix : prefixes) {
+                for(Map.Entry<String, String> address : addresses.entrySet()) {
+                    final String coordinator = address.getKey();
+                    final String reportName = prefix + "-" + coordinator + OutputSuffix.PER_COORD_FILE;
+                    byte[] report = bundle != null ? 
+                            readEntry(bundle, OutputSuffix.PER_COORD_DIR.replace(File.separatorChar, '/').substring(1) + reportName) :
+                            readFile(new File(outputFolder + OutputSuffix.PER_COORD_DIR + reportName));
+                    if(report == null) {
+                        if(isDebug) System.out.println("No report " + prefix + " to mail to co-ordinator: " + coordinator);
+                        continue;
+                    }
+                    mails.add(new CoordinatorMailer.Mail(coordinator, address.getValue(), 
+                            "Schedule " + prefix + " for " + coordinator, reportName, report));
+                }
+            }
+        }
+        finally {
+            if(bundle != null) {
+                bundle.close();
+            }
+        }
+
+        System.out.println("Mailing " + mails.size() + " co-ordinator reports through: " + host + ":" + port);
+        List<CoordinatorMailer.Mail> failed = 
+            new CoordinatorMailer(host, port, from, connections, batchSize).send(mails);
+        if(!failed.isEmpty()) {
+            System.out.println("Warn: Unable to mail the reports of: " + failed);
+        }
+    }
+
+    /**
+     * Returns the contents of the file, or null if there is no such file.
+     */
+    private static byte[] readFile(final File file) throws IOException {
+        if(!file.isFile()) {
+            return null;
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            return readFully(in, file.length());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the contents of the entry, or null if there is no such entry.
+     */
+    private static byte[] readEntry(final ZipFile zip, final String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if(entry == null) {
+            return null;
+        }
+        InputStream in = zip.getInputStream(entry);
+        try {
+            return readFully(in, entry.getSize());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFully(final InputStream in, final long size) throws IOException {
+        byte[] bytes = new byte[(int) size];
+        int read = 0;
+        while(read < bytes.length) {
+            int count = in.read(bytes, read, bytes.length - read);
+            if(count == -1) {
+                throw new EOFException("Expected " + size + " bytes, found " + read);
+            }
+            read += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the reports again for every month, quarter or year of the chart as configured by
+     * report_cuts. Reports of a period go under &lt;output_directory>/&lt;cut>/&lt;period>.
+     */
+    private void writeReportCuts(final ResourceBundle props, final ScheduleHelper sh,
+            final ScheduleIntervalIndex dateIndex, final String outputFolder, final String prefix,
+            final ReportOutputPipeline output)
+    throws Exception {
+        String cuts = "";
+        try {
+            cuts = props.getString(ConfigKey.REPORT_CUTS);
+        }
+        catch(MissingResourceException mre) {
+            //Report cuts are optional.
+        }
+        if(dateIndex.size() == 0) {
+            return;
+        }
+
+        for(String cut : cuts.split(",")) {
+            cut = cut.trim().toLowerCase();
+            if("".equals(cut)) {
+                continue;
+            }
+            Map<String, int[]> periods = getPeriods(cut, dateIndex.getFirstDay(), dateIndex.getLastDay());
+            if(periods == null) {
+                System.out.println("Warn: Unknown report cut: " + cut + ". Expected one of " + 
+                        ReportCut.MONTHLY + ", " + ReportCut.QUARTERLY + ", " + ReportCut.YEARLY);
+                continue;
+            }
+            for(Map.Entry<String, int[]> period : periods.entrySet()) {
+                String cutFolder = outputFolder + File.separator + cut + File.separator + period.getKey();
+                if(!output.isBundling()) {
+                    makeOutputDirectories(cutFolder);
+                }
+
+                System.out.println("Writting " + cut + " reports for: " + period.getKey() + " to folder: " + cutFolder);
+                int[] fromToDays = period.getValue();
+                writeReports(sh.window(dateIndex, fromToDays[0], fromToDays[1]), 
+                        cutFolder + File.separator + prefix + OutputSuffix.CONSOLIDATED, output);
+            }
+        }
+    }
+
+    /**
+     * Splits the days between firstDay and lastDay into calendar months, quarters or years.
+     * <br>
+     * Returns a map from the name of each period to its first and last day, 
+     * or null if the cut is not known.
+     */
+    private static Map<String, int[]> getPeriods(final String cut, final int firstDay, final int lastDay) {
+        int monthsPerPeriod;
+        if(ReportCut.MONTHLY.equals(cut)) {
+            monthsPerPeriod = 1;
+        }
+        else if(ReportCut.QUARTERLY.equals(cut)) {
+            monthsPerPeriod = 3;
+        }
+        else if(ReportCut.YEARLY.equals(cut)) {
+            monthsPerPeriod = 12;
+        }
+        else {
+            return null;
+        }
+
+        DateFormat monthFormat = new SimpleDateFormat("MMM-yy");
+        DateFormat yearFormat = new SimpleDateFormat("yyyy");
+        Calendar calendar = ScheduleEntry.toCalendar(firstDay);
+        monthFormat.setTimeZone(calendar.getTimeZone());
+        yearFormat.setTimeZone(calendar.getTimeZone());
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.MONTH, calendar.get(Calendar.MONTH) - calendar.get(Calendar.MONTH) % monthsPerPeriod);
+
+        Map<String, int[]> periods = new LinkedHashMap<String, int[]>();
+        while(ScheduleEntry.toDay(calendar) <= lastDay) {
+            String name;
+            if(monthsPerPeriod == 1) {
+                name = monthFormat.format(calendar.getTime());
+            }
+            else if(monthsPerPeriod == 3) {
+                name = "Q" + (calendar.get(Calendar.MONTH) / 3 + 1) + "-" + yearFormat.format(calendar.getTime());
+            }
+            else {
+                name = yearFormat.format(calendar.getTime());
+            }
+            int fromDay = ScheduleEntry.toDay(calendar);
+            calendar.add(Calendar.MONTH, monthsPerPeriod);
+            periods.put(name, new int[] { fromDay, ScheduleEntry.toDay(calendar) - 1 });
+        }
+        return periods;
+    }
+
+    /**
+     * Reads the Chart sheet of the given workbook and consolidates the schedule in it.
+     * <p>
+     * If a snapshot folder is given, the chart is restored from the snapshot of this input
+     * when there is one, and a snapshot is taken after reading the workbook otherwise.
+     */
+    private ScheduleHelper extract(final ResourceBundle props, final File inputFile, 
+            final String snapshotFolder) throws Exception {
+        final String scheduleStartDate = "";
+        final String scheduleEndDate = "";
+
+        final ParsedInputCache cache = ParsedInputCache.getInstance();
+        ChartSnapshot cached = (ChartSnapshot) cache.get(ParsedInputCache.Kind.CHART, inputFile);
+        if(cached != null) {
+            System.out.println("Using the already parsed chart: " + inputFile);
+            return restore(props, cached);
+        }
+
+        final String prefix = inputFile.getName().substring(0, inputFile.getName().lastIndexOf('.'));
+        File snapshotFile = null;
+        if(snapshotFolder != null) {
+            snapshotFile = ChartSnapshot.getSnapshotFile(snapshotFolder, prefix, inputFile);
+            ChartSnapshot snapshot = null;
+            if(snapshotFile.exists()) {
+                try {
+                    snapshot = ChartSnapshot.read(snapshotFile);
+                }
+                catch(IOException e) {
+                    System.out.println("Warn: Unable to read snapshot: " + snapshotFile + ". Reading the chart instead.");
+                    e.printStackTrace();
+                }
+                catch(RuntimeException e) {
+                    //A damaged snapshot is only a cache. The chart is still there.
+                    System.out.println("Warn: Unable to read snapshot: " + snapshotFile + ". Reading the chart instead.");
+                    e.printStackTrace();
+                }
+            }
+            if(snapshot != null && !snapshot.getSettingsHash().equals(ScheduleHelper.getExtractionSettingsHash(props))) {
+                //Its entries were grouped with other activities than those configured now.
+                System.out.println("Warn: Snapshot was taken with other settings: " + snapshotFile + ". Reading the chart instead.");
+                snapshot = null;
+            }
+            if(snapshot != null) {
+                System.out.println("Reading the chart from snapshot: " + snapshotFile);
+                snapshotsInUse.put(inputFile.getAbsoluteFile(), snapshotFile.getAbsoluteFile());
+                ScheduleHelper restored = restore(props, snapshot);
+                if(!restored.usesEntryStore()) {
+                    cache.put(ParsedInputCache.Kind.CHART, inputFile, snapshot, snapshot.estimateSize());
+                }
+                return restored;
+            }
+        }
+
+        ScheduleHelper sh;
+        if(shards != null) {
+            //Each worker reads the chart and extracts its range of teachers.
+            List<ChartSnapshot> parts = shards.extract(inputFile);
+            DateHelper dh = new DateHelper(parts.get(0).getDateMap(), parts.get(0).getMonthMap());
+            sh = new ScheduleHelper(props, dh, new PlaceOwnerHelper(props, chartReader), reportWriter);
+            sh.merge(parts);
+        }
+        else {
+            ChartSheet sheet = readChart(inputFile);
+
+            DateHelper dh = new DateHelper();
+            //Process the months
+            dh.processMonths(sheet, MONTH_YEAR_ROW);
+            //Process the dates
+            dh.processDates(sheet, DATE_OF_MONTH_ROW);
+
+            PlaceOwnerHelper poh = new PlaceOwnerHelper(props, chartReader);
+
+            sh = new ScheduleHelper(props, dh, poh, reportWriter);
+            sh.extract(sheet, TEACHER_START_ROW, scheduleStartDate, scheduleEndDate);
+        }
+
+        //Entries held off the heap are not copied back onto it to be cached;
+        //the snapshot then reads them off the store as it is written.
+        ChartSnapshot parsed = sh.toSnapshot();
+        if(!sh.usesEntryStore()) {
+            cache.put(ParsedInputCache.Kind.CHART, inputFile, parsed, parsed.estimateSize());
+        }
+        if(snapshotFile != null) {
+            try {
+                parsed.write(snapshotFile);
+                //The old chart of a diff may have the same name, so its snapshot has to be kept as well.
+                snapshotsInUse.put(inputFile.getAbsoluteFile(), snapshotFile.getAbsoluteFile());
+                ChartSnapshot.removeStaleSnapshots(snapshotFile, prefix, snapshotsInUse.values());
+                if(isDebug) System.out.println("Wrote snapshot: " + snapshotFile);
+            }
+            catch(IOException e) {
+                System.out.println("Warn: Unable to write snapshot: " + snapshotFile);
+                e.printStackTrace();
+            }
+        }
+        return sh;
+    }
+
+    private ChartSheet readChart(final File inputFile) throws Exception {
+        ChartSheet sheet = chartReader.read(inputFile, CHART_SHEET_NAME);
+        if(sheet == null) {
+            throw new IllegalArgumentException("Unable to find the sheet: " + CHART_SHEET_NAME + " in " + inputFile);
+        }
+        return sheet;
+    }
+
+    /**
+     * Picks the libraries to read the inputs and to write the reports with, if configured.
+     * An .xlsx workbook is streamed unless that is turned off.
+     */
+    private void chooseBackends(final ResourceBundle props) {
+        try {
+            String reader = props.getString(ConfigKey.CHART_READER).trim();
+            if(Backend.POI.equalsIgnoreCase(reader)) {
+                chartReader = new PoiChartReader();
+            }
+            else if(Backend.JXL.equalsIgnoreCase(reader)) {
+                chartReader = new JxlChartReader();
+            }
+            else if(!"".equals(reader)) {
+                System.out.println("Warn: Unknown " + ConfigKey.CHART_READER + ": " + reader + ". Expected one of " +
+                        Backend.POI + ", " + Backend.JXL);
+            }
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default reader.
+        }
+        try {
+            String writer = props.getString(ConfigKey.REPORT_WRITER).trim();
+            if(Backend.POI.equalsIgnoreCase(writer)) {
+                reportWriter = new PoiReportWriter();
+            }
+            else if(Backend.JXL.equalsIgnoreCase(writer)) {
+                reportWriter = new JxlReportWriter();
+            }
+            else if(Backend.BIFF.equalsIgnoreCase(writer)) {
+                reportWriter = new BiffReportWriter();
+            }
+            else if(!"".equals(writer)) {
+                System.out.println("Warn: Unknown " + ConfigKey.REPORT_WRITER + ": " + writer + ". Expected one of " +
+                        Backend.POI + ", " + Backend.JXL + ", " + Backend.BIFF);
+            }
+        }
+        catch(MissingResourceException mre) {
+            //Keep the default writer.
+        }
+
+        boolean streaming = true;
+        try {
+            streaming = Boolean.valueOf(props.getString(ConfigKey.STREAMING_XLSX_READER).trim()).booleanValue();
+        }
+        catch(MissingResourceException mre) {
+            //Defaults to streaming.
+        }
+        if(streaming) {
+            chartReader = new XlsxChartReader(chartReader);
+        }
+        if(isDebug) System.out.println("Reading with: " + chartReader.getClass().getSimpleName() + 
+                ", writing with: " + reportWriter.getClass().getSimpleName());
+    }
+
+    private ScheduleHelper restore(final ResourceBundle props, final ChartSnapshot snapshot) {
+        DateHelper dh = new DateHelper(snapshot.getDateMap(), snapshot.getMonthMap());
+        ScheduleHelper sh = new ScheduleHelper(props, dh, new PlaceOwnerHelper(props, chartReader), reportWriter);
+        sh.restore(snapshot);
+        return sh;
+    }
+
+    /**
+     * Serves queries over the consolidated schedule if a port is configured.
+     * The server keeps the JVM running and reloads the schedule when the inputs change.
+     */
+    private void startQueryServer(final ResourceBundle props, final File inputFile, 
+            final String snapshotFolder, final List<ScheduleEntry> entries)
+    throws IOException {
+        String port = "";
+        try {
+            port = props.getString(ConfigKey.QUERY_SERVER_PORT).trim();
+        }
+        catch(MissingResourceException mre) {
+            //Query server is optional.
+        }
+        if("".equals(port)) {
+            return;
+        }
+        String host = DEFAULT_QUERY_SERVER_HOST;
+        try {
+            host = props.getString(ConfigKey.QUERY_SERVER_HOST).trim();
+        }
+        catch(MissingResourceException mre) {
+            //Loopback only.
+        }
+        if("".equals(host)) {
+            host = DEFAULT_QUERY_SERVER_HOST;
+        }
+
+        List<File> watchedFiles = new ArrayList<File>();
+        watchedFiles.add(inputFile);
+        try {
+            String placeOwnerFilename = props.getString(ConfigKey.PLACE_OWNER_WORKBOOK_FILENAME);
+            if(!"".equals(placeOwnerFilename)) {
+                watchedFiles.add(new File(placeOwnerFilename));
+            }
+        }
+        catch(MissingResourceException mre) {
+            //Nothing else to watch.
+        }
+
+        ScheduleQueryServer.Loader loader = new ScheduleQueryServer.Loader() {
+            public List<ScheduleEntry> load() throws Exception {
+                return extract(props, inputFile, snapshotFolder).getEntries();
+            }
+        };
+        new ScheduleQueryServer(loader, entries, watchedFiles.toArray(new File[watchedFiles.size()]))
+            .start(host, Integer.parseInt(port));
+    }
+
+    private static void makeOutputDirectories(String outputFolder) {
+        new File(outputFolder + OutputSuffix.PER_COORD_DIR).mkdirs();
+        new File(outputFolder + OutputSuffix.PER_TEACHER_DIR).mkdirs();
+        new File(outputFolder + OutputSuffix.PER_CENTER_DIR).mkdirs();
+    }
+
+    private static void usage() {
+        System.out.println("create_schedule.bat <input worksheet name> [<schedule-start-date> [<schedule-end-date]]");
+        System.out.println("schedule-start-date and schedule-end-date are expected to be in this format: dd/MMM/YYYY");
+        System.out.println("create_schedule.bat " + DIFF_OPTION + " <old input worksheet name> <new input worksheet name>");
+        System.out.println("Writes the changes between the two charts and only the reports of the new chart they touch.");
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * One row of the consolidated schedule: a place-activity between two dates
+ * along with the teachers taking it and the owner of the place.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleEntry {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final SimpleDateFormat SCHEDULE_DATE_FORMAT = new SimpleDateFormat("dd/MMM/yy");
+
+    /** dd/MMM/yy as produced by the DateHelper */
+    private final String startDate;
+    private final String endDate;
+    /** Days since epoch for the start and end dates, used for ordering and range lookups */
+    private final int startDay;
+    private final int endDay;
+    /** The place as written in the chart, which the entries are consolidated by */
+    private final String chartPlace;
+    /** center / sector as displayed in the reports */
+    private final String place;
+    private final String center;
+    private final String sector;
+    /** Trimmed, lower case place, center and sector for matching */
+    private final String placeKey;
+    private final String centerKey;
+    private final String sectorKey;
+    private final String activity;
+    /** false if the activity is held by the teacher alone even if others take it on the same dates */
+    private final boolean grouped;
+    private final List<String> persons;
+    private final String owner;
+
+    public ScheduleEntry(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+            String activity, boolean grouped, List<String> persons, String owner) {
+        this(startDate, endDate, toDay(startDate), toDay(endDate), chartPlace, place, center, sector, 
+                place.trim().toLowerCase(), center.trim().toLowerCase(), sector.trim().toLowerCase(), 
+                activity, grouped, persons, owner);
+    }
+
+    /**
+     * Creates an entry from fields that are already worked out, as kept by the {@link OffHeapEntryStore}.
+     */
+    ScheduleEntry(String startDate, String endDate, int startDay, int endDay, 
+            String chartPlace, String place, String center, String sector, String placeKey, String centerKey, String sectorKey,
+            String activity, boolean grouped, List<String> persons, String owner) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.startDay = startDay;
+        this.endDay = endDay;
+        this.chartPlace = chartPlace;
+        this.place = place;
+        this.center = center;
+        this.sector = sector;
+        this.placeKey = placeKey;
+        this.centerKey = centerKey;
+        this.sectorKey = sectorKey;
+        this.activity = activity;
+        this.grouped = grouped;
+        this.persons = Collections.unmodifiableList(persons);
+        this.owner = owner;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public int getStartDay() {
+        return startDay;
+    }
+
+    public int getEndDay() {
+        return endDay;
+    }
+
+    public String getChartPlace() {
+        return chartPlace;
+    }
+
+    public String getPlace() {
+        return place;
+    }
+
+    public String getCenter() {
+        return center;
+    }
+
+    public String getSector() {
+        return sector;
+    }
+
+    public String getPlaceKey() {
+        return placeKey;
+    }
+
+    public String getCenterKey() {
+        return centerKey;
+    }
+
+    public String getSectorKey() {
+        return sectorKey;
+    }
+
+    public String getActivity() {
+        return activity;
+    }
+
+    public boolean isGrouped() {
+        return grouped;
+    }
+
+    public List<String> getPersons() {
+        return persons;
+    }
+
+    /**
+     * Returns the sector co-ordinator for this entry or null if none is known.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Converts a date in dd/MMM/yy (or dd/MMM/yyyy) format to the number of days since epoch.
+     * <br>
+     * Throws IllegalArgumentException if the date cannot be parsed.
+     */
+    public static int toDay(String date) {
+        Date parsed;
+        try {
+            synchronized(SCHEDULE_DATE_FORMAT) {
+                parsed = SCHEDULE_DATE_FORMAT.parse(date.trim());
+            }
+        } catch(ParseException e) {
+            throw new IllegalArgumentException("Illegal date: " + date + ". Should be in dd/MMM/yy", e);
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(parsed);
+        long localMillis = parsed.getTime() + calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
+        return (int) (localMillis / MILLIS_PER_DAY);
+    }
+
+    /**
+     * Returns the number of days since epoch for the date set in a calendar from {@link #toCalendar(int)}.
+     */
+    public static int toDay(Calendar calendar) {
+        return (int) (calendar.getTimeInMillis() / MILLIS_PER_DAY);
+    }
+
+    /**
+     * Returns a UTC calendar set to the given number of days since epoch.
+     */
+    public static Calendar toCalendar(int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.setTimeInMillis(day * MILLIS_PER_DAY);
+        return calendar;
+    }
+
+    public String toString() {
+        return "[" + startDate + " - " + endDate + ", " + place + ", " + activity + ", " + persons + ", " + owner + "]";
+    }
+}
@@ -0,0 +1,1373 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consolidates the schedule of the teachers in the chart and writes the reports over it.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleHelper {
+    private static final String PLACE_ACTIVITY_SEPARATOR = "-";
+    private static final String CENTER_SECTOR_SEPARATOR = "/";
+    private static final int EXCEL_OUTPUT_START_ROW = 0;
+    private static final int EXCEL_OUTPUT_START_COL = 0;
+    private DateHelper dateHelper;
+    private PlaceOwnerHelper placeOwnerHelper;
+    private final ReportWriter reportWriter;
+    private final Set<String> activitiesMarkedForGrouping;
+    /** top-left, bottom-right to the contents in the merged cells */
+    private final Map<CellInfo, Map<CellInfo, String>> mergedCellsMap = new HashMap<CellInfo, Map<CellInfo,String>>(); 
+    private int maxNumberOfPersons;
+    /** teacher to the number of teachers in the largest entry they take, worked out once consolidated */
+    private final Map<String, Integer> teacherToLargestGroupSize = new HashMap<String, Integer>();
+    /** Where the reports are handed over to be written */
+    private ReportOutputPipeline output;
+    /** activity to whether it is grouped across teachers */
+    private final Map<String, Boolean> groupingDecisions = new HashMap<String, Boolean>();
+    /** Whether the entries are consolidated off the heap instead of in the maps */
+    private boolean useEntryStore;
+    /** Where the entries are consolidated off the heap, null till the first one and once they are complete */
+    private OffHeapEntryStore.Builder storeBuilder;
+    /** The consolidated entries held off the heap, null till they are complete */
+    private OffHeapEntryStore entryStore;
+    /** place as written in the chart to how it is displayed and who owns it */
+    private final Map<String, PlaceDetails> placeDetails = new HashMap<String, PlaceDetails>();
+
+    public ScheduleHelper(ResourceBundle props, DateHelper dh, PlaceOwnerHelper poh, ReportWriter reportWriter) {
+        this(dh, poh, reportWriter, new HashSet<String>());
+        try {
+            activitiesMarkedForGrouping.addAll(toActivities(
+                    props.getString(ScheduleEngine.ConfigKey.ACTIVITIES_FOR_GROUPING_TEACHERS)));
+        }
+        catch(MissingResourceException mre) {
+            mre.printStackTrace();
+        }
+        System.out.println("Activities marked for grouping set to: " + activitiesMarkedForGrouping);
+        try {
+            useEntryStore = Boolean.valueOf(props.getString(ScheduleEngine.ConfigKey.OFF_HEAP_ENTRY_STORE).trim()).booleanValue();
+        }
+        catch(MissingResourceException mre) {
+            //Entries stay on the heap.
+        }
+    }
+
+    private ScheduleHelper(DateHelper dh, PlaceOwnerHelper poh, ReportWriter reportWriter, 
+            Set<String> activitiesMarkedForGrouping) {
+        dateHelper = dh;
+        placeOwnerHelper = poh;
+        this.reportWriter = reportWriter;
+        this.activitiesMarkedForGrouping = activitiesMarkedForGrouping;
+    }
+
+    private static Set<String> toActivities(final String activitiesForGrouping) {
+        Set<String> activities = new HashSet<String>();
+        for(String activity : activitiesForGrouping.split(",")) {
+            activities.add(activity.toLowerCase().trim());
+        }
+        return activities;
+    }
+
+    /**
+     * Returns the hash of the settings the consolidated entries depend on besides the chart,
+     * i.e. the activities grouped across teachers. A snapshot taken with other settings holds
+     * entries grouped otherwise and is not to be restored.
+     */
+    static String getExtractionSettingsHash(final ResourceBundle props) {
+        Set<String> activities = new HashSet<String>();
+        try {
+            activities = toActivities(props.getString(ScheduleEngine.ConfigKey.ACTIVITIES_FOR_GROUPING_TEACHERS));
+        }
+        catch(MissingResourceException mre) {
+            //Nothing is grouped.
+        }
+        return getExtractionSettingsHash(activities);
+    }
+
+    private static String getExtractionSettingsHash(final Set<String> activitiesMarkedForGrouping) {
+        return ChartSnapshot.hashOf(ScheduleEngine.ConfigKey.ACTIVITIES_FOR_GROUPING_TEACHERS + "=" +
+                new TreeSet<String>(activitiesMarkedForGrouping));
+    }
+
+    final SimpleDateFormat scheduleDateFormat = new SimpleDateFormat("dd/MMM/yy");
+    final Comparator<String> scheduleDateComparator = new Comparator<String>() {
+        public int compare(String startDate1, String startDate2) {
+            if(startDate1.equals(startDate2))
+                return 0;
+            Date start1 = null;
+            try {
+                start1 = scheduleDateFormat.parse(startDate1);
+            } catch(ParseException e) {
+                e.printStackTrace();
+            }
+            Date start2 = null;
+            try {
+                start2 = scheduleDateFormat.parse(startDate2);
+            } catch(ParseException e) {
+                e.printStackTrace();
+            }
+            
+            return start1 == null ? 0 : start1.compareTo(start2);
+        }
+    };
+
+    private final Map<String, Map<String, Map<String, Map<ActivityKey, List<String>>>>> startEndPlaceActivityPersonMap = 
+        new TreeMap<String, Map<String,Map<String, Map<ActivityKey, List<String>>>>>(scheduleDateComparator);
+    private final List<String> teachers = new ArrayList<String>();
+    private final List<String> markedTeachers = new ArrayList<String>();
+    private boolean skipMarked;
+
+    /**
+     * Reads the schedule of each teacher from the input sheet and consolidates it.
+     */
+    public void extract(final ChartSheet inputSheet, final int startRow, 
+            final String scheduleStartDate, final String scheduleEndDate) {
+        extract(inputSheet, startRow, inputSheet.getLastRowNum(), scheduleStartDate, scheduleEndDate);
+    }
+
+    /**
+     * Reads the schedule of only the teachers on the rows from startRow till endRow, exclusive, 
+     * and consolidates it. The schedule of a teacher is on the row below the teacher, so it is read
+     * even if that row is endRow.
+     */
+    public void extract(final ChartSheet inputSheet, final int startRow, final int endRow, 
+            final String scheduleStartDate, final String scheduleEndDate) {
+
+        fillUpMergedCells(inputSheet, scheduleStartDate, scheduleEndDate);
+
+        String generateOrSkip = inputSheet.getStringCellValue(ScheduleEngine.DATE_OF_MONTH_ROW, ScheduleEngine.EXCEL_START_COL).trim();
+        skipMarked = "".equals(generateOrSkip) || "skip".equalsIgnoreCase(generateOrSkip);
+
+        System.out.println("Processing mode: " + (skipMarked ? "Skip marked" : "Generate marked"));
+
+        for(int row = startRow; row < endRow; row++) {
+            String cellValue = inputSheet.getStringCellValue(row, ScheduleEngine.TEACHER_START_COL);
+            String teacher = cellValue == null ? "" : cellValue.trim();
+
+            if("".equals(teacher)) {
+                //Nothing to do. Find the next teacher.
+                continue;
+            }
+            String markValue = inputSheet.getStringCellValue(row, ScheduleEngine.EXCEL_START_COL);
+            if(markValue == null) continue;
+            String mark = markValue.toLowerCase().trim();
+            if(mark.contains("x")) {
+                markedTeachers.add(teacher);
+            }
+
+            teachers.add(teacher);
+            //Fill up the map of place-activity to start, end dates for this teacher.
+            //Schedules for teacher start from the second row (hence row + 1)
+            fillUpPlaceActivityMap(startEndPlaceActivityPersonMap, teacher, inputSheet, 
+                    row + 1, scheduleStartDate, scheduleEndDate);
+        }
+
+        if(ScheduleEngine.isDebug && !useEntryStore) System.out.println("Consolidated schedule: " + startEndPlaceActivityPersonMap);
+        completeConsolidation();
+    }
+
+    /**
+     * Processes a merged cell only if they fall completely under the start and endDates.
+     */
+    private void fillUpMergedCells(ChartSheet sheet, String scheduleStartDate, String scheduleEndDate) {
+        int startCol = dateHelper.getColumn(scheduleStartDate);
+        int endCol = dateHelper.getColumn(scheduleEndDate);
+        if(ScheduleEngine.isDebug) {
+            System.out.println("startDate: " + scheduleStartDate + ", startCol: " + startCol);
+            System.out.println("endDate: " + scheduleEndDate + ", endCol: " + endCol);
+        }
+        mergedCellsMap.clear();
+        for(ChartSheet.Region region : sheet.getMergedRegions()) {
+            if(startCol > region.getFirstCol()) {
+                if(ScheduleEngine.isDebug) 
+                    System.out.println("Skipping merged region since its first col: " + region.getFirstCol() +
+                        " falls behind startCol: " + startCol);
+                continue;
+            }
+            if(endCol != -1 && region.getLastCol() > endCol) {
+                if(ScheduleEngine.isDebug)
+                    System.out.println("Skipping merged region since its end col: " + region.getLastCol() + 
+                            " falls after endCol: " + endCol);
+            }
+            System.out.println("Processing region: [" + region.getFirstCol() + ", " + region.getFirstRow() + "] - [" +
+                    region.getLastCol() + ", " + region.getLastRow() + "]");
+            CellInfo topLeftInfo = new CellInfo(region.getFirstCol(), region.getFirstRow());
+            CellInfo bottomRightInfo = new CellInfo(region.getLastCol(), region.getLastRow());
+
+            Map<CellInfo, String> valueMap = new HashMap<CellInfo, String>();
+            valueMap.put(bottomRightInfo, sheet.getCellValue(region.getFirstRow(), 
+                    region.getFirstCol(), ScheduleEngine.getOutputDateFormat()).trim());
+            mergedCellsMap.put(topLeftInfo, valueMap);
+        }
+
+        if(ScheduleEngine.isDebug) System.out.println(mergedCellsMap);
+    }
+
+    private List<ChartSnapshot.MergedRegion> getMergedRegions() {
+        List<ChartSnapshot.MergedRegion> mergedRegions = new ArrayList<ChartSnapshot.MergedRegion>();
+        for(Map.Entry<CellInfo, Map<CellInfo, String>> mergedCell : mergedCellsMap.entrySet()) {
+            CellInfo topLeftInfo = mergedCell.getKey();
+            for(Map.Entry<CellInfo, String> bottomRight : mergedCell.getValue().entrySet()) {
+                CellInfo bottomRightInfo = bottomRight.getKey();
+                mergedRegions.add(new ChartSnapshot.MergedRegion(topLeftInfo.getCol(), topLeftInfo.getRow(), 
+                        bottomRightInfo.getCol(), bottomRightInfo.getRow(), bottomRight.getValue()));
+            }
+        }
+        return mergedRegions;
+    }
+
+    private void restoreMergedCells(List<ChartSnapshot.MergedRegion> mergedRegions) {
+        for(ChartSnapshot.MergedRegion region : mergedRegions) {
+            Map<CellInfo, String> valueMap = new HashMap<CellInfo, String>();
+            valueMap.put(new CellInfo(region.getLastCol(), region.getLastRow()), region.getValue());
+            mergedCellsMap.put(new CellInfo(region.getFirstCol(), region.getFirstRow()), valueMap);
+        }
+    }
+
+    /**
+     * Returns a helper over only those entries of this schedule that fall completely
+     * within the given days, both inclusive. The teachers and their marks are retained.
+     */
+    public ScheduleHelper window(final ScheduleIntervalIndex dateIndex, final int fromDay, final int toDay) {
+        ScheduleHelper windowHelper = new ScheduleHelper(dateHelper, placeOwnerHelper, reportWriter, 
+                activitiesMarkedForGrouping);
+        windowHelper.teachers.addAll(teachers);
+        windowHelper.markedTeachers.addAll(markedTeachers);
+        windowHelper.skipMarked = skipMarked;
+        windowHelper.useEntryStore = useEntryStore;
+        for(ScheduleEntry entry : dateIndex.getWithin(fromDay, toDay)) {
+            windowHelper.consolidate(entry.getStartDate(), entry.getEndDate(), entry.getChartPlace(), 
+                    entry.getActivity(), entry.isGrouped(), entry.getPersons());
+        }
+        windowHelper.completeConsolidation();
+        return windowHelper;
+    }
+
+    /**
+     * Returns the teacher rows and the consolidated entries of this schedule as a snapshot.
+     */
+    public ChartSnapshot toSnapshot() {
+        List<ChartSnapshot.Entry> snapshotEntries;
+        if(entryStore != null) {
+            //Read off the store as the snapshot is written, instead of copying the whole schedule onto the heap.
+            snapshotEntries = toSnapshotEntries(entryStore);
+        }
+        else {
+            snapshotEntries = new ArrayList<ChartSnapshot.Entry>();
+            for(ScheduleEntry entry : getEntries()) {
+                snapshotEntries.add(toSnapshotEntry(entry));
+            }
+        }
+        return new ChartSnapshot(getExtractionSettingsHash(activitiesMarkedForGrouping), dateHelper.getDateMap(), 
+                dateHelper.getMonthMap(), getMergedRegions(), teachers, markedTeachers, skipMarked, snapshotEntries);
+    }
+
+    /**
+     * Returns the given entries as snapshot entries, each made as it is read.
+     */
+    private static List<ChartSnapshot.Entry> toSnapshotEntries(final List<ScheduleEntry> entries) {
+        return new AbstractList<ChartSnapshot.Entry>() {
+            public ChartSnapshot.Entry get(int index) {
+                return toSnapshotEntry(entries.get(index));
+            }
+
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    private static ChartSnapshot.Entry toSnapshotEntry(final ScheduleEntry entry) {
+        return new ChartSnapshot.Entry(entry.getStartDate(), entry.getEndDate(), 
+                entry.getChartPlace(), entry.getActivity(), entry.isGrouped(), entry.getPersons());
+    }
+
+    /**
+     * Fills up this schedule from a snapshot instead of extracting it from the input sheet.
+     */
+    public void restore(final ChartSnapshot snapshot) {
+        merge(Collections.singletonList(snapshot));
+    }
+
+    /**
+     * Fills up this schedule from the snapshots of consecutive ranges of teacher rows of the same
+     * chart, given in the order of their rows. The entries come out in the same order as if the 
+     * whole chart had been extracted at once.
+     */
+    public void merge(final List<ChartSnapshot> snapshots) {
+        for(ChartSnapshot snapshot : snapshots) {
+            restoreMergedCells(snapshot.getMergedRegions());
+            teachers.addAll(snapshot.getTeachers());
+            markedTeachers.addAll(snapshot.getMarkedTeachers());
+            skipMarked = snapshot.isSkipMarked();
+            for(ChartSnapshot.Entry entry : snapshot.getEntries()) {
+                consolidate(entry.getStartDate(), entry.getEndDate(), entry.getPlace(), 
+                        entry.getActivity(), entry.isGrouped(), entry.getPersons());
+            }
+        }
+        completeConsolidation();
+    }
+
+    /**
+     * Adds an already consolidated entry to this schedule. The place is the one written in the chart,
+     * as a full extraction keys the entries by it.
+     */
+    private void consolidate(final String startDate, final String endDate, final String place, 
+            final String activity, final boolean grouped, final List<String> persons) {
+        if(entryStore != null) {
+            throw new IllegalStateException("The schedule is already consolidated.");
+        }
+        for(String person : persons) {
+            addTeacher(startDate, endDate, place, activity, grouped, person);
+        }
+    }
+
+    /**
+     * Adds the teacher to the entry of the place-activity between the given dates, 
+     * in the off-heap store if one is configured and in the maps otherwise.
+     */
+    private void addTeacher(final String startDate, final String endDate, final String place, 
+            final String activity, final boolean grouped, final String teacher) {
+        if(!useEntryStore) {
+            updateStartEndPlaceActivityPersonMap(startEndPlaceActivityPersonMap, 
+                    startDate, endDate, place, activity, grouped, teacher);
+            return;
+        }
+        if(storeBuilder == null) {
+            storeBuilder = new OffHeapEntryStore.Builder();
+        }
+        PlaceDetails details = describePlace(place);
+        final int numberOfPersons = storeBuilder.add(startDate, endDate, place, details.displayPlace, 
+                details.center, details.sector, activity, grouped, teacher, details.owner);
+        if(numberOfPersons > maxNumberOfPersons) 
+            maxNumberOfPersons = numberOfPersons;
+    }
+
+    /**
+     * Works out what the reports need from the consolidated schedule once it is complete.
+     * Nothing can be added to a schedule held off the heap afterwards.
+     */
+    private void completeConsolidation() {
+        if(useEntryStore) {
+            entryStore = (storeBuilder != null ? storeBuilder : new OffHeapEntryStore.Builder()).build();
+            storeBuilder = null;
+            if(ScheduleEngine.isDebug) System.out.println("Consolidated entries off heap: " + entryStore);
+        }
+        computeLargestGroups();
+    }
+
+    /**
+     * Finds the size of the largest group each teacher is part of in a single pass over the entries.
+     */
+    private void computeLargestGroups() {
+        teacherToLargestGroupSize.clear();
+        if(entryStore != null) {
+            for(ScheduleEntry entry : entryStore) {
+                updateLargestGroups(entry.getPersons());
+            }
+            return;
+        }
+        for(Map<String, Map<String, Map<ActivityKey, List<String>>>> endPlaceActivityPersonMap : 
+                startEndPlaceActivityPersonMap.values()) {
+            for(Map<String, Map<ActivityKey, List<String>>> placeActivityPersonMap : endPlaceActivityPersonMap.values()) {
+                for(Map<ActivityKey, List<String>> activityPersonMap : placeActivityPersonMap.values()) {
+                    for(List<String> persons : activityPersonMap.values()) {
+                        updateLargestGroups(persons);
+                    }
+                }
+            }
+        }
+    }
+
+    private void updateLargestGroups(final List<String> persons) {
+        final int groupSize = persons.size();
+        for(String person : persons) {
+            Integer largestGroupSize = teacherToLargestGroupSize.get(person);
+            if(largestGroupSize == null || largestGroupSize.intValue() < groupSize) {
+                teacherToLargestGroupSize.put(person, groupSize);
+            }
+        }
+    }
+
+    /**
+     * Flattens the consolidated schedule into entries ordered by start date, end date and 
+     * then by the order in which the place-activities were first seen.
+     * <br>
+     * Entries held off the heap are read in as they are used. The list must not be changed.
+     */
+    public List<ScheduleEntry> getEntries() {
+        if(entryStore != null) {
+            return entryStore;
+        }
+        final List<ScheduleEntry> entries = new ArrayList<ScheduleEntry>();
+        flatten(new EntrySink() {
+            public void add(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+                    String activity, boolean grouped, List<String> persons, String owner) {
+                entries.add(new ScheduleEntry(startDate, endDate, chartPlace, place, center, sector, 
+                        activity, grouped, persons, owner));
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Receives the consolidated entries one at a time, in the order of {@link ScheduleHelper#getEntries()}.
+     * The chart place is the place as written in the chart, which the entries are consolidated by;
+     * the place is the one displayed in the reports.
+     */
+    static interface EntrySink {
+        void add(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+                String activity, boolean grouped, List<String> persons, String owner);
+    }
+
+    /**
+     * Hands the consolidated entries to the sink without collecting them, so that 
+     * the memory needed does not grow with the number of entries.
+     */
+    public void writeEntries(final EntrySink sink) {
+        if(entryStore == null) {
+            flatten(sink);
+            return;
+        }
+        for(ScheduleEntry entry : entryStore) {
+            sink.add(entry.getStartDate(), entry.getEndDate(), entry.getChartPlace(), entry.getPlace(), 
+                    entry.getCenter(), entry.getSector(),
+                    entry.getActivity(), entry.isGrouped(), entry.getPersons(), entry.getOwner());
+        }
+    }
+
+    /**
+     * Hands the consolidated entries to the sink as they are flattened.
+     */
+    private void flatten(final EntrySink sink) {
+        for(String startDate : startEndPlaceActivityPersonMap.keySet()) {
+            Map<String, Map<String, Map<ActivityKey, List<String>>>> endPlaceActivityPersonMap = 
+                startEndPlaceActivityPersonMap.get(startDate);
+
+            for(String endDate : endPlaceActivityPersonMap.keySet()) {
+                Map<String, Map<ActivityKey, List<String>>> placeActivityPersonMap = 
+                    endPlaceActivityPersonMap.get(endDate);
+
+                for(String place : placeActivityPersonMap.keySet()) {
+                    Map<ActivityKey, List<String>> activityPersonMap = placeActivityPersonMap.get(place);
+                    PlaceDetails details = describePlace(place);
+
+                    for(ActivityKey activity : activityPersonMap.keySet()) {
+                        List<String> persons = activityPersonMap.get(activity);
+                        sink.add(startDate, endDate, place, details.displayPlace, details.center, details.sector, 
+                                activity.getActivity(), activity.isGrouped(), persons, details.owner);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how the place written in the chart is displayed, its center and sector and who owns it.
+     */
+    private PlaceDetails describePlace(final String place) {
+        PlaceDetails details = placeDetails.get(place);
+        if(details == null) {
+            String center = place;
+            String sector = place;
+            String displayPlace = place;
+            if(place.contains(CENTER_SECTOR_SEPARATOR)) {
+                String[] values = place.split(CENTER_SECTOR_SEPARATOR);
+                center = values[0].trim();
+                sector = values[1].trim();
+                displayPlace = center + " " + CENTER_SECTOR_SEPARATOR + " " + sector;
+            }
+            String owner = placeOwnerHelper.getOwner(sector);
+            if(owner == null || "".equals(owner)) {
+                owner = placeOwnerHelper.getOwner(center);
+            }
+            details = new PlaceDetails(displayPlace, center, sector, owner);
+            placeDetails.put(place, details);
+        }
+        return details;
+    }
+
+    private static class PlaceDetails {
+        final String displayPlace;
+        final String center;
+        final String sector;
+        final String owner;
+
+        PlaceDetails(String displayPlace, String center, String sector, String owner) {
+            this.displayPlace = displayPlace;
+            this.center = center;
+            this.sector = sector;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Returns true if the consolidated entries are held off the heap.
+     */
+    public boolean usesEntryStore() {
+        return useEntryStore;
+    }
+
+    public List<String> getTeachers() {
+        return Collections.unmodifiableList(teachers);
+    }
+
+    public List<String> getMarkedTeachers() {
+        return Collections.unmodifiableList(markedTeachers);
+    }
+
+    /**
+     * Returns true if the marked teachers are skipped, false if only they get a report.
+     */
+    public boolean isSkipMarked() {
+        return skipMarked;
+    }
+
+    /**
+     * Writes the consolidated, per-teacher, per-coordinator and per-center reports.
+     */
+    public void writeReports(final String outputFilename, final ReportOutputPipeline output) throws Exception {
+        writeReports(outputFilename, output, null, ReportShare.ALL);
+    }
+
+    /**
+     * Writes the consolidated report, the diff report and only those per-teacher, per-coordinator 
+     * and per-center reports that the given changes touch. All of them are written if diff is null.
+     */
+    public void writeReports(final String outputFilename, final ReportOutputPipeline output, 
+            final ScheduleDiff diff) throws Exception {
+        writeReports(outputFilename, output, diff, ReportShare.ALL);
+    }
+
+    /**
+     * Writes only the given share of the reports. See {@link #writeReports(String, ReportOutputPipeline, ScheduleDiff)}.
+     */
+    public void writeReports(final String outputFilename, final ReportOutputPipeline output, 
+            final ScheduleDiff diff, final ReportShare share) throws Exception {
+        this.output = output;
+        final List<ScheduleEntry> entries = getEntries();
+
+        final File outputFile = new File(outputFilename);
+        Set<String> sectorCoordinators;
+        if(share.hasSummaries()) {
+            ReportWriter.Report consolidatedReport = reportWriter.createReport();
+
+            sectorCoordinators = writeToExcel(consolidatedReport, entries, ScheduleEngine.ReportFilterType.ALL, "");
+
+            output.submit(outputFile, consolidatedReport);
+        }
+        else if(share.getCoordinators() != null) {
+            //Only the entries of this share are here, so the coordinators are those of the whole schedule.
+            sectorCoordinators = new HashSet<String>(share.getCoordinators());
+        }
+        else {
+            sectorCoordinators = getSectorCoordinators(entries);
+        }
+        if(share.getMaxNumberOfPersons() > maxNumberOfPersons) {
+            maxNumberOfPersons = share.getMaxNumberOfPersons();
+        }
+
+        List<String> reportTeachers = teachers;
+        Set<String> reportCenters = placeOwnerHelper.getPlaces();
+        if(diff != null) {
+            if(share.hasSummaries()) writeDiffReport(outputFile, diff);
+
+            reportTeachers = new ArrayList<String>();
+            for(String teacher : teachers) {
+                if(diff.getTeachers().contains(teacher)) {
+                    reportTeachers.add(teacher);
+                }
+            }
+            sectorCoordinators.retainAll(diff.getCoordinators());
+            reportCenters = new LinkedHashSet<String>();
+            for(Map.Entry<String, EntryPositions> centerEntries : 
+                    getEntriesByCenter(placeOwnerHelper.getPlaces(), diff.getChangedEntries()).entrySet()) {
+                if(centerEntries.getValue().size() > 0) {
+                    reportCenters.add(centerEntries.getKey());
+                }
+            }
+        }
+
+        //Write a per-teacher sheet.
+        writePerTeacherReport(outputFile, share.select(reportTeachers), markedTeachers, skipMarked, entries);
+
+        //Write a per co-oridnator sheet. Sorted so that every share sees them in the same order.
+        writePerCoordinatorReport(outputFile, 
+                new LinkedHashSet<String>(share.select(new TreeSet<String>(sectorCoordinators))), entries);
+
+        //Write a per center report
+        writePerCenterReport(outputFile, new LinkedHashSet<String>(share.select(reportCenters)), entries);
+
+        if(share.hasSummaries()) {
+            //Write the double-booked teachers and centers, if there are any
+            List<ScheduleConflictDetector.Conflict> conflicts = ScheduleConflictDetector.detect(entries);
+            if(conflicts.size() > 0) {
+                writeConflictReport(outputFile, conflicts);
+            }
+            else {
+                System.out.println("No schedule conflicts found.");
+            }
+        }
+    }
+
+    /**
+     * Deals the per entity reports out into count shares, without the summaries. Each share carries
+     * what its reports need of the whole schedule, so that it can be written from only its entries;
+     * see {@link #toSnapshot(ReportShare)}.
+     */
+    public ReportShare[] shareEntities(final int count) {
+        List<String> coordinators = new ArrayList<String>(new TreeSet<String>(getSectorCoordinators(getEntries())));
+        ReportShare[] shares = new ReportShare[count];
+        for(int index = 0; index < count; index++) {
+            shares[index] = ReportShare.ofEntities(index, count, coordinators, maxNumberOfPersons);
+        }
+        return shares;
+    }
+
+    /**
+     * Returns the teacher rows of this schedule and only those of its entries that the per-teacher,
+     * per-coordinator and per-center reports of the given share are written from.
+     * <br>
+     * Only the positions of those entries are kept. They are read in again as the snapshot is written.
+     */
+    public ChartSnapshot toSnapshot(final ReportShare share) {
+        final Set<String> shareTeachers = new HashSet<String>(share.select(teachers));
+        final Set<String> shareCoordinators = new HashSet<String>(share.select(share.getCoordinators()));
+        final List<String> shareCenterKeys = new ArrayList<String>();
+        for(String center : share.select(placeOwnerHelper.getPlaces())) {
+            shareCenterKeys.add(center.trim().toLowerCase());
+        }
+
+        //place key to whether the place falls under a center of the share
+        final Map<String, Boolean> placeInShare = new HashMap<String, Boolean>();
+        final List<ScheduleEntry> entries = getEntries();
+        EntryPositions shareEntries = new EntryPositions(entries);
+        int position = 0;
+        for(ScheduleEntry entry : entries) {
+            boolean needed = entry.getOwner() != null && shareCoordinators.contains(entry.getOwner());
+            for(int i = 0; !needed && i < entry.getPersons().size(); i++) {
+                needed = shareTeachers.contains(entry.getPersons().get(i));
+            }
+            if(!needed) {
+                Boolean inShare = placeInShare.get(entry.getPlaceKey());
+                if(inShare == null) {
+                    inShare = Boolean.FALSE;
+                    for(String centerKey : shareCenterKeys) {
+                        if(shouldProcess(centerKey, entry.getPlaceKey(), entry.getCenterKey(), entry.getSectorKey())) {
+                            inShare = Boolean.TRUE;
+                            break;
+                        }
+                    }
+                    placeInShare.put(entry.getPlaceKey(), inShare);
+                }
+                needed = inShare.booleanValue();
+            }
+            if(needed) {
+                shareEntries.addPosition(position);
+            }
+            position++;
+        }
+        return new ChartSnapshot(getExtractionSettingsHash(activitiesMarkedForGrouping), dateHelper.getDateMap(), 
+                dateHelper.getMonthMap(), getMergedRegions(), teachers, markedTeachers, skipMarked, 
+                toSnapshotEntries(shareEntries));
+    }
+
+    /**
+     * Returns the owners of the places of the entries.
+     */
+    private static Set<String> getSectorCoordinators(final List<ScheduleEntry> entries) {
+        Set<String> sectorCoordinators = new HashSet<String>();
+        for(ScheduleEntry entry : entries) {
+            if(entry.getOwner() != null && !"".equals(entry.getOwner())) {
+                sectorCoordinators.add(entry.getOwner());
+            }
+        }
+        return sectorCoordinators;
+    }
+
+    /**
+     * The part of the reports written by one of the processes that share the writing of them.
+     * The per-teacher, per-coordinator and per-center reports are dealt out in turns; the 
+     * consolidated, conflict and diff reports are written by the share that has the summaries.
+     */
+    static class ReportShare {
+        /** All the reports, written by a single process */
+        static final ReportShare ALL = new ReportShare(true, 0, 1);
+        /** Only the consolidated, conflict and diff reports */
+        static final ReportShare SUMMARIES = new ReportShare(true, 0, 0);
+
+        private final boolean summaries;
+        private final int index;
+        private final int count;
+        /** the coordinators of the whole schedule in order, null to take them from the entries */
+        private final List<String> coordinators;
+        /** the number of teachers in the largest entry of the whole schedule, 0 to take it from the entries */
+        private final int maxNumberOfPersons;
+
+        private ReportShare(boolean summaries, int index, int count, List<String> coordinators, int maxNumberOfPersons) {
+            this.summaries = summaries;
+            this.index = index;
+            this.count = count;
+            this.coordinators = coordinators;
+            this.maxNumberOfPersons = maxNumberOfPersons;
+        }
+
+        private ReportShare(boolean summaries, int index, int count) {
+            this(summaries, index, count, null, 0);
+        }
+
+        /**
+         * Returns the index-th of count shares of the per entity reports, without the summaries,
+         * to be written from only the entries of the share. See {@link ScheduleHelper#shareEntities(int)}.
+         */
+        static ReportShare ofEntities(int index, int count, List<String> coordinators, int maxNumberOfPersons) {
+            return new ReportShare(false, index, count, coordinators, maxNumberOfPersons);
+        }
+
+        public boolean hasSummaries() {
+            return summaries;
+        }
+
+        public List<String> getCoordinators() {
+            return coordinators;
+        }
+
+        public int getMaxNumberOfPersons() {
+            return maxNumberOfPersons;
+        }
+
+        /**
+         * Returns the names that fall in this share, in their order.
+         */
+        public List<String> select(final Collection<String> names) {
+            List<String> selected = new ArrayList<String>();
+            if(count > 0) {
+                int position = 0;
+                for(String name : names) {
+                    if(position++ % count == index) {
+                        selected.add(name);
+                    }
+                }
+            }
+            return selected;
+        }
+
+        public String toString() {
+            return (summaries ? "summaries" : "") + (count > 0 ? (summaries ? " and " : "") + 
+                    "entities " + (index + 1) + " of " + count : "");
+        }
+    }
+
+    private void writeConflictReport(
+            final File outputFile,
+            final List<ScheduleConflictDetector.Conflict> conflicts)
+    throws Exception {
+
+        final File parentFolder = outputFile.getParentFile();
+        final String folder = parentFolder == null ? "." : parentFolder.getAbsolutePath();
+        final String fileName = outputFile.getName();
+        final int extensionStartIndex = fileName.lastIndexOf(ScheduleEngine.OutputSuffix.CONSOLIDATED);
+        final String prefix = fileName.substring(0, extensionStartIndex);
+        final String conflictOutput = folder + File.separator + prefix + ScheduleEngine.OutputSuffix.CONFLICTS;
+
+        System.out.println("Writting " + conflicts.size() + " schedule conflicts to file: " + conflictOutput);
+
+        ReportWriter.Report conflictReport = reportWriter.createReport();
+
+        int rowPos = EXCEL_OUTPUT_START_ROW;
+        writeCellsToExcel(conflictReport, rowPos++, "Sl.No", "Conflict", "Teacher / Center", 
+                "From", "To", "Center", "Nature of Activity", "Teachers", 
+                "Overlapping From", "Overlapping To", "Overlapping Center", "Overlapping Activity", "Overlapping Teachers");
+        int slNo = 1;
+        for(ScheduleConflictDetector.Conflict conflict : conflicts) {
+            ScheduleEntry entry = conflict.getEntry();
+            ScheduleEntry overlappingEntry = conflict.getOverlappingEntry();
+            if(ScheduleEngine.isDebug) System.out.println("Conflict: " + conflict);
+            writeCellsToExcel(conflictReport, rowPos++, String.valueOf(slNo++), conflict.getType(), conflict.getName(),
+                    formatDate(entry.getStartDate()), formatDate(entry.getEndDate()), 
+                    entry.getPlace(), entry.getActivity(), join(entry.getPersons()),
+                    formatDate(overlappingEntry.getStartDate()), formatDate(overlappingEntry.getEndDate()),
+                    overlappingEntry.getPlace(), overlappingEntry.getActivity(), join(overlappingEntry.getPersons()));
+        }
+
+        output.submit(new File(conflictOutput), conflictReport);
+    }
+
+    private void writeDiffReport(final File outputFile, final ScheduleDiff diff) throws Exception {
+
+        final File parentFolder = outputFile.getParentFile();
+        final String folder = parentFolder == null ? "." : parentFolder.getAbsolutePath();
+        final String fileName = outputFile.getName();
+        final int extensionStartIndex = fileName.lastIndexOf(ScheduleEngine.OutputSuffix.CONSOLIDATED);
+        final String prefix = fileName.substring(0, extensionStartIndex);
+        final String diffOutput = folder + File.separator + prefix + ScheduleEngine.OutputSuffix.DIFF;
+
+        System.out.println("Writting " + diff.getChanges().size() + " changed entries to file: " + diffOutput);
+
+        ReportWriter.Report diffReport = reportWriter.createReport();
+
+        int rowPos = EXCEL_OUTPUT_START_ROW;
+        writeCellsToExcel(diffReport, rowPos++, "Sl.No", "Change", "From", "To", "Center", 
+                "Nature of Activity", "Teachers", "Sector-Coordinator");
+        int slNo = 1;
+        for(ScheduleDiff.Change change : diff.getChanges()) {
+            ScheduleEntry entry = change.getEntry();
+            writeCellsToExcel(diffReport, rowPos++, String.valueOf(slNo++), change.getType(),
+                    formatDate(entry.getStartDate()), formatDate(entry.getEndDate()), 
+                    entry.getPlace(), entry.getActivity(), join(entry.getPersons()), 
+                    entry.getOwner() == null ? "" : entry.getOwner());
+        }
+
+        //The affected names follow the entries.
+        rowPos++;
+        writeCellsToExcel(diffReport, rowPos++, "Changed teachers", join(new ArrayList<String>(diff.getTeachers())));
+        writeCellsToExcel(diffReport, rowPos++, "Changed co-ordinators", join(new ArrayList<String>(diff.getCoordinators())));
+        writeCellsToExcel(diffReport, rowPos++, "Changed centers", join(new ArrayList<String>(diff.getPlaces())));
+
+        output.submit(new File(diffOutput), diffReport);
+    }
+
+    private void writePerCenterReport(
+            final File outputFile, 
+            final Set<String> centers,
+            final List<ScheduleEntry> entries)
+    throws Exception {
+
+        final File parentFolder = outputFile.getParentFile();
+        final String folder = parentFolder == null ? "." : parentFolder.getAbsolutePath();
+        final String fileName = outputFile.getName();
+        final int extensionStartIndex = fileName.lastIndexOf(ScheduleEngine.OutputSuffix.CONSOLIDATED);
+        final String prefix = fileName.substring(0, extensionStartIndex);
+
+        final Map<String, EntryPositions> centerEntries = getEntriesByCenter(centers, entries);
+        for(String center : centers) {
+            final String perCenterOutput = 
+                folder + ScheduleEngine.OutputSuffix.PER_CENTER_DIR + prefix + "-" + center + ScheduleEngine.OutputSuffix.PER_CENTER_FILE;
+
+            System.out.println("Writting schedule for center: " + center + " to file: " + perCenterOutput);
+
+            ReportWriter.Report perCenterReport = reportWriter.createReport();
+
+            Set<String> coordinators = 
+            	writeToExcel(perCenterReport, centerEntries.get(center), ScheduleEngine.ReportFilterType.CENTER, center);
+ 
+            if(coordinators.size() > 0) {
+            	output.submit(new File(perCenterOutput), perCenterReport);
+            }
+            else {
+            	if(ScheduleEngine.isDebug) System.out.println("Skipped center: " + center + " for lack of processable entries.");
+            }
+        }
+    }
+
+    private void writePerCoordinatorReport(
+            final File outputFile, 
+            final Set<String> sectorCoordinators,
+            final List<ScheduleEntry> entries)
+    throws Exception {
+
+        final File parentFolder = outputFile.getParentFile();
+        final String folder = parentFolder == null ? "." : parentFolder.getAbsolutePath();
+        final String fileName = outputFile.getName();
+        final int extensionStartIndex = fileName.lastIndexOf(ScheduleEngine.OutputSuffix.CONSOLIDATED);
+        final String prefix = fileName.substring(0, extensionStartIndex);
+
+        for(String coordinator : sectorCoordinators) {
+            //dateFormat = new WritableCellFormat(new DateFormat("dd-MMM-yyyy"));
+            
+            final String perCoordinatorOutput = 
+                folder + ScheduleEngine.OutputSuffix.PER_COORD_DIR + prefix + "-" + coordinator + ScheduleEngine.OutputSuffix.PER_COORD_FILE;
+
+            System.out.println("Writting schedule for coordinator: " + coordinator + " to file: " + perCoordinatorOutput);
+
+            ReportWriter.Report perTeacherReport = reportWriter.createReport();
+
+            //Off the heap, only the entries of the co-ordinator are read in.
+            writeToExcel(perTeacherReport, entryStore != null ? entryStore.withOwner(coordinator) : entries, 
+                    ScheduleEngine.ReportFilterType.SECTOR_COORDINATOR, coordinator);
+ 
+            output.submit(new File(perCoordinatorOutput), perTeacherReport);
+        }
+    }
+
+    private void writePerTeacherReport(final File outputFile, 
+            final List<String> teachers,
+            final List<String> markedTeachers,
+            final boolean skipMarked,
+            final List<ScheduleEntry> entries)
+    throws Exception {
+
+        final File parentFolder = outputFile.getParentFile();
+        final String folder = parentFolder == null ? "." : parentFolder.getAbsolutePath();
+        final String fileName = outputFile.getName();
+        final int extensionStartIndex = fileName.lastIndexOf(ScheduleEngine.OutputSuffix.CONSOLIDATED);
+        final String prefix = fileName.substring(0, extensionStartIndex);
+
+        final int maxGroupSize = maxNumberOfPersons;
+        for(final String teacher : teachers) {
+            //dateFormat = new WritableCellFormat(new DateFormat("dd-MMM-yyyy"));
+
+            if(!skipMarked) {
+                //Generate for marked
+                if(!markedTeachers.contains(teacher)) {
+                    if(ScheduleEngine.isDebug)
+                        System.out.println("Skipping teacher: " + teacher + " as its not marked for generation");
+                    continue;
+                }
+            }
+            else {
+                //Skip those marked
+                if(markedTeachers.contains(teacher)) {
+                    if(ScheduleEngine.isDebug)
+                        System.out.println("Skipping teacher: " + teacher + " as its marked for skip");
+                    continue;
+                }
+            }
+            Integer largestGroupSize = teacherToLargestGroupSize.get(teacher);
+            if(largestGroupSize == null) {
+                if(ScheduleEngine.isDebug) 
+                    System.out.println("Skipping teacher as there is no schedule for this person.");
+                continue;
+            }
+            maxNumberOfPersons = largestGroupSize.intValue(); 
+
+            final String perTeacherOutput = 
+                folder + ScheduleEngine.OutputSuffix.PER_TEACHER_DIR + prefix + "-" + teacher + ScheduleEngine.OutputSuffix.PER_TEACHER_FILE;
+            System.out.println("Writting schedule for teacher: " + teacher + " to file: " + perTeacherOutput);
+
+            ReportWriter.Report perTeacherReport = reportWriter.createReport();
+
+            //Off the heap, only the entries of the teacher are read in.
+            writeToExcel(perTeacherReport, entryStore != null ? entryStore.withPerson(teacher) : entries, 
+                    ScheduleEngine.ReportFilterType.TEACHER, teacher);
+
+            output.submit(new File(perTeacherOutput), perTeacherReport);
+        }
+        //Restore it back.
+        maxNumberOfPersons = maxGroupSize;
+    }
+ 
+    private Set<String> writeToExcel(
+            final ReportWriter.Report output,
+            final List<ScheduleEntry> entries,
+            final String type,
+            final String filter) throws Exception {
+
+        Set<String> sectorCoordinators = new HashSet<String>();
+
+        writeHeaderToExcel(output, type);
+        int rowPos = EXCEL_OUTPUT_START_ROW + 1;
+        int slNo = 1;
+        for(ScheduleEntry entry : entries) {
+            List<String> persons = entry.getPersons();
+            String owner = entry.getOwner();
+            if(!"".equals(owner) && owner != null) {
+            	if(ScheduleEngine.ReportFilterType.ALL.equals(type))
+            		sectorCoordinators.add(owner);
+            }
+
+            if(ScheduleEngine.ReportFilterType.ALL.equals(type) ||
+                    (ScheduleEngine.ReportFilterType.TEACHER.equals(type) && persons.contains(filter)) ||
+                    (ScheduleEngine.ReportFilterType.SECTOR_COORDINATOR.equals(type) && filter.equals(owner)) ||
+                    //Entries of a center are picked in getEntriesByCenter
+                    ScheduleEngine.ReportFilterType.CENTER.equals(type)) {
+                if(ScheduleEngine.ReportFilterType.TEACHER.equals(type)) {
+                    //On per-teacher report, no need for owner.
+                    owner = "";
+                }
+                else if(ScheduleEngine.ReportFilterType.CENTER.equals(type)) {
+                	//indicates that there was atleast one row for this center
+                	sectorCoordinators.add(owner);
+                }
+                writeOneRowToExcel(output, rowPos++, String.valueOf(slNo++), 
+                        entry.getStartDate(), entry.getEndDate(), entry.getPlace(), entry.getActivity(), 
+                        persons, owner);
+            }
+        }
+
+        // Auto Fit all the columns
+        for(int i = 0; i < 6 + maxNumberOfPersons; i++) {
+        	output.autoSizeColumn(EXCEL_OUTPUT_START_COL + i);
+        }
+
+        return sectorCoordinators;
+    }
+
+    /**
+     * Finds the entries of each center once, in the order of the given entries, 
+     * so that each per center report is a lookup instead of a pass over all the entries.
+     * The place keys of the entries are already normalized, so each distinct place is
+     * matched against each center just once.
+     * <br>
+     * The entries of a center are kept as their positions in the given entries, which are
+     * read in again as the report of the center is written.
+     */
+    private Map<String, EntryPositions> getEntriesByCenter(final Set<String> centers, 
+            final List<ScheduleEntry> entries) {
+        Map<String, EntryPositions> centerEntries = new LinkedHashMap<String, EntryPositions>();
+        Map<String, String> centerKeys = new LinkedHashMap<String, String>();
+        for(String center : centers) {
+            centerEntries.put(center, new EntryPositions(entries));
+            centerKeys.put(center, center.trim().toLowerCase());
+        }
+
+        //place key to the centers matching it
+        Map<String, List<String>> placeCenters = new HashMap<String, List<String>>();
+        int position = 0;
+        for(ScheduleEntry entry : entries) {
+            List<String> matchingCenters = placeCenters.get(entry.getPlaceKey());
+            if(matchingCenters == null) {
+                matchingCenters = new ArrayList<String>();
+                for(Map.Entry<String, String> centerKey : centerKeys.entrySet()) {
+                    if(shouldProcess(centerKey.getValue(), entry.getPlaceKey(), 
+                            entry.getCenterKey(), entry.getSectorKey())) {
+                        matchingCenters.add(centerKey.getKey());
+                    }
+                }
+                placeCenters.put(entry.getPlaceKey(), matchingCenters);
+            }
+            for(String center : matchingCenters) {
+                centerEntries.get(center).addPosition(position);
+            }
+            position++;
+        }
+        return centerEntries;
+    }
+
+    /**
+     * All the arguments are expected to be trimmed and in lower case.
+     */
+    private boolean shouldProcess(String filter, String place, String center, String sector) {
+    	//filter is either: mumbai / muland OR muland OR mumbai
+    	//place is mumbai OR mumbai / muland OR muland OR garbage
+    	//center is mumbai OR empty OR garbage
+    	//sector is muland OR empty OR garbage
+    	if(!"".equals(sector)) {
+    		if(filter.equals(sector) || filter.contains(sector))
+    			return true;
+    	}
+    	if(!"".equals(center)) {
+    		if(filter.equals(center) || (filter.contains(CENTER_SECTOR_SEPARATOR)) && filter.contains(center))
+    			return true;
+    	}
+    	if(filter.equals(place)) 
+    		return true;
+    	if(!"".equals(place) && filter.contains(place))
+    		return true;
+    	return false;
+    }
+
+    private void writeHeaderToExcel(ReportWriter.Report output, final String type) throws Exception {
+        List<String> persons = new ArrayList<String>();
+        for(int i = 1; i <= maxNumberOfPersons; i++) {
+            persons.add("Teacher " + i);
+        }
+        //No need for sector-coordinator if its per teacher report.
+        String sectorCoordinatorTitle = ScheduleEngine.ReportFilterType.TEACHER.equals(type) ? "" : "Sector-Coordinator";
+        //Sl.No From    To  Center  Nature of Activity  Teacher1  Teacher2  Teacher3  Sector-Coordinator 
+        writeOneRowToExcel(output, EXCEL_OUTPUT_START_ROW, "Sl.No", "From", "To", "Center", "Nature of Activity", persons, sectorCoordinatorTitle);
+    }
+
+    private void writeOneRowToExcel(final ReportWriter.Report output, final int row, final String slNo, final String from,
+            final String to, final String place, final String activity, final List<String> persons,
+            final String placeOwner) throws ParseException {
+
+        int col = EXCEL_OUTPUT_START_COL;
+        output.writeCell(row, col++, slNo);
+        if(Character.isDigit(from.charAt(0))) {
+            col = writeDateToExcel(output, col, row, from);
+        }
+        else {
+            output.writeCell(row, col++, from);
+        }
+        if(Character.isDigit(to.charAt(0))) {
+            col = writeDateToExcel(output, col, row, to);
+        }
+        else {
+            output.writeCell(row, col++, to);
+        }
+        output.writeCell(row, col++, place);
+        output.writeCell(row, col++, activity);
+        int placeOwnerCol = col + maxNumberOfPersons;
+        for(String person : persons) {
+            output.writeCell(row, col++, person);
+        }
+        output.writeCell(row, placeOwnerCol, placeOwner);
+    }
+
+    private void writeCellsToExcel(final ReportWriter.Report output, final int row, final String... values) {
+        int col = EXCEL_OUTPUT_START_COL;
+        for(String value : values) {
+            output.writeCell(row, col++, value);
+        }
+    }
+
+    private String formatDate(final String date) throws ParseException {
+        return ScheduleEngine.getOutputDateFormat().format(scheduleDateFormat.parse(date));
+    }
+
+    private static String join(final List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for(String value : values) {
+            if(joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private int writeDateToExcel(final ReportWriter.Report output, int col, final int row, final String date)
+            throws ParseException {
+        Date now = scheduleDateFormat.parse(date);
+        output.writeDateCell(row, col++, now);
+
+        return col;
+    }
+
+    //For each activity for the given teacher, 
+    //update the maps and return schedule for this teacher.
+    //scheduleStartDate and scheduleEndDate if given, schedule will be prepared only 
+    //for activities that fall completely under these two dates inclusive of both.
+    //If anyone of them is null or empty, they are ignored.
+    //If scheduleStartDate is after scheduleEndDate, an exception is thrown.
+    private void fillUpPlaceActivityMap(
+            final Map<String, Map<String, Map<String, Map<ActivityKey, List<String>>>>> startEndPlaceActivityPersonMap,
+            final String teacher, 
+            final ChartSheet inputSheet, 
+            final int teacherScheduleRow,
+            final String scheduleStartDate,
+            final String scheduleEndDate) {
+
+        Map<String, Map<String, List<String>>> placeActivityToDatesMap = 
+            new HashMap<String, Map<String,List<String>>>();
+
+        int startColumn = ScheduleEngine.TEACHER_START_COL + 1;
+        int endColumn = inputSheet.getLastCellNum(teacherScheduleRow);
+        String prevPlace = "";
+        String prevActivity = "";
+        for(int col = startColumn; col < endColumn; col++) {
+            String placeActivityValue = inputSheet.getStringCellValue(teacherScheduleRow, col);
+            if(placeActivityValue == null) {
+                continue;
+            }
+            String placeActivity = placeActivityValue.trim();
+
+            if("".equals(placeActivity)) {
+                //nothing to do. find the next place activity string.
+                continue;
+            }
+
+            // New place activity found. Set the end date for the previous place-activity
+            setEndDate(startEndPlaceActivityPersonMap, 
+                    placeActivityToDatesMap, prevPlace, prevActivity, teacher, col - 1);
+
+            // placeActivity string can be of three forms:
+            // 1. Delhi - Training (or without leading / trailing space for the hypen)
+            // 2. Center [/ sector] - activity (the optional sector will be used in the place owner map)
+            // 3. BREAK
+            // 4. Travel
+            String place = "";
+            String activity = placeActivity;
+            int separatorIndex = placeActivity.indexOf(PLACE_ACTIVITY_SEPARATOR);
+            if(separatorIndex > 0) {
+                place = placeActivity.substring(0, separatorIndex).trim();
+                activity = placeActivity.substring(separatorIndex + 1).trim();
+            }
+
+            // Find the start date for this new place-activity.
+            String startDate = dateHelper.getDate(col);
+            if(!"".equals(scheduleStartDate) && scheduleDateComparator.compare(startDate, scheduleStartDate) < 0) {
+                if(ScheduleEngine.isDebug)
+                    System.out.println("Skipping schedule as the start date: " + startDate + " occurs before scheduleStartDate: " + scheduleStartDate);
+                continue;
+            }
+            List<String> startEndDates = new ArrayList<String>();
+            startEndDates.add(startDate);
+            // If possible, get the end date as well from the merged cells
+            int endCol = -1;
+            Map<CellInfo, String> valueMap = mergedCellsMap.get(new CellInfo(col, teacherScheduleRow));
+            if(valueMap != null) {
+                for(CellInfo bottomRightInfo : valueMap.keySet()) {
+                    endCol = bottomRightInfo.getCol();
+                }
+            }
+            else {
+                //If the current cell is not a merged-cell, the only choice it has is it being a single
+                //date activity. In that case, set the end date as the current date itself.
+                endCol = col;
+            }
+            String endDate = dateHelper.getDate(endCol);
+            if(!"".equals(scheduleEndDate) && scheduleDateComparator.compare(endDate, scheduleEndDate) > 0) {
+                if(ScheduleEngine.isDebug)
+                    System.out.println("Skipping schedule as the end date: " + endDate + " occurs after scheduleEndDate: " + scheduleEndDate);
+                continue;
+            }
+            startEndDates.add(endDate);
+
+            Map<String, List<String>> activityMap = new HashMap<String, List<String>>();
+            activityMap.put(activity, startEndDates);
+            placeActivityToDatesMap.put(place, activityMap);
+
+            // Set the previous placeActivity
+            prevPlace = place;
+            prevActivity = activity;
+        }
+
+        setEndDate(startEndPlaceActivityPersonMap, 
+                placeActivityToDatesMap, prevPlace, prevActivity, teacher, endColumn - 1);
+
+        if(ScheduleEngine.isDebug) System.out.println("Place activity map for teacher: " + teacher + ": " + placeActivityToDatesMap);
+    }
+
+    private void setEndDate(
+            final Map<String, Map<String, Map<String, Map<ActivityKey, List<String>>>>> startEndPlaceActivityPersonMap,
+            final Map<String, Map<String, List<String>>> placeActivityMap, 
+            final String place, 
+            final String activity, 
+            final String teacher, 
+            final int endColumn) {
+        if(!"".equals(place) || !"".equals(activity)) {
+            List<String> startEndDates = placeActivityMap.get(place).get(activity);
+            //do not add end date if it is already added.
+            //it will be already added if it was part of the merged cell.
+            if(startEndDates.size() == 1) {
+                startEndDates.add(dateHelper.getDate(endColumn));
+            }
+            placeActivityMap.get(place).put(activity, startEndDates);
+
+            addTeacher(startEndDates.get(0), startEndDates.get(1), place, activity, 
+                    isWhitelistedForGrouping(activity), teacher);
+        }
+    }
+
+    private void updateStartEndPlaceActivityPersonMap(
+            final Map<String, Map<String, Map<String, Map<ActivityKey, List<String>>>>> startEndPlaceActivityPersonMap,
+            final String startDate,
+            final String endDate,
+            final String place,
+            final String activity,
+            final boolean grouped,
+            final String teacher) {
+        Map<String, Map<String, Map<ActivityKey, List<String>>>> endPlaceActivityMap = 
+            startEndPlaceActivityPersonMap.get(startDate);
+        if(endPlaceActivityMap == null) {
+            endPlaceActivityMap = new TreeMap<String, Map<String, Map<ActivityKey, List<String>>>>(scheduleDateComparator);
+            startEndPlaceActivityPersonMap.put(startDate, endPlaceActivityMap);
+        }
+
+        Map<String, Map<ActivityKey, List<String>>> placeActivityMap = endPlaceActivityMap.get(endDate);
+        if(placeActivityMap == null) {
+            placeActivityMap = new LinkedHashMap<String, Map<ActivityKey,List<String>>>();
+            endPlaceActivityMap.put(endDate, placeActivityMap);
+        }
+
+        Map<ActivityKey, List<String>> activityMap = placeActivityMap.get(place);
+        if(activityMap == null) {
+            activityMap = new LinkedHashMap<ActivityKey, List<String>>();
+            placeActivityMap.put(place, activityMap);
+        }
+
+        //Do not group any activity across teachers unless its whitelisted explicitly
+        //even if they fall on the same date.
+        ActivityKey activityKey = new ActivityKey(activity, grouped ? null : teacher);
+        List<String> teachers = activityMap.get(activityKey);
+        if(teachers == null) {
+            teachers = new ArrayList<String>();
+            activityMap.put(activityKey, teachers);
+        }
+
+        if(!teachers.contains(teacher)) {
+            teachers.add(teacher);
+            if(teachers.size() > maxNumberOfPersons) 
+                maxNumberOfPersons = teachers.size();
+        }
+    }
+
+    /**
+     * Returns true if the activity has a token marked for grouping.
+     * The decision is remembered since the same activities repeat across the chart.
+     */
+    private boolean isWhitelistedForGrouping(String activity) {
+        Boolean whitelisted = groupingDecisions.get(activity);
+        if(whitelisted == null) {
+            whitelisted = Boolean.FALSE;
+            String[] tokens = activity.toLowerCase().split(" ");
+            for(String token : tokens) {
+                if(activitiesMarkedForGrouping.contains(token.trim())) {
+                    whitelisted = Boolean.TRUE;
+                    break;
+                }
+            }
+            groupingDecisions.put(activity, whitelisted);
+        }
+        return whitelisted.booleanValue();
+    }
+
+    /**
+     * Key of an activity in the consolidated schedule. Activities that are not grouped
+     * across teachers carry the teacher, so that each teacher gets an entry of their own.
+     */
+    private static class ActivityKey {
+        private final String activity;
+        /** null if the activity is grouped */
+        private final String teacher;
+
+        public ActivityKey(String activity, String teacher) {
+            this.activity = activity;
+            this.teacher = teacher;
+        }
+
+        public String getActivity() {
+            return activity;
+        }
+
+        public boolean isGrouped() {
+            return teacher == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * activity.hashCode() + (teacher == null ? 0 : teacher.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj)
+                return true;
+            if(obj == null || getClass() != obj.getClass())
+                return false;
+            ActivityKey other = (ActivityKey) obj;
+            return activity.equals(other.activity) && 
+                (teacher == null ? other.teacher == null : teacher.equals(other.teacher));
+        }
+
+        public String toString() {
+            return teacher == null ? activity : activity + " (" + teacher + ")";
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only lookup structures over the consolidated schedule.
+ * <p>
+ * Teacher, center and coordinator names are matched case-insensitively. A center lookup
+ * matches either the center or the sector of an entry, so both "Chennai" and "Adyar" find
+ * entries held at "Chennai / Adyar".
+ * <p>
+ * The lookups keep the positions of the entries rather than the entries, so that entries
+ * held off the heap are only read in when they are looked up.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleIndex {
+
+    private final List<ScheduleEntry> entries;
+    private final Map<String, EntryPositions> teacherIndex = new HashMap<String, EntryPositions>();
+    private final Map<String, EntryPositions> centerIndex = new HashMap<String, EntryPositions>();
+    private final Map<String, EntryPositions> coordinatorIndex = new HashMap<String, EntryPositions>();
+    private final ScheduleIntervalIndex dateIndex;
+
+    /**
+     * Indexes the given entries. The list is kept rather than copied and must not change afterwards.
+     */
+    public ScheduleIndex(List<ScheduleEntry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+        int position = 0;
+        for(ScheduleEntry entry : entries) {
+            for(String person : entry.getPersons()) {
+                addToIndex(teacherIndex, person, position);
+            }
+            addToIndex(centerIndex, entry.getCenterKey(), position);
+            if(!entry.getSectorKey().equals(entry.getCenterKey())) {
+                addToIndex(centerIndex, entry.getSectorKey(), position);
+            }
+            if(entry.getOwner() != null) {
+                addToIndex(coordinatorIndex, entry.getOwner(), position);
+            }
+            position++;
+        }
+        this.dateIndex = new ScheduleIntervalIndex(entries);
+    }
+
+    private void addToIndex(Map<String, EntryPositions> index, String key, int position) {
+        key = key.trim().toLowerCase();
+        if("".equals(key)) {
+            return;
+        }
+        EntryPositions keyEntries = index.get(key);
+        if(keyEntries == null) {
+            keyEntries = new EntryPositions(entries);
+            index.put(key, keyEntries);
+        }
+        keyEntries.addPosition(position);
+    }
+
+    private static List<ScheduleEntry> lookup(Map<String, EntryPositions> index, String key) {
+        List<ScheduleEntry> keyEntries = index.get(key.trim().toLowerCase());
+        if(keyEntries == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(keyEntries);
+    }
+
+    public List<ScheduleEntry> getEntries() {
+        return entries;
+    }
+
+    public List<ScheduleEntry> getByTeacher(String teacher) {
+        return lookup(teacherIndex, teacher);
+    }
+
+    public List<ScheduleEntry> getByCenter(String center) {
+        return lookup(centerIndex, center);
+    }
+
+    public List<ScheduleEntry> getByCoordinator(String coordinator) {
+        return lookup(coordinatorIndex, coordinator);
+    }
+
+    /**
+     * Returns the entries that overlap the given days (both inclusive), ordered by start date.
+     */
+    public List<ScheduleEntry> getByDateRange(int fromDay, int toDay) {
+        return dateIndex.getOverlapping(fromDay, toDay);
+    }
+
+    /**
+     * Keeps only the entries of the given list that overlap the given days (both inclusive).
+     */
+    public static List<ScheduleEntry> filterByDateRange(List<ScheduleEntry> entries, int fromDay, int toDay) {
+        List<ScheduleEntry> result = new ArrayList<ScheduleEntry>();
+        for(ScheduleEntry entry : entries) {
+            if(entry.getStartDay() <= toDay && entry.getEndDay() >= fromDay) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Interval tree over the start and end days of schedule entries.
+ * <p>
+ * Entries are kept sorted by start day in an array which doubles as an implicit balanced
+ * tree: the node of the range [lo, hi) is the element at (lo + hi) / 2. Every node also
+ * holds the largest and smallest end day of its subtree so that lookups can skip whole
+ * subtrees. Both lookups run in O(log n + k) for k matching entries and return them in
+ * the order they were given in, for entries that start on the same day.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleIntervalIndex {
+
+    /** The entries as given and their positions in order of start day */
+    private final List<ScheduleEntry> source;
+    private final int[] positions;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final int[] minEnds;
+
+    /**
+     * Indexes the given entries. The list is kept rather than copied, so that entries held
+     * off the heap are only brought in when they are looked up. It must not change afterwards.
+     */
+    public ScheduleIntervalIndex(List<ScheduleEntry> entries) {
+        final int size = entries.size();
+        final int[] sourceStarts = new int[size];
+        final int[] sourceEnds = new int[size];
+        Integer[] sorted = new Integer[size];
+        int i = 0;
+        for(ScheduleEntry entry : entries) {
+            sourceStarts[i] = entry.getStartDay();
+            sourceEnds[i] = entry.getEndDay();
+            sorted[i] = i;
+            i++;
+        }
+        //Stable, so entries starting on the same day keep their consolidated order.
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer position1, Integer position2) {
+                int start1 = sourceStarts[position1];
+                int start2 = sourceStarts[position2];
+                return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
+            }
+        });
+        this.source = entries;
+        this.positions = new int[size];
+        this.starts = new int[size];
+        this.ends = new int[size];
+        this.maxEnds = new int[size];
+        this.minEnds = new int[size];
+        for(i = 0; i < size; i++) {
+            positions[i] = sorted[i];
+            starts[i] = sourceStarts[positions[i]];
+            ends[i] = sourceEnds[positions[i]];
+        }
+        build(0, size);
+    }
+
+    private void build(int lo, int hi) {
+        if(lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid);
+        build(mid + 1, hi);
+        int maxEnd = ends[mid];
+        int minEnd = ends[mid];
+        if(lo < mid) {
+            int left = (lo + mid) >>> 1;
+            maxEnd = Math.max(maxEnd, maxEnds[left]);
+            minEnd = Math.min(minEnd, minEnds[left]);
+        }
+        if(mid + 1 < hi) {
+            int right = (mid + 1 + hi) >>> 1;
+            maxEnd = Math.max(maxEnd, maxEnds[right]);
+            minEnd = Math.min(minEnd, minEnds[right]);
+        }
+        maxEnds[mid] = maxEnd;
+        minEnds[mid] = minEnd;
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * Returns the first start day in the index or Integer.MAX_VALUE if it is empty.
+     */
+    public int getFirstDay() {
+        return positions.length == 0 ? Integer.MAX_VALUE : starts[0];
+    }
+
+    /**
+     * Returns the last end day in the index or Integer.MIN_VALUE if it is empty.
+     */
+    public int getLastDay() {
+        return positions.length == 0 ? Integer.MIN_VALUE : maxEnds[(positions.length - 1) >>> 1];
+    }
+
+    /**
+     * Returns the entries that overlap the given days, both inclusive.
+     */
+    public List<ScheduleEntry> getOverlapping(int fromDay, int toDay) {
+        List<ScheduleEntry> result = new ArrayList<ScheduleEntry>();
+        if(fromDay <= toDay) {
+            collectOverlapping(0, positions.length, fromDay, toDay, result);
+        }
+        return result;
+    }
+
+    private void collectOverlapping(int lo, int hi, int fromDay, int toDay, List<ScheduleEntry> result) {
+        if(lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if(maxEnds[mid] < fromDay) {
+            //Everything in this subtree ends before the window.
+            return;
+        }
+        collectOverlapping(lo, mid, fromDay, toDay, result);
+        if(starts[mid] > toDay) {
+            //This and everything to the right starts after the window.
+            return;
+        }
+        if(ends[mid] >= fromDay) {
+            result.add(source.get(positions[mid]));
+        }
+        collectOverlapping(mid + 1, hi, fromDay, toDay, result);
+    }
+
+    /**
+     * Returns the entries that fall completely within the given days, both inclusive.
+     */
+    public List<ScheduleEntry> getWithin(int fromDay, int toDay) {
+        List<ScheduleEntry> result = new ArrayList<ScheduleEntry>();
+        if(fromDay <= toDay) {
+            collectWithin(0, positions.length, fromDay, toDay, result);
+        }
+        return result;
+    }
+
+    private void collectWithin(int lo, int hi, int fromDay, int toDay, List<ScheduleEntry> result) {
+        if(lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if(minEnds[mid] > toDay) {
+            //Everything in this subtree ends after the window.
+            return;
+        }
+        if(starts[mid] >= fromDay) {
+            collectWithin(lo, mid, fromDay, toDay, result);
+            if(starts[mid] > toDay) {
+                return;
+            }
+            if(ends[mid] <= toDay) {
+                result.add(source.get(positions[mid]));
+            }
+        }
+        //else this and everything to the left starts before the window.
+        collectWithin(mid + 1, hi, fromDay, toDay, result);
+    }
+}
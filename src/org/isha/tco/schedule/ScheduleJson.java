@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.util.List;
+
+/**
+ * Renders schedule entries as JSON.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleJson {
+
+    private ScheduleJson() {
+        //Utility class
+    }
+
+    /**
+     * Appends {"count": n, "entries": [...]} for the given entries.
+     */
+    public static void appendEntries(StringBuilder json, List<ScheduleEntry> entries) {
+        json.append("{\"count\":").append(entries.size()).append(",\"entries\":[");
+        for(int i = 0; i < entries.size(); i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            appendEntry(json, entries.get(i));
+        }
+        json.append("]}");
+    }
+
+    public static void appendEntry(StringBuilder json, ScheduleEntry entry) {
+        appendEntry(json, entry.getStartDate(), entry.getEndDate(), entry.getCenter(), entry.getSector(),
+                entry.getActivity(), entry.getPersons(), entry.getOwner());
+    }
+
+    /**
+     * Appends an entry from its fields, for entries that are not kept as {@link ScheduleEntry}.
+     */
+    public static void appendEntry(StringBuilder json, String startDate, String endDate, String center,
+            String sector, String activity, List<String> persons, String owner) {
+        json.append("{\"start\":");
+        appendString(json, startDate);
+        json.append(",\"end\":");
+        appendString(json, endDate);
+        json.append(",\"center\":");
+        appendString(json, center);
+        json.append(",\"sector\":");
+        appendString(json, sector);
+        json.append(",\"activity\":");
+        appendString(json, activity);
+        json.append(",\"teachers\":[");
+        for(int i = 0; i < persons.size(); i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            appendString(json, persons.get(i));
+        }
+        json.append("],\"owner\":");
+        appendString(json, owner);
+        json.append('}');
+    }
+
+    /**
+     * Appends the given value as a quoted JSON string, or null.
+     */
+    public static void appendString(StringBuilder json, String value) {
+        if(value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+            case '"':
+                json.append("\\\"");
+                break;
+            case '\\':
+                json.append("\\\\");
+                break;
+            case '\n':
+                json.append("\\n");
+                break;
+            case '\r':
+                json.append("\\r");
+                break;
+            case '\t':
+                json.append("\\t");
+                break;
+            default:
+                if(c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                }
+                else {
+                    json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.List;
+
+/**
+ * Writes the consolidated entries as JSON Lines: one JSON object per entry and line, with the
+ * fields of {@link ScheduleJson}.
+ * <p>
+ * The entries are written as they are handed over. Each line is built in the same buffer and
+ * encoded into the same byte buffer, which is written to the file whenever it fills up, so the
+ * memory used does not depend on the number of entries. A failed write is thrown from
+ * {@link #close()}.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleJsonLinesWriter implements ScheduleHelper.EntrySink {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final FileOutputStream fos;
+    private final FileChannel channel;
+    private final CharsetEncoder encoder = UTF8.newEncoder();
+    private final StringBuilder line = new StringBuilder(512);
+    private char[] lineChars = new char[512];
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long lines;
+    private IOException failure;
+
+    public ScheduleJsonLinesWriter(File file) throws IOException {
+        this.file = file;
+        this.fos = new FileOutputStream(file);
+        this.channel = fos.getChannel();
+    }
+
+    public void add(String startDate, String endDate, String chartPlace, String place, String center, String sector,
+            String activity, boolean grouped, List<String> persons, String owner) {
+        if(failure != null) {
+            return;
+        }
+        line.setLength(0);
+        ScheduleJson.appendEntry(line, startDate, endDate, center, sector, activity, persons, owner);
+        line.append('\n');
+        try {
+            encode(line);
+            lines++;
+        }
+        catch(IOException e) {
+            failure = e;
+        }
+    }
+
+    private void encode(final StringBuilder value) throws IOException {
+        final int length = value.length();
+        if(lineChars.length < length) {
+            lineChars = new char[Math.max(length, lineChars.length * 2)];
+        }
+        value.getChars(0, length, lineChars, 0);
+        CharBuffer chars = CharBuffer.wrap(lineChars, 0, length);
+        while(true) {
+            CoderResult result = encoder.encode(chars, bytes, false);
+            if(result.isOverflow()) {
+                flushBytes();
+            }
+            else if(result.isUnderflow()) {
+                return;
+            }
+            else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void flushBytes() throws IOException {
+        bytes.flip();
+        while(bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Returns the number of entries written so far.
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Writes out what is buffered and closes the file.
+     */
+    public void close() throws IOException {
+        try {
+            if(failure == null) {
+                CharBuffer empty = CharBuffer.wrap(lineChars, 0, 0);
+                while(encoder.encode(empty, bytes, true).isOverflow()) {
+                    flushBytes();
+                }
+                while(encoder.flush(bytes).isOverflow()) {
+                    flushBytes();
+                }
+                flushBytes();
+            }
+        }
+        catch(IOException e) {
+            failure = e;
+        }
+        finally {
+            fos.close();
+        }
+        if(failure != null) {
+            throw new IOException("Unable to write: " + file + ": " + failure);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers read-only queries over the consolidated schedule as JSON.
+ * <p>
+ * Supported queries (from and to are optional on the first three and in dd/MMM/yy format):
+ * <pre>
+ * /teacher?name=&lt;teacher>[&amp;from=&lt;date>][&amp;to=&lt;date>]
+ * /center?name=&lt;center or sector>[&amp;from=&lt;date>][&amp;to=&lt;date>]
+ * /coordinator?name=&lt;sector co-ordinator>[&amp;from=&lt;date>][&amp;to=&lt;date>]
+ * /dates?from=&lt;date>&amp;to=&lt;date>
+ * /stats
+ * </pre>
+ * A date range selects the entries that overlap it. The watched input files are polled and
+ * the schedule is reloaded whenever one of them changes.
+ * <p>
+ * There is no authentication, so the server listens on the loopback interface unless it is
+ * given another host to bind to.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleQueryServer {
+
+    private static final long RELOAD_POLL_MILLIS = 5000;
+    private static final int HANDLER_THREADS = 4;
+
+    /**
+     * Parses the inputs again. Called on the reload thread.
+     */
+    static interface Loader {
+        List<ScheduleEntry> load() throws Exception;
+    }
+
+    private final Loader loader;
+    private final File[] watchedFiles;
+    private final long[] watchedStamps;
+    private volatile ScheduleIndex index;
+
+    public ScheduleQueryServer(Loader loader, List<ScheduleEntry> entries, File... watchedFiles) {
+        this.loader = loader;
+        this.watchedFiles = watchedFiles;
+        this.watchedStamps = new long[watchedFiles.length];
+        for(int i = 0; i < watchedFiles.length; i++) {
+            watchedStamps[i] = stampOf(watchedFiles[i]);
+        }
+        this.index = new ScheduleIndex(entries);
+    }
+
+    public void start(String host, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/teacher", new QueryHandler() {
+            List<ScheduleEntry> query(ScheduleIndex index, Map<String, String> params) {
+                return index.getByTeacher(required(params, "name"));
+            }
+        });
+        server.createContext("/center", new QueryHandler() {
+            List<ScheduleEntry> query(ScheduleIndex index, Map<String, String> params) {
+                return index.getByCenter(required(params, "name"));
+            }
+        });
+        server.createContext("/coordinator", new QueryHandler() {
+            List<ScheduleEntry> query(ScheduleIndex index, Map<String, String> params) {
+                return index.getByCoordinator(required(params, "name"));
+            }
+        });
+        server.createContext("/dates", new QueryHandler() {
+            List<ScheduleEntry> query(ScheduleIndex index, Map<String, String> params) {
+                return index.getByDateRange(ScheduleEntry.toDay(required(params, "from")),
+                        ScheduleEntry.toDay(required(params, "to")));
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                ParsedInputCache cache = ParsedInputCache.getInstance();
+                StringBuilder json = new StringBuilder();
+                json.append("{\"entries\":").append(index.getEntries().size())
+                    .append(",\"parsedInputCache\":{\"entries\":").append(cache.size())
+                    .append(",\"usedBytes\":").append(cache.getUsedBytes())
+                    .append(",\"budgetBytes\":").append(cache.getBudgetBytes())
+                    .append(",\"hits\":").append(cache.getHits())
+                    .append(",\"misses\":").append(cache.getMisses())
+                    .append(",\"evictions\":").append(cache.getEvictions()).append("}}");
+                send(exchange, 200, json);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(HANDLER_THREADS));
+        server.start();
+
+        Timer reloadTimer = new Timer("schedule-reload", true);
+        reloadTimer.schedule(new TimerTask() {
+            public void run() {
+                reloadIfChanged();
+            }
+        }, RELOAD_POLL_MILLIS, RELOAD_POLL_MILLIS);
+
+        System.out.println("Serving schedule queries on: " + host + ":" + port);
+    }
+
+    private void reloadIfChanged() {
+        boolean changed = false;
+        for(int i = 0; i < watchedFiles.length; i++) {
+            long stamp = stampOf(watchedFiles[i]);
+            if(stamp != watchedStamps[i]) {
+                watchedStamps[i] = stamp;
+                changed = true;
+            }
+        }
+        if(!changed) {
+            return;
+        }
+        try {
+            System.out.println("Input changed. Reloading schedule.");
+            index = new ScheduleIndex(loader.load());
+            System.out.println("Reloaded schedule with " + index.getEntries().size() + " entries.");
+        }
+        catch(Exception e) {
+            //Keep serving the previous schedule.
+            System.out.println("Warn: Unable to reload schedule. Continuing with the previous one.");
+            e.printStackTrace();
+        }
+    }
+
+    private static long stampOf(File file) {
+        return file.lastModified() * 31 + file.length();
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if(value == null || "".equals(value.trim())) {
+            throw new IllegalArgumentException("Missing query parameter: " + name);
+        }
+        return value;
+    }
+
+    private abstract class QueryHandler implements HttpHandler {
+
+        abstract List<ScheduleEntry> query(ScheduleIndex index, Map<String, String> params);
+
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            StringBuilder json = new StringBuilder();
+            try {
+                if(!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    status = 405;
+                    json.append("{\"error\":\"Only GET is supported\"}");
+                }
+                else {
+                    Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                    List<ScheduleEntry> result = query(index, params);
+                    String from = params.get("from");
+                    String to = params.get("to");
+                    if(!exchange.getHttpContext().getPath().equals("/dates") && (from != null || to != null)) {
+                        int fromDay = from == null ? Integer.MIN_VALUE : ScheduleEntry.toDay(from);
+                        int toDay = to == null ? Integer.MAX_VALUE : ScheduleEntry.toDay(to);
+                        result = ScheduleIndex.filterByDateRange(result, fromDay, toDay);
+                    }
+                    ScheduleJson.appendEntries(json, result);
+                }
+            }
+            catch(IllegalArgumentException e) {
+                status = 400;
+                json.setLength(0);
+                json.append("{\"error\":");
+                ScheduleJson.appendString(json, e.getMessage());
+                json.append('}');
+            }
+            catch(RuntimeException e) {
+                //Answer the request anyway, the exchange is otherwise dropped without a response.
+                status = 500;
+                json.setLength(0);
+                json.append("{\"error\":");
+                ScheduleJson.appendString(json, "Unable to answer the query: " + e);
+                json.append('}');
+                e.printStackTrace();
+            }
+
+            send(exchange, status, json);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, StringBuilder json) throws IOException {
+        byte[] body = json.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+        if(rawQuery == null) {
+            return params;
+        }
+        for(String pair : rawQuery.split("&")) {
+            int separatorIndex = pair.indexOf('=');
+            if(separatorIndex <= 0) {
+                continue;
+            }
+            params.put(URLDecoder.decode(pair.substring(0, separatorIndex), "UTF-8"),
+                    URLDecoder.decode(pair.substring(separatorIndex + 1), "UTF-8"));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the conversion of a chart across worker JVMs on this machine.
+ * <p>
+ * Each worker is started with the same java and class path as this JVM and connects back
+ * over a loopback socket. A worker extracts the schedule of its range of teacher rows and
+ * sends it back as a {@link ChartSnapshot}; the snapshots are merged here in the order of
+ * their rows. Each worker is then sent the entries of the teachers, coordinators and centers
+ * whose reports it writes, along with the coordinators and the largest entry of the whole
+ * schedule, while the consolidated and conflict reports are written here.
+ * <p>
+ * The conversation with a worker is a command followed by its reply, as below. Strings are
+ * written with writeUTF, lists as their size followed by their strings and snapshots as their
+ * length followed by their bytes.
+ * <pre>
+ * worker:      shard index
+ * EXTRACT      chart path        -> EXTRACTED snapshot | FAILED message
+ * WRITE_REPORTS output filename, largest entry, coordinators, snapshot -> REPORTS_WRITTEN | FAILED message
+ * QUIT
+ * </pre>
+ *
+ * @author psriniv
+ *
+ */
+class ShardCoordinator {
+
+    static interface Command {
+        static final int EXTRACT = 1;
+        static final int WRITE_REPORTS = 2;
+        static final int QUIT = 3;
+    }
+
+    static interface Reply {
+        static final int EXTRACTED = 1;
+        static final int REPORTS_WRITTEN = 2;
+        static final int FAILED = 3;
+    }
+
+    /** How long the workers get to start up and connect */
+    private static final int CONNECT_TIMEOUT_MILLIS = 120 * 1000;
+
+    private final int count;
+    private final List<Process> processes = new ArrayList<Process>();
+    private final Socket[] sockets;
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+
+    public ShardCoordinator(int count) {
+        this.count = count;
+        this.sockets = new Socket[count];
+        this.ins = new DataInputStream[count];
+        this.outs = new DataOutputStream[count];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Starts the workers and waits for all of them to connect. The workers set up their
+     * readers and writers with the given classes before schedule.properties is applied.
+     */
+    public void start(final String chartReaderClass, final String reportWriterClass,
+            final String jvmOptions) throws IOException {
+        ServerSocket server = new ServerSocket(0, count, InetAddress.getByName(null));
+        try {
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for(int shard = 0; shard < count; shard++) {
+                List<String> command = new ArrayList<String>();
+                command.add(java);
+                for(String option : jvmOptions.trim().split("\\s+")) {
+                    if(!"".equals(option)) {
+                        command.add(option);
+                    }
+                }
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(ShardWorker.class.getName());
+                command.add(String.valueOf(server.getLocalPort()));
+                command.add(String.valueOf(shard));
+                command.add(String.valueOf(count));
+                command.add(chartReaderClass);
+                command.add(reportWriterClass);
+
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.redirectErrorStream(true);
+                Process process = builder.start();
+                processes.add(process);
+                forwardOutput(process, shard);
+            }
+            System.out.println("Started " + count + " shard workers. Waiting for them on port: " + server.getLocalPort());
+
+            for(int connected = 0; connected < count; connected++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                int shard = in.readInt();
+                if(shard < 0 || shard >= count || sockets[shard] != null) {
+                    socket.close();
+                    throw new IOException("Unexpected shard worker: " + shard);
+                }
+                sockets[shard] = socket;
+                ins[shard] = in;
+                outs[shard] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            }
+        }
+        catch(IOException e) {
+            close();
+            throw e;
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Prints what a worker prints, marked with its shard.
+     */
+    private static void forwardOutput(final Process process, final int shard) {
+        Thread thread = new Thread("shard-output-" + shard) {
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                    String line;
+                    while((line = reader.readLine()) != null) {
+                        System.out.println("[shard " + shard + "] " + line);
+                    }
+                }
+                catch(IOException e) {
+                    //The worker is gone.
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Has each worker extract its range of teacher rows from the chart.
+     * Returns their schedules in the order of the rows.
+     */
+    public List<ChartSnapshot> extract(final File chart) throws IOException {
+        for(int shard = 0; shard < count; shard++) {
+            outs[shard].writeInt(Command.EXTRACT);
+            outs[shard].writeUTF(chart.getAbsolutePath());
+            outs[shard].flush();
+        }
+        List<ChartSnapshot> snapshots = new ArrayList<ChartSnapshot>(count);
+        for(int shard = 0; shard < count; shard++) {
+            awaitReply(shard, Reply.EXTRACTED);
+            ChartSnapshot snapshot = readSnapshot(ins[shard]);
+            if(snapshot == null) {
+                throw new IOException("Shard " + shard + " sent an unreadable schedule.");
+            }
+            snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Hands each worker the part of the schedule it needs to write its turn of the per entity reports.
+     * Returns without waiting for them; see {@link #awaitReports()}.
+     */
+    public void startReports(final ScheduleHelper sh, final String outputFilename) throws IOException {
+        ScheduleHelper.ReportShare[] shares = sh.shareEntities(count);
+        for(int shard = 0; shard < count; shard++) {
+            outs[shard].writeInt(Command.WRITE_REPORTS);
+            outs[shard].writeUTF(outputFilename);
+            outs[shard].writeInt(shares[shard].getMaxNumberOfPersons());
+            writeStrings(outs[shard], shares[shard].getCoordinators());
+            writeSnapshot(outs[shard], sh.toSnapshot(shares[shard]));
+            outs[shard].flush();
+        }
+    }
+
+    /**
+     * Waits for the workers to have written the reports they were handed.
+     */
+    public void awaitReports() throws IOException {
+        for(int shard = 0; shard < count; shard++) {
+            awaitReply(shard, Reply.REPORTS_WRITTEN);
+        }
+    }
+
+    private void awaitReply(final int shard, final int expected) throws IOException {
+        int reply;
+        try {
+            reply = ins[shard].readInt();
+        }
+        catch(EOFException e) {
+            throw new IOException("Shard worker " + shard + " exited unexpectedly.");
+        }
+        if(reply == Reply.FAILED) {
+            throw new IOException("Shard worker " + shard + " failed: " + ins[shard].readUTF());
+        }
+        if(reply != expected) {
+            throw new IOException("Unexpected reply from shard worker " + shard + ": " + reply);
+        }
+    }
+
+    /**
+     * Asks the workers to quit and waits for them to exit.
+     */
+    public void close() {
+        for(int shard = 0; shard < count; shard++) {
+            if(sockets[shard] == null) {
+                continue;
+            }
+            try {
+                outs[shard].writeInt(Command.QUIT);
+                outs[shard].flush();
+            }
+            catch(IOException e) {
+                //The worker is already gone.
+            }
+            try {
+                sockets[shard].close();
+            }
+            catch(IOException e) {
+                //Nothing more to do.
+            }
+        }
+        for(Process process : processes) {
+            try {
+                process.waitFor();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Returns the range of rows, from inclusive and to exclusive, of the given shard
+     * when the rows from startRow till endRow are split into count consecutive ranges.
+     */
+    static int[] getRowRange(final int startRow, final int endRow, final int shard, final int count) {
+        final long rows = Math.max(0, endRow - startRow);
+        return new int[] { startRow + (int) (rows * shard / count), startRow + (int) (rows * (shard + 1) / count) };
+    }
+
+    static byte[] toBytes(final ChartSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        snapshot.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void writeSnapshot(final DataOutputStream out, final ChartSnapshot snapshot) throws IOException {
+        byte[] bytes = toBytes(snapshot);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static ChartSnapshot readSnapshot(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return ChartSnapshot.read(ByteBuffer.wrap(bytes));
+    }
+
+    static void writeStrings(final DataOutputStream out, final List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for(String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    static List<String> readStrings(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        List<String> values = new ArrayList<String>(size);
+        for(int i = 0; i < size; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+}
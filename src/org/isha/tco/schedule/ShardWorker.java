@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+/**
+ * Entry point of a worker JVM started by a {@link ShardCoordinator}.
+ * <br>
+ * Arguments: coordinator port, shard index, shard count, chart reader class, report writer class.
+ *
+ * @author psriniv
+ *
+ */
+class ShardWorker {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 5) {
+            System.out.println("Expected: <coordinator port> <shard> <shards> <chart reader class> <report writer class>");
+            System.exit(1);
+        }
+        ChartReader chartReader = (ChartReader) Class.forName(args[3]).getDeclaredConstructor().newInstance();
+        ReportWriter reportWriter = (ReportWriter) Class.forName(args[4]).getDeclaredConstructor().newInstance();
+        new ScheduleEngine(chartReader, reportWriter)
+            .runShardWorker(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the places and their co-ordinators from the "Place Owner Table" sheet of the place
+ * owner workbook: the place in the second column, its sector co-ordinator in the third and,
+ * if they are filled, its zone and zonal co-ordinator in the fourth and fifth.
+ * <br>
+ * The mail addresses are read from the "Coordinator Email Table" sheet: the co-ordinator in
+ * the second column and the address in the third, like the Place Owner Table.
+ *
+ * @author psriniv
+ *
+ */
+class SpreadsheetPlaceOwnerSource implements PlaceOwnerSource {
+    private static final int PLACE_OWNER_START_ROW = 2;
+    private static final int PLACE_OWNER_START_COL = 1;
+    private static final String PLACE_OWNER_SHEET_NAME = "Place Owner Table";
+    private static final String COORDINATOR_EMAIL_SHEET_NAME = "Coordinator Email Table";
+    private static final int COORDINATOR_EMAIL_START_ROW = 2;
+    private static final int COORDINATOR_EMAIL_START_COL = 1;
+
+    private final ChartReader reader;
+    private final File placeOwnerFile;
+
+    public SpreadsheetPlaceOwnerSource(ChartReader reader, File placeOwnerFile) {
+        this.reader = reader;
+        this.placeOwnerFile = placeOwnerFile;
+    }
+
+    public List<PlaceOwner> load() throws IOException {
+        final ParsedInputCache cache = ParsedInputCache.getInstance();
+        @SuppressWarnings("unchecked")
+        List<PlaceOwner> cachedOwners = (List<PlaceOwner>) cache.get(ParsedInputCache.Kind.PLACE_OWNER, placeOwnerFile);
+        if(cachedOwners != null) {
+            return cachedOwners;
+        }
+
+        List<PlaceOwner> placeOwners = new ArrayList<PlaceOwner>();
+        ChartSheet placeOwnerSheet = reader.read(placeOwnerFile, PLACE_OWNER_SHEET_NAME);
+        if(placeOwnerSheet != null) {
+            processPlaceOwner(placeOwnerSheet, placeOwners);
+        }
+        else {
+            System.out.println("Warning: Unable to find Place Owner Table sheet. Owners will not be filled.");
+        }
+
+        long estimatedBytes = 64;
+        for(PlaceOwner placeOwner : placeOwners) {
+            estimatedBytes += 160 + 2L * (placeOwner.getPlace().length() + placeOwner.getOwner().length());
+        }
+        placeOwners = Collections.unmodifiableList(placeOwners);
+        cache.put(ParsedInputCache.Kind.PLACE_OWNER, placeOwnerFile, placeOwners, estimatedBytes);
+        return placeOwners;
+    }
+
+    public Map<String, String> loadAddresses() throws IOException {
+        Map<String, String> addresses = new LinkedHashMap<String, String>();
+        ChartSheet sheet = reader.read(placeOwnerFile, COORDINATOR_EMAIL_SHEET_NAME);
+        if(sheet == null) {
+            System.out.println("Warning: Unable to find " + COORDINATOR_EMAIL_SHEET_NAME + " sheet in: " + placeOwnerFile);
+            return addresses;
+        }
+        final int MAX_ROW = sheet.getLastRowNum();
+        for(int row = COORDINATOR_EMAIL_START_ROW; row <= MAX_ROW; row++) {
+            String coordinator = sheet.getStringCellValue(row, COORDINATOR_EMAIL_START_COL);
+            String address = sheet.getStringCellValue(row, COORDINATOR_EMAIL_START_COL + 1);
+            if(coordinator == null || address == null || "".equals(coordinator.trim()) || "".equals(address.trim())) {
+                continue;
+            }
+            addresses.put(coordinator.trim(), address.trim());
+        }
+        return addresses;
+    }
+
+    private static void processPlaceOwner(final ChartSheet placeOwnerSheet, final List<PlaceOwner> placeOwners) {
+        final int MAX_ROW = placeOwnerSheet.getLastRowNum();
+        for(int row = PLACE_OWNER_START_ROW; row < MAX_ROW; row++) {
+            String place = placeOwnerSheet.getStringCellValue(row, PLACE_OWNER_START_COL);
+            String owner = placeOwnerSheet.getStringCellValue(row, PLACE_OWNER_START_COL + 1);
+            if(place == null || owner == null) {
+                continue;
+            }
+            placeOwners.add(new PlaceOwner(place, owner.trim(), 
+                    getOptionalValue(placeOwnerSheet, row, PLACE_OWNER_START_COL + 2),
+                    getOptionalValue(placeOwnerSheet, row, PLACE_OWNER_START_COL + 3)));
+        }
+    }
+
+    /**
+     * Returns the trimmed value of the cell, or null if it is empty.
+     */
+    private static String getOptionalValue(final ChartSheet sheet, final int row, final int col) {
+        String value = sheet.getStringCellValue(row, col);
+        return value == null || "".equals(value.trim()) ? null : value.trim();
+    }
+}
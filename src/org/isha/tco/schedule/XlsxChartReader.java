@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Streams .xlsx workbooks with {@link XlsxChartSheet} and hands everything else, and any
+ * workbook it fails on, to another reader.
+ *
+ * @author psriniv
+ *
+ */
+class XlsxChartReader implements ChartReader {
+
+    private final ChartReader fallback;
+
+    public XlsxChartReader(ChartReader fallback) {
+        this.fallback = fallback;
+    }
+
+    public ChartSheet read(File file, String sheetName) throws IOException {
+        if(isXlsx(file)) {
+            try {
+                return XlsxChartSheet.read(file, sheetName);
+            }
+            catch(Exception e) {
+                System.out.println("Warn: Unable to stream " + file + " (" + e.getMessage() + "). Reading it with " +
+                        fallback.getClass().getSimpleName() + " instead.");
+                if(ScheduleEngine.isDebug) e.printStackTrace();
+            }
+        }
+        return fallback.read(file, sheetName);
+    }
+
+    public Map<String, ChartSheet> read(File file, SheetFilter filter) throws IOException {
+        if(isXlsx(file)) {
+            try {
+                return XlsxChartSheet.read(file, filter);
+            }
+            catch(Exception e) {
+                System.out.println("Warn: Unable to stream " + file + " (" + e.getMessage() + "). Reading it with " +
+                        fallback.getClass().getSimpleName() + " instead.");
+                if(ScheduleEngine.isDebug) e.printStackTrace();
+            }
+        }
+        return fallback.read(file, filter);
+    }
+
+    private static boolean isXlsx(final File file) {
+        final String name = file.getName().toLowerCase();
+        return name.endsWith(".xlsx") || name.endsWith(".xlsm");
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the Chart sheet of an .xlsx workbook straight from the zip with StAX.
+ * <p>
+ * Only what the conversion needs is read: the shared strings, the number formats that
+ * tell dates apart from numbers, the cells of the sheet and its merged regions. This
+ * avoids loading the OOXML schema classes that POI needs for .xlsx, which take longer
+ * to load than the chart takes to read.
+ *
+ * @author psriniv
+ *
+ */
+class XlsxChartSheet implements ChartSheet {
+
+    private static final String OFFICE_DOCUMENT_RELATION = "/officeDocument";
+    private static final String SHARED_STRINGS_RELATION = "/sharedStrings";
+    private static final String STYLES_RELATION = "/styles";
+    private static final long DAY_MILLISECONDS = 24L * 60 * 60 * 1000;
+
+    /** Matches what is left of a date format after the literals are removed, as POI does */
+    private static final Pattern DATE_FORMAT_PATTERN = Pattern.compile("^[yYmMdDhHsS\\-/,. :]+[ampAMP/]*$");
+    private static final Pattern DATE_FORMAT_LITERALS = Pattern.compile("\"[^\"]*\"|\\\\.|\\[[^\\]]*\\]|_.|\\*.");
+
+    private static final int STRING = 0;
+    private static final int NUMERIC = 1;
+    private static final int FORMULA = 2;
+    private static final int OTHER = 3;
+
+    private final List<CellValue[]> rows = new ArrayList<CellValue[]>();
+    private final List<Region> mergedRegions = new ArrayList<Region>();
+    private int lastRowNum;
+
+    private XlsxChartSheet() {
+        //Use read()
+    }
+
+    /**
+     * Reads the sheet with the given name (ignoring case) from the given workbook.
+     */
+    public static XlsxChartSheet read(File file, String sheetName) throws IOException {
+        Map<String, ChartSheet> sheets = read(file, new ChartReader.SheetFilter(Collections.singletonList(sheetName), null));
+        if(sheets.isEmpty()) {
+            throw new IOException("Unable to find the sheet: " + sheetName + " in " + file);
+        }
+        return (XlsxChartSheet) sheets.values().iterator().next();
+    }
+
+    /**
+     * Reads the sheets that the filter accepts from the given workbook, by name in the order
+     * of the workbook. The shared strings and styles are read once for all of them.
+     */
+    public static Map<String, ChartSheet> read(File file, ChartReader.SheetFilter filter) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+            Map<String, String> rootRelations = readRelations(zip, factory, "", "_rels/.rels", null);
+            String workbookPath = rootRelations.get(OFFICE_DOCUMENT_RELATION);
+            if(workbookPath == null) {
+                throw new IOException("Not an .xlsx workbook: " + file);
+            }
+            String workbookFolder = workbookPath.substring(0, workbookPath.lastIndexOf('/') + 1);
+            String workbookRelationsPath = workbookFolder + "_rels/" + workbookPath.substring(workbookFolder.length()) + ".rels";
+            Map<String, String> sheetRelations = new HashMap<String, String>();
+            Map<String, String> workbookRelations = readRelations(zip, factory, workbookFolder, workbookRelationsPath, sheetRelations);
+
+            boolean[] date1904 = new boolean[1];
+            Map<String, String> sheetIds = readSheetIds(zip, factory, workbookPath, filter, date1904);
+            Map<String, ChartSheet> sheets = new LinkedHashMap<String, ChartSheet>();
+            if(sheetIds.isEmpty()) {
+                return sheets;
+            }
+
+            List<String> sharedStrings = readSharedStrings(zip, factory, workbookRelations.get(SHARED_STRINGS_RELATION));
+            Set<Integer> dateStyles = readDateStyles(zip, factory, workbookRelations.get(STYLES_RELATION));
+
+            for(Map.Entry<String, String> sheetId : sheetIds.entrySet()) {
+                String sheetPath = sheetRelations.get(sheetId.getValue());
+                if(sheetPath == null) {
+                    throw new IOException("Unable to find the sheet: " + sheetId.getKey() + " in " + file);
+                }
+                XlsxChartSheet sheet = new XlsxChartSheet();
+                sheet.readSheet(zip, factory, sheetPath, sharedStrings, dateStyles, date1904[0]);
+                sheets.put(sheetId.getKey(), sheet);
+            }
+            return sheets;
+        }
+        catch(XMLStreamException e) {
+            IOException ioe = new IOException("Unable to read " + file + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+        finally {
+            zip.close();
+        }
+    }
+
+    public int getLastRowNum() {
+        return lastRowNum;
+    }
+
+    public int getLastCellNum(int row) {
+        CellValue[] cells = getRow(row);
+        return cells == null ? -1 : cells.length;
+    }
+
+    public String getStringCellValue(int row, int col) {
+        CellValue cell = getCell(row, col);
+        if(cell == null) {
+            return null;
+        }
+        switch(cell.type) {
+        case STRING:
+            return cell.text;
+        case FORMULA:
+            if(cell.text != null) {
+                return cell.text;
+            }
+            //A numeric result, which POI does not return as text either.
+            throw new IllegalStateException("Cannot get a text value from a numeric cell at: [" + col + ", " + row + "]");
+        case NUMERIC:
+            throw new IllegalStateException("Cannot get a text value from a numeric cell at: [" + col + ", " + row + "]");
+        default:
+            return "";
+        }
+    }
+
+    public String getCellValue(int row, int col, DateFormat dateFormat) {
+        CellValue cell = getCell(row, col);
+        if(cell == null) {
+            return "";
+        }
+        switch(cell.type) {
+        case STRING:
+            return cell.text;
+        case NUMERIC:
+            if(cell.isDate && cell.number >= 0) {
+                return dateFormat.format(cell.date.getTime());
+            }
+            return String.valueOf((int) cell.number);
+        default:
+            return "";
+        }
+    }
+
+    public List<Region> getMergedRegions() {
+        return Collections.unmodifiableList(mergedRegions);
+    }
+
+    private CellValue[] getRow(int row) {
+        return row >= 0 && row < rows.size() ? rows.get(row) : null;
+    }
+
+    private CellValue getCell(int row, int col) {
+        CellValue[] cells = getRow(row);
+        return cells == null || col < 0 || col >= cells.length ? null : cells[col];
+    }
+
+    private void readSheet(ZipFile zip, XMLInputFactory factory, String path, List<String> sharedStrings,
+            Set<Integer> dateStyles, boolean date1904) throws IOException, XMLStreamException {
+        InputStream in = open(zip, path);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            List<CellValue> rowCells = null;
+            int row = -1;
+            int col = -1;
+            String type = null;
+            int style = 0;
+            boolean hasFormula = false;
+            String value = null;
+            StringBuilder inlineText = null;
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if("row".equals(name)) {
+                        String ref = reader.getAttributeValue(null, "r");
+                        row = ref == null ? row + 1 : Integer.parseInt(ref) - 1;
+                        col = -1;
+                        rowCells = new ArrayList<CellValue>();
+                    }
+                    else if("c".equals(name)) {
+                        String ref = reader.getAttributeValue(null, "r");
+                        col = ref == null ? col + 1 : parseColumn(ref);
+                        type = reader.getAttributeValue(null, "t");
+                        String styleIndex = reader.getAttributeValue(null, "s");
+                        style = styleIndex == null ? 0 : Integer.parseInt(styleIndex);
+                        hasFormula = false;
+                        value = null;
+                        inlineText = null;
+                    }
+                    else if("f".equals(name)) {
+                        hasFormula = true;
+                    }
+                    else if("v".equals(name)) {
+                        value = reader.getElementText();
+                    }
+                    else if("is".equals(name)) {
+                        inlineText = new StringBuilder();
+                        readText(reader, "is", inlineText);
+                    }
+                    else if("mergeCell".equals(name)) {
+                        String ref = reader.getAttributeValue(null, "ref");
+                        int separatorIndex = ref.indexOf(':');
+                        String topLeft = separatorIndex < 0 ? ref : ref.substring(0, separatorIndex);
+                        String bottomRight = separatorIndex < 0 ? ref : ref.substring(separatorIndex + 1);
+                        mergedRegions.add(new Region(parseColumn(topLeft), parseRow(topLeft),
+                                parseColumn(bottomRight), parseRow(bottomRight)));
+                    }
+                }
+                else if(event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if("c".equals(name)) {
+                        while(rowCells.size() <= col) {
+                            rowCells.add(null);
+                        }
+                        rowCells.set(col, toCellValue(type, style, hasFormula, value, inlineText,
+                                sharedStrings, dateStyles, date1904));
+                    }
+                    else if("row".equals(name)) {
+                        while(rows.size() <= row) {
+                            rows.add(null);
+                        }
+                        rows.set(row, rowCells.toArray(new CellValue[rowCells.size()]));
+                        lastRowNum = Math.max(lastRowNum, row);
+                    }
+                }
+            }
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+    }
+
+    private static CellValue toCellValue(String type, int style, boolean hasFormula, String value,
+            StringBuilder inlineText, List<String> sharedStrings, Set<Integer> dateStyles, boolean date1904) {
+        if("s".equals(type)) {
+            return new CellValue(STRING, sharedStrings.get(Integer.parseInt(value.trim())));
+        }
+        if("inlineStr".equals(type)) {
+            return new CellValue(STRING, inlineText == null ? "" : inlineText.toString());
+        }
+        if("str".equals(type)) {
+            return new CellValue(FORMULA, value == null ? "" : value);
+        }
+        if(type != null && !"n".equals(type)) {
+            //Booleans and errors.
+            return new CellValue(OTHER, null);
+        }
+        if(hasFormula) {
+            return new CellValue(FORMULA, null);
+        }
+        if(value == null || "".equals(value.trim())) {
+            //A blank cell that only has a style.
+            return new CellValue(STRING, "");
+        }
+        CellValue cell = new CellValue(NUMERIC, null);
+        cell.number = Double.parseDouble(value.trim());
+        cell.isDate = dateStyles.contains(style);
+        if(cell.isDate && cell.number >= 0) {
+            cell.date = toCalendar(cell.number, date1904);
+        }
+        return cell;
+    }
+
+    /**
+     * Converts an Excel serial date to a date in the default time zone, the way POI does.
+     */
+    private static Calendar toCalendar(double serialDate, boolean date1904) {
+        int wholeDays = (int) Math.floor(serialDate);
+        int millisecondsInDay = (int) ((serialDate - wholeDays) * DAY_MILLISECONDS + 0.5);
+        int startYear = 1900;
+        //Excel thinks 29/Feb/1900 is a valid date, which it isn't.
+        int dayAdjust = -1;
+        if(date1904) {
+            startYear = 1904;
+            dayAdjust = 1;
+        }
+        else if(wholeDays < 61) {
+            dayAdjust = 0;
+        }
+        Calendar calendar = new GregorianCalendar();
+        calendar.set(startYear, 0, wholeDays + dayAdjust, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, millisecondsInDay);
+        return calendar;
+    }
+
+    /**
+     * Reads the relationships in the given part, keyed by the end of their type.
+     * Worksheet relationships are put into the sheet relations by id when asked for.
+     */
+    private static Map<String, String> readRelations(ZipFile zip, XMLInputFactory factory, String baseFolder,
+            String path, Map<String, String> sheetRelations) throws IOException, XMLStreamException {
+        Map<String, String> relations = new HashMap<String, String>();
+        InputStream in = open(zip, path);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT && "Relationship".equals(reader.getLocalName())) {
+                    String type = reader.getAttributeValue(null, "Type");
+                    String target = reader.getAttributeValue(null, "Target");
+                    String targetPath = target.startsWith("/") ? target.substring(1) : baseFolder + target;
+                    String relation = type.substring(type.lastIndexOf('/'));
+                    relations.put(relation, targetPath);
+                    if(sheetRelations != null && "/worksheet".equals(relation)) {
+                        sheetRelations.put(reader.getAttributeValue(null, "Id"), targetPath);
+                    }
+                }
+            }
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+        return relations;
+    }
+
+    /**
+     * Returns the relationship ids of the sheets the filter accepts by their names, and whether
+     * the workbook uses the 1904 date system.
+     */
+    private static Map<String, String> readSheetIds(ZipFile zip, XMLInputFactory factory, String workbookPath, 
+            ChartReader.SheetFilter filter, boolean[] date1904) throws IOException, XMLStreamException {
+        Map<String, String> sheetIds = new LinkedHashMap<String, String>();
+        InputStream in = open(zip, workbookPath);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            while(reader.hasNext()) {
+                if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if("workbookPr".equals(name)) {
+                    String value = reader.getAttributeValue(null, "date1904");
+                    date1904[0] = "1".equals(value) || "true".equalsIgnoreCase(value);
+                }
+                else if("sheet".equals(name)) {
+                    String sheetName = reader.getAttributeValue(null, "name");
+                    if(sheetName == null || !filter.accepts(sheetName)) {
+                        continue;
+                    }
+                    for(int i = 0; i < reader.getAttributeCount(); i++) {
+                        if("id".equals(reader.getAttributeLocalName(i))) {
+                            sheetIds.put(sheetName, reader.getAttributeValue(i));
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+        return sheetIds;
+    }
+
+    private static List<String> readSharedStrings(ZipFile zip, XMLInputFactory factory, String path)
+    throws IOException, XMLStreamException {
+        List<String> sharedStrings = new ArrayList<String>();
+        if(path == null) {
+            return sharedStrings;
+        }
+        InputStream in = open(zip, path);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            while(reader.hasNext()) {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT && "si".equals(reader.getLocalName())) {
+                    StringBuilder text = new StringBuilder();
+                    readText(reader, "si", text);
+                    sharedStrings.add(text.toString());
+                }
+            }
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+        return sharedStrings;
+    }
+
+    /**
+     * Appends the text runs up to the end of the given element, leaving out phonetic runs.
+     */
+    private static void readText(XMLStreamReader reader, String element, StringBuilder text) throws XMLStreamException {
+        int phoneticDepth = 0;
+        while(reader.hasNext()) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if("rPh".equals(name)) {
+                    phoneticDepth++;
+                }
+                else if("t".equals(name) && phoneticDepth == 0) {
+                    text.append(reader.getElementText());
+                }
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+                if("rPh".equals(name)) {
+                    phoneticDepth--;
+                }
+                else if(element.equals(name)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes of the cell styles that format numbers as dates.
+     */
+    private static Set<Integer> readDateStyles(ZipFile zip, XMLInputFactory factory, String path)
+    throws IOException, XMLStreamException {
+        Set<Integer> dateStyles = new HashSet<Integer>();
+        if(path == null) {
+            return dateStyles;
+        }
+        Map<Integer, String> formats = new HashMap<Integer, String>();
+        InputStream in = open(zip, path);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            boolean inCellFormats = false;
+            int style = 0;
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if("numFmt".equals(name)) {
+                        formats.put(Integer.valueOf(reader.getAttributeValue(null, "numFmtId")),
+                                reader.getAttributeValue(null, "formatCode"));
+                    }
+                    else if("cellXfs".equals(name)) {
+                        inCellFormats = true;
+                    }
+                    else if("xf".equals(name) && inCellFormats) {
+                        String formatId = reader.getAttributeValue(null, "numFmtId");
+                        int id = formatId == null ? 0 : Integer.parseInt(formatId);
+                        if(isDateFormat(id, formats.get(id))) {
+                            dateStyles.add(style);
+                        }
+                        style++;
+                    }
+                }
+                else if(event == XMLStreamConstants.END_ELEMENT && "cellXfs".equals(reader.getLocalName())) {
+                    inCellFormats = false;
+                }
+            }
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+        return dateStyles;
+    }
+
+    private static boolean isDateFormat(int formatId, String formatCode) {
+        //The built in date formats.
+        if((formatId >= 14 && formatId <= 22) || (formatId >= 45 && formatId <= 47)) {
+            return true;
+        }
+        if(formatCode == null) {
+            return false;
+        }
+        String format = formatCode;
+        int sectionEnd = format.indexOf(';');
+        if(sectionEnd >= 0) {
+            format = format.substring(0, sectionEnd);
+        }
+        format = DATE_FORMAT_LITERALS.matcher(format).replaceAll("");
+        return DATE_FORMAT_PATTERN.matcher(format).matches();
+    }
+
+    private static InputStream open(ZipFile zip, String path) throws IOException {
+        ZipEntry entry = zip.getEntry(path);
+        if(entry == null) {
+            throw new IOException("Missing part: " + path);
+        }
+        return zip.getInputStream(entry);
+    }
+
+    /**
+     * Returns the 0 based column of a cell reference like AB12.
+     */
+    private static int parseColumn(String ref) {
+        int col = 0;
+        for(int i = 0; i < ref.length(); i++) {
+            char c = Character.toUpperCase(ref.charAt(i));
+            if(c < 'A' || c > 'Z') {
+                break;
+            }
+            col = col * 26 + (c - 'A' + 1);
+        }
+        return col - 1;
+    }
+
+    /**
+     * Returns the 0 based row of a cell reference like AB12.
+     */
+    private static int parseRow(String ref) {
+        int i = 0;
+        while(i < ref.length() && Character.isLetter(ref.charAt(i))) {
+            i++;
+        }
+        return Integer.parseInt(ref.substring(i)) - 1;
+    }
+
+    private static class CellValue {
+        private final int type;
+        private final String text;
+        private double number;
+        private boolean isDate;
+        private Calendar date;
+
+        public CellValue(int type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+}
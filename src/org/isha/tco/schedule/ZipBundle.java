@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A zip archive that is written entry by entry, with the entries compressed beforehand.
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} compresses each entry as it is written, so only one
+ * entry can be compressed at a time. Here {@link #compress(String, ByteBuffer)} can be called
+ * on any thread, and the compressed entries are then appended in order with
+ * {@link #write(Entry)}. An entry that does not get smaller is stored as it is.
+ * <p>
+ * The archive is limited to what a zip without the Zip64 extensions holds: 65535 entries
+ * and 4GB.
+ *
+ * @author psriniv
+ *
+ */
+class ZipBundle {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final short VERSION = 20;
+    /** The names are in UTF-8 */
+    private static final short UTF8_NAMES = 0x0800;
+    private static final short STORED = 0;
+    private static final short DEFLATED = 8;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final long MAX_OFFSET = 0xFFFFFFFFL;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * An entry ready to be appended to the archive.
+     */
+    static class Entry {
+        private final byte[] name;
+        private final short method;
+        private final int crc;
+        private final int size;
+        private final int compressedSize;
+        /** The compressed bytes, let go of once written */
+        private ByteBuffer data;
+        /** Where its local header is, once written */
+        private long offset;
+
+        private Entry(byte[] name, short method, int crc, int size, ByteBuffer data) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = data.remaining();
+            this.data = data;
+        }
+    }
+
+    private final File file;
+    private final FileOutputStream fos;
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final short dosTime;
+    private final short dosDate;
+    private long position;
+
+    public ZipBundle(File file) throws IOException {
+        this.file = file;
+        this.fos = new FileOutputStream(file);
+        this.channel = fos.getChannel();
+        //All the entries are stamped with the time the bundle is started.
+        Calendar now = Calendar.getInstance();
+        this.dosTime = (short) (now.get(Calendar.HOUR_OF_DAY) << 11 | now.get(Calendar.MINUTE) << 5 | now.get(Calendar.SECOND) >> 1);
+        this.dosDate = (short) ((now.get(Calendar.YEAR) - 1980) << 9 | (now.get(Calendar.MONTH) + 1) << 5 | now.get(Calendar.DAY_OF_MONTH));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Compresses the bytes of an entry with the given path. Safe to call from any thread.
+     */
+    public static Entry compress(final String name, final ByteBuffer bytes) {
+        final int size = bytes.remaining();
+        byte[] input;
+        int inputOffset;
+        if(bytes.hasArray()) {
+            input = bytes.array();
+            inputOffset = bytes.arrayOffset() + bytes.position();
+        }
+        else {
+            input = new byte[size];
+            bytes.duplicate().get(input);
+            inputOffset = 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(input, inputOffset, size);
+
+        //Raw deflate, as a zip entry has no zlib header.
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] compressed = new byte[Math.max(64, size / 2)];
+        int compressedSize = 0;
+        try {
+            deflater.setInput(input, inputOffset, size);
+            deflater.finish();
+            while(!deflater.finished() && compressedSize < size) {
+                if(compressedSize == compressed.length) {
+                    byte[] grown = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, grown, 0, compressedSize);
+                    compressed = grown;
+                }
+                compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+
+        byte[] nameBytes = name.getBytes(UTF8);
+        if(compressedSize >= size) {
+            return new Entry(nameBytes, STORED, (int) crc.getValue(), size, ByteBuffer.wrap(input, inputOffset, size));
+        }
+        return new Entry(nameBytes, DEFLATED, (int) crc.getValue(), size, ByteBuffer.wrap(compressed, 0, compressedSize));
+    }
+
+    /**
+     * Appends an entry after those already written.
+     */
+    public void write(final Entry entry) throws IOException {
+        if(entries.size() == MAX_ENTRIES) {
+            throw new IOException("Too many reports for a zip bundle: " + file);
+        }
+        if(position + LOCAL_HEADER_SIZE + entry.name.length + entry.compressedSize > MAX_OFFSET) {
+            throw new IOException("Reports too large for a zip bundle: " + file);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER);
+        header.putShort(VERSION);
+        header.putShort(UTF8_NAMES);
+        header.putShort(entry.method);
+        header.putShort(dosTime);
+        header.putShort(dosDate);
+        header.putInt(entry.crc);
+        header.putInt(entry.compressedSize);
+        header.putInt(entry.size);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) 0);
+        header.put(entry.name);
+        header.flip();
+
+        entry.offset = position;
+        position += writeFully(header) + writeFully(entry.data);
+        //Only the header fields are kept for the central directory.
+        entry.data = null;
+        entries.add(entry);
+    }
+
+    private int writeFully(final ByteBuffer bytes) throws IOException {
+        int written = 0;
+        while(bytes.hasRemaining()) {
+            written += channel.write(bytes);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     */
+    public void close() throws IOException {
+        try {
+            final long directoryOffset = position;
+            for(Entry entry : entries) {
+                ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(CENTRAL_HEADER);
+                header.putShort(VERSION);
+                header.putShort(VERSION);
+                header.putShort(UTF8_NAMES);
+                header.putShort(entry.method);
+                header.putShort(dosTime);
+                header.putShort(dosDate);
+                header.putInt(entry.crc);
+                header.putInt(entry.compressedSize);
+                header.putInt(entry.size);
+                header.putShort((short) entry.name.length);
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putInt(0);
+                header.putInt((int) entry.offset);
+                header.put(entry.name);
+                header.flip();
+                position += writeFully(header);
+            }
+            if(position > MAX_OFFSET) {
+                throw new IOException("Reports too large for a zip bundle: " + file);
+            }
+
+            ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_OF_CENTRAL_DIRECTORY);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) entries.size());
+            end.putShort((short) entries.size());
+            end.putInt((int) (position - directoryOffset));
+            end.putInt((int) directoryOffset);
+            end.putShort((short) 0);
+            end.flip();
+            writeFully(end);
+        }
+        finally {
+            fos.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Fills the place owner tables of an embedded database and checks that
+ * {@link JdbcPlaceOwnerSource}, set up from the properties as the converter does, reads them
+ * back: the owners and zones, the mail addresses, the rows that are skipped and the rows
+ * that are kept for the rest of the run.
+ * <p>
+ * Any database with a JDBC driver that creates an in-memory database from its URL will do.
+ * H2 is the default, e.g.<br>
+ * javac -d build/tools -cp "lib/*" src/org/isha/tco/schedule/*.java tools/org/isha/tco/schedule/*.java<br>
+ * java -cp "build/tools:lib/*:h2.jar" org.isha.tco.schedule.PlaceOwnerDatabaseCheck
+ * <br>
+ * Arguments: [driver url], e.g. org.apache.derby.jdbc.EmbeddedDriver "jdbc:derby:memory:owners;create=true"
+ * for Derby. Exits with 1 if a check fails.
+ *
+ * @author psriniv
+ *
+ */
+class PlaceOwnerDatabaseCheck {
+
+    private static final String DEFAULT_DRIVER = "org.h2.Driver";
+    /** kept open till the JVM exits, as the source connects afresh for each query */
+    private static final String DEFAULT_URL = "jdbc:h2:mem:place_owner_check;DB_CLOSE_DELAY=-1";
+
+    private final String driver;
+    private final String url;
+    private final List<String> problems = new ArrayList<String>();
+
+    public PlaceOwnerDatabaseCheck(String driver, String url) {
+        this.driver = driver;
+        this.url = url;
+    }
+
+    private void createTables() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.executeUpdate("CREATE TABLE place_owner (place VARCHAR(64), owner VARCHAR(64), " +
+                        "zone VARCHAR(64), zonal_coordinator VARCHAR(64))");
+                statement.executeUpdate("INSERT INTO place_owner VALUES ('Chennai / Adyar', ' Meena ', 'South', 'Arun')");
+                statement.executeUpdate("INSERT INTO place_owner VALUES ('Delhi', 'Sita', '  ', NULL)");
+                statement.executeUpdate("INSERT INTO place_owner VALUES ('Pune', NULL, 'West', 'Kumar')");
+                statement.executeUpdate("CREATE TABLE coordinator_email (coordinator VARCHAR(64), email VARCHAR(64))");
+                statement.executeUpdate("INSERT INTO coordinator_email VALUES ('Meena', ' meena@example.org ')");
+                statement.executeUpdate("INSERT INTO coordinator_email VALUES ('Sita', '')");
+                statement.executeUpdate("INSERT INTO coordinator_email VALUES ('Arun', 'arun@example.org')");
+            }
+            finally {
+                statement.close();
+            }
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    private void insertPlace(String place, String owner) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.executeUpdate("INSERT INTO place_owner (place, owner) VALUES ('" + place + "', '" + owner + "')");
+            }
+            finally {
+                statement.close();
+            }
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the properties that point the place owners at the database, with the given query
+     * if it is not null.
+     */
+    private ResourceBundle getProperties(final String query) {
+        final List<Object[]> contents = new ArrayList<Object[]>();
+        contents.add(new Object[] { ScheduleEngine.ConfigKey.PLACE_OWNER_SOURCE, PlaceOwnerHelper.Source.JDBC });
+        contents.add(new Object[] { ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_DRIVER, driver });
+        contents.add(new Object[] { ScheduleEngine.ConfigKey.PLACE_OWNER_JDBC_URL, url });
+        if(query != null) {
+            contents.add(new Object[] { ScheduleEngine.ConfigKey.PLACE_OWNER_QUERY, query });
+        }
+        return new ListResourceBundle() {
+            protected Object[][] getContents() {
+                return contents.toArray(new Object[contents.size()][]);
+            }
+        };
+    }
+
+    private void expect(String what, Object expected, Object actual) {
+        if(expected == null ? actual != null : !expected.equals(actual)) {
+            problems.add(what + ": " + actual + " instead of " + expected);
+        }
+    }
+
+    /**
+     * Runs the checks and returns the problems found.
+     */
+    public List<String> check() throws Exception {
+        Class.forName(driver);
+        createTables();
+
+        PlaceOwnerSource source = PlaceOwnerHelper.createSource(getProperties(null), null);
+        if(!(source instanceof JdbcPlaceOwnerSource)) {
+            problems.add("Expected the database to be the source, found: " + source);
+            return problems;
+        }
+        List<PlaceOwner> placeOwners = source.load();
+        expect("Places read", 2, placeOwners.size());
+
+        PlaceOwnerHelper poh = new PlaceOwnerHelper(source);
+        expect("Owner of chennai / adyar", "Meena", poh.getOwner("chennai / adyar"));
+        expect("Zone of Chennai / Adyar", "South", poh.getZone("Chennai / Adyar"));
+        expect("Zonal co-ordinator of Chennai / Adyar", "Arun", poh.getZonalCoordinator("Chennai / Adyar"));
+        expect("Owner of Delhi", "Sita", poh.getOwner("Delhi"));
+        expect("Blank zone of Delhi", null, poh.getZone("Delhi"));
+        expect("Owner of Pune, which has none", null, poh.getOwner("Pune"));
+
+        Map<String, String> addresses = source.loadAddresses();
+        expect("Addresses", "{Meena=meena@example.org, Arun=arun@example.org}", addresses.toString());
+
+        //The rows are read once per JVM for each database and query.
+        insertPlace("Mumbai", "Kumar");
+        expect("Places read again", 2, PlaceOwnerHelper.createSource(getProperties(null), null).load().size());
+
+        //A query of two columns has no zones, and is read afresh as it is another query.
+        PlaceOwnerHelper ownersOnly = new PlaceOwnerHelper(
+                PlaceOwnerHelper.createSource(getProperties("SELECT place, owner FROM place_owner"), null));
+        expect("Owner of Mumbai by another query", "Kumar", ownersOnly.getOwner("Mumbai"));
+        expect("Zone of Chennai / Adyar by a query without zones", null, ownersOnly.getZone("Chennai / Adyar"));
+        return problems;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 0 && args.length != 2) {
+            System.out.println("Expected: [<driver> <url>]");
+            System.exit(1);
+        }
+        List<String> problems = args.length == 2 ? new PlaceOwnerDatabaseCheck(args[0], args[1]).check() :
+            new PlaceOwnerDatabaseCheck(DEFAULT_DRIVER, DEFAULT_URL).check();
+        System.out.println("Place owners from the database: " + (problems.isEmpty() ? "OK" : problems.toString()));
+        System.exit(problems.isEmpty() ? 0 : 1);
+    }
+}
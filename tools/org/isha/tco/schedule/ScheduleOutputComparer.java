@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.File;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the reports in two output directories cell by cell, to check that a change to the
+ * converter leaves its outputs as they were. See compare_outputs.sh.
+ * <p>
+ * Every workbook under one directory has to be under the other at the same path, with the
+ * same sheets, and in each sheet the same rows, cell values and merged regions. Dates are
+ * compared as they read in the output date format, so a date written as text and one written
+ * as a date cell are the same.
+ * <p>
+ * It is a test harness and is kept out of the converter; compare_outputs.sh compiles it.
+ * <br>
+ * Arguments: expected output directory, actual output directory. Exits with 1 if they differ.
+ *
+ * @author psriniv
+ *
+ */
+class ScheduleOutputComparer {
+
+    /** Differences printed for a single workbook */
+    private static final int MAX_DIFFERENCES_PER_FILE = 10;
+
+    private final ChartReader reader;
+    private final DateFormat dateFormat = new SimpleDateFormat("dd-MMM-yyyy");
+    private final ChartReader.SheetFilter allSheets =
+        new ChartReader.SheetFilter(Collections.<String>emptyList(), Pattern.compile(".*", Pattern.DOTALL));
+
+    public ScheduleOutputComparer(ChartReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Compares the workbooks under the two directories and returns the differences found.
+     */
+    public List<String> compare(final File expectedFolder, final File actualFolder) throws Exception {
+        List<String> differences = new ArrayList<String>();
+        TreeSet<String> expected = new TreeSet<String>();
+        TreeSet<String> actual = new TreeSet<String>();
+        listWorkbooks(expectedFolder, "", expected);
+        listWorkbooks(actualFolder, "", actual);
+
+        for(String path : expected) {
+            if(!actual.contains(path)) {
+                differences.add(path + ": missing");
+            }
+        }
+        for(String path : actual) {
+            if(!expected.contains(path)) {
+                differences.add(path + ": not expected");
+            }
+        }
+        int compared = 0;
+        for(String path : expected) {
+            if(actual.contains(path)) {
+                compareWorkbooks(path, new File(expectedFolder, path), new File(actualFolder, path), differences);
+                compared++;
+            }
+        }
+        System.out.println("Compared " + compared + " workbooks.");
+        return differences;
+    }
+
+    private static void listWorkbooks(final File folder, final String prefix, final TreeSet<String> paths) {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            final String name = file.getName().toLowerCase();
+            if(file.isDirectory()) {
+                listWorkbooks(file, prefix + file.getName() + "/", paths);
+            }
+            else if(name.endsWith(".xls") || name.endsWith(".xlsx")) {
+                paths.add(prefix + file.getName());
+            }
+        }
+    }
+
+    private void compareWorkbooks(final String path, final File expectedFile, final File actualFile,
+            final List<String> differences) throws Exception {
+        final int differencesBefore = differences.size();
+        Map<String, ChartSheet> expectedSheets = reader.read(expectedFile, allSheets);
+        Map<String, ChartSheet> actualSheets = reader.read(actualFile, allSheets);
+        if(!expectedSheets.keySet().toString().equals(actualSheets.keySet().toString())) {
+            differences.add(path + ": sheets " + actualSheets.keySet() + " instead of " + expectedSheets.keySet());
+            return;
+        }
+        for(Map.Entry<String, ChartSheet> sheet : expectedSheets.entrySet()) {
+            compareSheets(path + " [" + sheet.getKey() + "]", sheet.getValue(), actualSheets.get(sheet.getKey()),
+                    differences, differencesBefore + MAX_DIFFERENCES_PER_FILE);
+        }
+        if(differences.size() >= differencesBefore + MAX_DIFFERENCES_PER_FILE) {
+            differences.add(path + ": more differences not shown");
+        }
+    }
+
+    private void compareSheets(final String where, final ChartSheet expected, final ChartSheet actual,
+            final List<String> differences, final int maxDifferences) {
+        if(expected.getLastRowNum() != actual.getLastRowNum()) {
+            differences.add(where + ": last row " + actual.getLastRowNum() + " instead of " + expected.getLastRowNum());
+        }
+        final int lastRow = Math.max(expected.getLastRowNum(), actual.getLastRowNum());
+        for(int row = 0; row <= lastRow && differences.size() < maxDifferences; row++) {
+            final int lastCell = Math.max(expected.getLastCellNum(row), actual.getLastCellNum(row));
+            for(int col = 0; col < lastCell && differences.size() < maxDifferences; col++) {
+                String expectedValue = valueOf(expected, row, col);
+                String actualValue = valueOf(actual, row, col);
+                if(!expectedValue.equals(actualValue)) {
+                    differences.add(where + " row " + row + ", col " + col + ": \"" + actualValue +
+                            "\" instead of \"" + expectedValue + "\"");
+                }
+            }
+        }
+
+        TreeSet<String> expectedRegions = getRegions(expected);
+        TreeSet<String> actualRegions = getRegions(actual);
+        if(!expectedRegions.equals(actualRegions) && differences.size() < maxDifferences) {
+            TreeSet<String> missing = new TreeSet<String>(expectedRegions);
+            missing.removeAll(actualRegions);
+            actualRegions.removeAll(expectedRegions);
+            differences.add(where + ": merged regions missing " + first(missing) + ", not expected " + first(actualRegions));
+        }
+    }
+
+    /**
+     * Returns the trimmed value of the cell, an empty string for a blank or missing cell.
+     */
+    private String valueOf(final ChartSheet sheet, final int row, final int col) {
+        if(row > sheet.getLastRowNum() || col >= sheet.getLastCellNum(row)) {
+            return "";
+        }
+        String value = sheet.getCellValue(row, col, dateFormat);
+        return value == null ? "" : value.trim();
+    }
+
+    private static TreeSet<String> getRegions(final ChartSheet sheet) {
+        TreeSet<String> regions = new TreeSet<String>();
+        for(ChartSheet.Region region : sheet.getMergedRegions()) {
+            regions.add("[" + region.getFirstRow() + ", " + region.getFirstCol() + "] - [" +
+                    region.getLastRow() + ", " + region.getLastCol() + "]");
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the first few of the values.
+     */
+    private static String first(final TreeSet<String> values) {
+        List<String> first = new ArrayList<String>();
+        Iterator<String> iterator = values.iterator();
+        while(iterator.hasNext() && first.size() < 3) {
+            first.add(iterator.next());
+        }
+        return first + (values.size() > first.size() ? " and " + (values.size() - first.size()) + " more" : "");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2) {
+            System.out.println("Expected: <expected output directory> <actual output directory>");
+            System.exit(1);
+        }
+        List<String> differences = new ScheduleOutputComparer(new PoiChartReader())
+            .compare(new File(args[0]), new File(args[1]));
+        for(String difference : differences) {
+            System.out.println(difference);
+        }
+        if(!differences.isEmpty()) {
+            System.out.println(differences.size() + " differences between " + args[0] + " and " + args[1]);
+            System.exit(1);
+        }
+        System.out.println("The outputs are the same.");
+    }
+}
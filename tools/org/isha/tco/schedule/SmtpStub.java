@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2009 Isha Foundation. All rights reserved.
+ */
+
+package org.isha.tco.schedule;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A mail server on the loopback interface that takes whatever it is sent and keeps it, to try
+ * out the mailing of the co-ordinator reports without a real server.
+ * <p>
+ * It offers PIPELINING in its EHLO reply unless told not to. Without it, a client that sends a
+ * command before the reply to the previous one has come back is noted as an error. A recipient
+ * with "reject" in the address is turned down.
+ * <br>
+ * Arguments: [--no-pipelining] port, to serve till killed and print the mails received, or
+ * --check, to mail a few reports through {@link CoordinatorMailer} with and without pipelining
+ * and check what arrives.
+ * <p>
+ * It is a test stand-in and is kept out of the converter. It is compiled along with ./src, e.g.<br>
+ * javac -d build/tools -cp "lib/*" src/org/isha/tco/schedule/*.java tools/org/isha/tco/schedule/*.java<br>
+ * java -cp "build/tools:lib/*" org.isha.tco.schedule.SmtpStub --check
+ *
+ * @author psriniv
+ *
+ */
+class SmtpStub {
+
+    private static final String CRLF = "\r\n";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String REJECTED = "reject";
+
+    private final ServerSocket server;
+    private final boolean pipelining;
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    /** whether a client sent commands without waiting for their replies */
+    private volatile boolean pipelined;
+    private volatile boolean printing;
+
+    public SmtpStub(int port, boolean pipelining) throws IOException {
+        this.server = new ServerSocket(port, 50, InetAddress.getByName(null));
+        this.pipelining = pipelining;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts connections on a thread of its own till closed, serving each on a thread of its own.
+     */
+    public void start() {
+        Thread acceptor = new Thread("smtp-stub-" + getPort()) {
+            public void run() {
+                while(true) {
+                    final Socket socket;
+                    try {
+                        socket = server.accept();
+                    }
+                    catch(IOException e) {
+                        //Closed.
+                        return;
+                    }
+                    Thread session = new Thread("smtp-stub-session") {
+                        public void run() {
+                            try {
+                                serve(socket);
+                            }
+                            catch(IOException e) {
+                                errors.add(String.valueOf(e));
+                            }
+                            finally {
+                                try {
+                                    socket.close();
+                                }
+                                catch(IOException e) {
+                                    //Nothing more to do.
+                                }
+                            }
+                        }
+                    };
+                    session.setDaemon(true);
+                    session.start();
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Returns the messages received, without the dot that ends them.
+     */
+    public List<String> getMessages() {
+        return new ArrayList<String>(messages);
+    }
+
+    public List<String> getErrors() {
+        return new ArrayList<String>(errors);
+    }
+
+    public boolean wasPipelined() {
+        return pipelined;
+    }
+
+    private void serve(final Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        reply(out, "220 localhost SMTP stub");
+        boolean recipientAccepted = false;
+        String command;
+        while((command = readLine(in)) != null) {
+            final String verb = command.length() < 4 ? command.toUpperCase() : command.substring(0, 4).toUpperCase();
+            if(in.available() > 0 && !"QUIT".equals(verb)) {
+                pipelined = true;
+                if(!pipelining) {
+                    errors.add("Sent before the reply to: " + command);
+                }
+            }
+            if("EHLO".equals(verb) || "HELO".equals(verb)) {
+                reply(out, pipelining ? "250-localhost" + CRLF + "250-PIPELINING" + CRLF + "250 8BITMIME" : "250 localhost");
+            }
+            else if("MAIL".equals(verb)) {
+                recipientAccepted = false;
+                reply(out, "250 OK");
+            }
+            else if("RCPT".equals(verb)) {
+                recipientAccepted = !command.toLowerCase().contains(REJECTED);
+                reply(out, recipientAccepted ? "250 OK" : "550 No such user");
+            }
+            else if("DATA".equals(verb)) {
+                if(!recipientAccepted) {
+                    reply(out, "554 No valid recipients");
+                    continue;
+                }
+                reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                StringBuilder message = new StringBuilder();
+                String line;
+                while((line = readLine(in)) != null && !".".equals(line)) {
+                    message.append(line).append(CRLF);
+                }
+                if(line == null) {
+                    errors.add("Connection closed in the middle of a message.");
+                    return;
+                }
+                messages.add(message.toString());
+                if(printing) {
+                    System.out.println(message);
+                }
+                reply(out, "250 OK queued");
+            }
+            else if("RSET".equals(verb)) {
+                recipientAccepted = false;
+                reply(out, "250 OK");
+            }
+            else if("QUIT".equals(verb)) {
+                reply(out, "221 Bye");
+                return;
+            }
+            else {
+                reply(out, "500 Unknown command");
+            }
+        }
+    }
+
+    private static void reply(final OutputStream out, final String reply) throws IOException {
+        out.write((reply + CRLF).getBytes(UTF8));
+        out.flush();
+    }
+
+    /**
+     * Reads a line without its line ending, or returns null at the end of the stream.
+     */
+    private static String readLine(final InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while((c = in.read()) != '\n') {
+            if(c == -1) {
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            }
+            if(c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * Returns the attachment of a message written by {@link CoordinatorMailer}, or null if it has none.
+     */
+    static byte[] getAttachment(final String message) {
+        final int disposition = message.indexOf("Content-Disposition: attachment");
+        if(disposition < 0) {
+            return null;
+        }
+        final int start = message.indexOf(CRLF + CRLF, disposition) + 2 * CRLF.length();
+        final int end = message.indexOf(CRLF + "--", start - CRLF.length());
+        return Base64.getMimeDecoder().decode(message.substring(start, end));
+    }
+
+    /**
+     * Mails the reports of a few co-ordinators, one of whom is turned down, through the stub
+     * and checks that the others arrive whole. Returns the problems found.
+     */
+    static List<String> check(final boolean pipelining) throws IOException {
+        List<String> problems = new ArrayList<String>();
+        SmtpStub stub = new SmtpStub(0, pipelining);
+        stub.start();
+        try {
+            List<CoordinatorMailer.Mail> mails = new ArrayList<CoordinatorMailer.Mail>();
+            List<byte[]> reports = new ArrayList<byte[]>();
+            for(int i = 0; i < 7; i++) {
+                byte[] report = new byte[1000 + i * 4099];
+                for(int b = 0; b < report.length; b++) {
+                    report[b] = (byte) (b * 31 + i);
+                }
+                final String coordinator = "Coordinator " + i;
+                final String address = (i == 3 ? REJECTED : "coordinator" + i) + "@example.org";
+                mails.add(new CoordinatorMailer.Mail(coordinator, address, "Schedule for " + coordinator,
+                        "Chart-" + i + ".xls", report));
+                if(i != 3) {
+                    reports.add(report);
+                }
+            }
+            List<CoordinatorMailer.Mail> failed =
+                new CoordinatorMailer("localhost", stub.getPort(), "schedules@example.org", 2, 3).send(mails);
+
+            if(failed.size() != 1 || failed.get(0) != mails.get(3)) {
+                problems.add("Expected only the mail to be turned down to fail, failed: " + failed);
+            }
+            List<String> received = stub.getMessages();
+            if(received.size() != reports.size()) {
+                problems.add("Expected " + reports.size() + " mails, received: " + received.size());
+            }
+            for(byte[] report : reports) {
+                boolean found = false;
+                for(String message : received) {
+                    found = found || Arrays.equals(report, getAttachment(message));
+                }
+                if(!found) {
+                    problems.add("A report of " + report.length + " bytes did not arrive whole.");
+                }
+            }
+            if(pipelining && !stub.wasPipelined()) {
+                problems.add("The commands were not pipelined though the server offered it.");
+            }
+            problems.addAll(stub.getErrors());
+        }
+        finally {
+            stub.close();
+        }
+        return problems;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 1 && "--check".equals(args[0])) {
+            boolean ok = true;
+            for(boolean pipelining : new boolean[] { true, false }) {
+                List<String> problems = check(pipelining);
+                System.out.println((pipelining ? "With" : "Without") + " pipelining: " +
+                        (problems.isEmpty() ? "OK" : problems.toString()));
+                ok = ok && problems.isEmpty();
+            }
+            System.exit(ok ? 0 : 1);
+        }
+        boolean pipelining = !(args.length == 2 && "--no-pipelining".equals(args[0]));
+        if(args.length != (pipelining ? 1 : 2)) {
+            System.out.println("Expected: [--no-pipelining] <port> | --check");
+            System.exit(1);
+        }
+        SmtpStub stub = new SmtpStub(Integer.parseInt(args[args.length - 1]), pipelining);
+        stub.printing = true;
+        System.out.println("SMTP stub " + (pipelining ? "with" : "without") + " pipelining on port: " + stub.getPort());
+        stub.start();
+        Thread.currentThread().join();
+    }
+}